@@ -0,0 +1,141 @@
+package dev.eatgrapes.chlorine.bench;
+
+import dev.eatgrapes.chlorine.transformers.ClassContext;
+import dev.eatgrapes.chlorine.transformers.impl.FlowTransformer;
+import dev.eatgrapes.chlorine.utils.KeepRules;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.TimeUnit;
+
+// Per-call cost of Subject.work as written and flattened with exception stages or opaque predicates, each dispatched
+// through a lookupswitch or a tableswitch, once as a whole and once split at its blocks around the inner loop.
+// Each variant is loaded in its own class loader and driven by the untransformed Subject.loop.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class FlowBenchmark {
+    private static final String SUBJECT = "dev/eatgrapes/chlorine/bench/FlowBenchmark$Subject";
+    private static final int CALLS = 10_000;
+
+    @Param({"original",
+            "exceptions/lookup", "predicates/lookup", "exceptions/table", "predicates/table",
+            "exceptions/lookup/regions", "predicates/lookup/regions", "exceptions/table/regions", "predicates/table/regions"})
+    public String variant;
+
+    private MethodHandle loop;
+
+    @Setup
+    public void setup() throws Throwable {
+        byte[] original;
+        try (InputStream in = FlowBenchmark.class.getResourceAsStream("/" + SUBJECT + ".class")) {
+            if (in == null) throw new IOException("Missing " + SUBJECT);
+            original = in.readAllBytes();
+        }
+
+        long expected = (long) load(original).invokeExact(CALLS);
+        if (variant.equals("original")) {
+            loop = load(original);
+            return;
+        }
+        String[] parts = variant.split("/");
+        loop = load(flatten(original, parts[0].equals("predicates"), parts[1].equals("table"), parts.length > 2));
+        long result = (long) loop.invokeExact(CALLS);
+        if (result != expected) {
+            throw new IllegalStateException(variant + " returned " + result + ", expected " + expected);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CALLS)
+    public long work() throws Throwable {
+        return (long) loop.invokeExact(CALLS);
+    }
+
+    // flattens work and nothing else, so every variant is driven by the same loop
+    private static byte[] flatten(byte[] original, boolean exceptionFree, boolean tableDispatch, boolean regions) {
+        ClassNode cn = read(original);
+        ClassNode untouched = read(original);
+
+        FlowTransformer flow = new FlowTransformer();
+        flow.setSeed(0x5eedL);
+        flow.setExceptionFree(exceptionFree);
+        flow.setTableDispatch(tableDispatch);
+        flow.setRegionFlattening(regions);
+        ClassContext context = flow.createContext(cn, KeepRules.none());
+        flow.transformClass(context);
+
+        boolean flattened = false;
+        for (int i = 0; i < cn.methods.size(); i++) {
+            MethodNode mn = cn.methods.get(i);
+            if (mn.name.equals("work")) {
+                flattened = context.getModifiedMethods().contains(mn);
+            } else {
+                cn.methods.set(i, untouched.methods.get(i));
+            }
+        }
+        if (!flattened) throw new IllegalStateException("work was not flattened");
+
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_FRAMES);
+        cn.accept(cw);
+        return cw.toByteArray();
+    }
+
+    private static ClassNode read(byte[] data) {
+        ClassNode cn = new ClassNode();
+        new ClassReader(data).accept(cn, ClassReader.SKIP_FRAMES);
+        // loaded on its own, away from the benchmark's nest
+        cn.nestHostClass = null;
+        cn.innerClasses.clear();
+        return cn;
+    }
+
+    private static MethodHandle load(byte[] data) throws ReflectiveOperationException {
+        Class<?> subject = new SubjectLoader().define(data);
+        return MethodHandles.publicLookup().findStatic(subject, "loop", MethodType.methodType(long.class, int.class));
+    }
+
+    private static class SubjectLoader extends ClassLoader {
+        SubjectLoader() {
+            super(FlowBenchmark.class.getClassLoader());
+        }
+
+        Class<?> define(byte[] data) {
+            return defineClass(SUBJECT.replace('/', '.'), data, 0, data.length);
+        }
+    }
+
+    public static class Subject {
+        public static int work(int a, int b) {
+            int x = a * 31 + b;
+            if ((x & 1) == 0) {
+                x ^= b << 3;
+            } else {
+                x += a >>> 2;
+            }
+            for (int i = 0; i < 4; i++) {
+                x = x * 17 + i;
+            }
+            return x;
+        }
+
+        public static long loop(int calls) {
+            long sum = 0;
+            for (int i = 0; i < calls; i++) {
+                sum += work(i, (int) sum);
+            }
+            return sum;
+        }
+    }
+}
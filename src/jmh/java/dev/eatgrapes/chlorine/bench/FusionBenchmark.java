@@ -0,0 +1,75 @@
+package dev.eatgrapes.chlorine.bench;
+
+import dev.eatgrapes.chlorine.io.ArchiveEntry;
+import dev.eatgrapes.chlorine.io.ZipArchive;
+import dev.eatgrapes.chlorine.transformers.Transformer;
+import dev.eatgrapes.chlorine.transformers.Transformers;
+import dev.eatgrapes.chlorine.utils.KeepRules;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.tree.ClassNode;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+// Parses a JAR's classes and runs the selected rewriting transformers over them one by one or fused into a single
+// walk, on one thread. Run with -prof gc for the allocation per run.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class FusionBenchmark {
+    @Param("")
+    public String input;
+
+    @Param("NumberObfuscation,StringEncryption,Reflection")
+    public String transformers;
+
+    @Param({"false", "true"})
+    public boolean fused;
+
+    private final List<byte[]> classData = new ArrayList<>();
+    private ForkJoinPool pool;
+
+    @Setup
+    public void setup() throws Exception {
+        try (ZipArchive archive = ZipArchive.open(Inputs.jar(input), true)) {
+            for (ArchiveEntry entry : archive.getEntries()) {
+                if (entry.isClass()) classData.add(archive.read(entry));
+            }
+        }
+        pool = new ForkJoinPool(1);
+    }
+
+    @TearDown
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Benchmark
+    public Map<String, ClassNode> transform() {
+        Map<String, ClassNode> classes = new LinkedHashMap<>();
+        for (byte[] data : classData) {
+            ClassNode cn = new ClassNode();
+            new ClassReader(data).accept(cn, 0);
+            classes.put(cn.name, cn);
+        }
+
+        Transformers registry = new Transformers();
+        List<Transformer> selected = new ArrayList<>();
+        for (String name : transformers.split(",")) {
+            Transformer t = registry.get(name.trim());
+            if (t == null) throw new IllegalArgumentException("Unknown transformer: " + name);
+            t.setSeed(0x5eedL);
+            t.setPool(pool);
+            selected.add(t);
+        }
+        for (Transformer t : fused ? Transformers.fuse(selected) : selected) {
+            t.transform(classes, new HashMap<>(), KeepRules.none());
+        }
+        return classes;
+    }
+}
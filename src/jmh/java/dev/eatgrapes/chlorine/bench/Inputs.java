@@ -0,0 +1,20 @@
+package dev.eatgrapes.chlorine.bench;
+
+import org.objectweb.asm.ClassReader;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+
+final class Inputs {
+    private Inputs() {
+    }
+
+    // the JAR named by a benchmark's input parameter, or the ASM jar the benchmark runs with when it is empty
+    static File jar(String input) throws Exception {
+        File file = input.isEmpty()
+                ? new File(ClassReader.class.getProtectionDomain().getCodeSource().getLocation().toURI())
+                : new File(input);
+        if (!file.isFile()) throw new FileNotFoundException(file.getPath());
+        return file;
+    }
+}
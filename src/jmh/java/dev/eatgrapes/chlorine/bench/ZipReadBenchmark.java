@@ -0,0 +1,78 @@
+package dev.eatgrapes.chlorine.bench;
+
+import dev.eatgrapes.chlorine.io.ArchiveEntry;
+import dev.eatgrapes.chlorine.io.ZipArchive;
+import org.objectweb.asm.ClassReader;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Enumeration;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+// Reads every class of a JAR through JarFile and through ZipArchive on a file channel or a mapping. Run with
+// -prof gc for the allocation per read; -p input=<jar> picks the JAR, the ASM jar on the classpath by default.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ZipReadBenchmark {
+    @Param("")
+    public String input;
+
+    private File file;
+
+    @Setup
+    public void setup() throws Exception {
+        file = Inputs.jar(input);
+    }
+
+    @Benchmark
+    public int jarFile(Blackhole blackhole) throws IOException {
+        int classes = 0;
+        try (JarFile jar = new JarFile(file)) {
+            Enumeration<JarEntry> entries = jar.entries();
+            while (entries.hasMoreElements()) {
+                JarEntry entry = entries.nextElement();
+                if (!entry.getName().endsWith(".class")) continue;
+                try (InputStream is = jar.getInputStream(entry)) {
+                    consume(is.readAllBytes(), blackhole);
+                    classes++;
+                }
+            }
+        }
+        return classes;
+    }
+
+    @Benchmark
+    public int channel(Blackhole blackhole) throws IOException {
+        return readWithArchive(false, blackhole);
+    }
+
+    @Benchmark
+    public int mmap(Blackhole blackhole) throws IOException {
+        return readWithArchive(true, blackhole);
+    }
+
+    private int readWithArchive(boolean mapped, Blackhole blackhole) throws IOException {
+        int classes = 0;
+        try (ZipArchive archive = ZipArchive.open(file, mapped)) {
+            for (ArchiveEntry entry : archive.getEntries()) {
+                if (!entry.isClass()) continue;
+                consume(archive.read(entry), blackhole);
+                classes++;
+            }
+        }
+        return classes;
+    }
+
+    private static void consume(byte[] data, Blackhole blackhole) {
+        blackhole.consume(new ClassReader(data).getAccess());
+    }
+}
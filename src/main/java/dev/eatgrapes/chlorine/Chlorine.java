@@ -1,68 +1,204 @@
 package dev.eatgrapes.chlorine;
 
+import dev.eatgrapes.chlorine.cache.ClassCache;
+import dev.eatgrapes.chlorine.io.ZipArchive;
+import dev.eatgrapes.chlorine.library.Libraries;
 import dev.eatgrapes.chlorine.transformers.Transformer;
 import dev.eatgrapes.chlorine.transformers.Transformers;
+import dev.eatgrapes.chlorine.transformers.impl.FlowTransformer;
+import dev.eatgrapes.chlorine.utils.ClassEmitter;
+import dev.eatgrapes.chlorine.utils.ClassHierarchy;
+import dev.eatgrapes.chlorine.utils.HotnessProfile;
+import dev.eatgrapes.chlorine.utils.KeepRules;
+import dev.eatgrapes.chlorine.utils.LazyClassMap;
+import dev.eatgrapes.chlorine.utils.NameGenerator;
+import dev.eatgrapes.chlorine.utils.ParallelUtils;
+import dev.eatgrapes.chlorine.utils.SizeBudget;
 import org.apache.commons.cli.*;
-import org.objectweb.asm.ClassReader;
-import org.objectweb.asm.ClassWriter;
-import org.objectweb.asm.tree.ClassNode;
 
 import java.io.*;
 import java.nio.file.Path;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Function;
 import java.util.jar.*;
+import java.util.stream.Stream;
 
 public class Chlorine {
     public static final String PROJECT_NAME = "Chlorine";
     public static final String VERSION = "1.0.0";
+    private static final int WRITE_BATCH_SIZE = 512;
+    private static final String MANIFEST_NAME = "META-INF/MANIFEST.MF";
+    private static final String RELEASES_PREFIX = "META-INF/versions/";
+    // used for written entries in seeded runs unless SOURCE_DATE_EPOCH says otherwise
+    private static final LocalDateTime REPRODUCIBLE_TIME = LocalDateTime.of(1980, 2, 1, 0, 0);
 
     public static void main(String[] args) {
+        int status = run(args, new File("").getAbsoluteFile(), Session.cold());
+        if (status != 0) System.exit(status);
+    }
+
+    // workDir resolves relative paths, which differ from the JVM's own for jobs sent to a daemon
+    static int run(String[] args, File workDir, Session session) {
         Options options = new Options();
         options.addOption("i", "input", true, "Input JAR/Class file");
         options.addOption("o", "output", true, "Output JAR file");
         options.addOption("t", "transformers", true, "Transformers to run (comma separated). Default: all");
         options.addOption("k", "keep", true, "Classes/Packages to keep (comma separated)");
+        options.addOption("j", "threads", true, "Worker threads for parallel stages. Default: available processors");
+        options.addOption(null, "no-mmap", false, "Read the input through positional channel reads instead of memory-mapping it");
+        options.addOption("l", "level", true, "Deflate level (0-9) for entries written by Chlorine. Default: 6");
+        options.addOption(null, "store", false, "Write entries produced by Chlorine uncompressed (STORED)");
+        options.addOption(null, "pipeline", false, "Stream classes through read, transform and write stages concurrently (class-local transformers only)");
+        options.addOption(null, "fuse", false, "Run consecutive instruction-rewriting transformers in one walk per method");
+        options.addOption(null, "libraries", true, "Library JARs used to resolve external types (comma separated). Use jrt:/ for the running JDK");
+        options.addOption(null, "seed", true, "Master seed for all transformers; repeated runs with the same seed give identical output");
+        options.addOption(null, "incremental", false, "Reuse classes emitted by previous runs from the cache directory and keep their names stable");
+        options.addOption(null, "cache-dir", true, "Directory for cached library indexes and incremental builds. Default: ~/.chlorine/cache");
+        options.addOption(null, "nested", true, "JARs inside the input to process as well (comma separated entry-name globs, e.g. BOOT-INF/lib/*.jar)");
+        options.addOption(null, "flow-no-exceptions", false, "Flatten control flow with opaque predicates instead of thrown exceptions");
+        options.addOption(null, "flow-tableswitch", false, "Dispatch flattened methods through a tableswitch on a bijection of the state");
+        options.addOption(null, "flow-regions", false, "Dispatch between the blocks of flattened methods, leaving innermost loops intact");
+        options.addOption(null, "size-budget", true, "How far transformers may grow a method: off, compile or inline. Default: compile");
+        options.addOption(null, "profile", true, "JFR recording of a representative run; hot methods get lighter obfuscation");
+        options.addOption(null, "profile-hot", true, "Percentile of sampled methods, hottest first, left unobfuscated. Default: 1");
+        options.addOption(null, "daemon", true, "Stay resident and run jobs received on this Unix-domain socket");
+        options.addOption(null, "remote", true, "Run this job on the daemon listening on this Unix-domain socket");
         options.addOption("h", "help", false, "Show help");
 
         CommandLineParser parser = new DefaultParser();
         try {
             CommandLine cmd = parser.parse(options, args);
+            if (cmd.hasOption("daemon")) {
+                Daemon.serve(resolve(workDir, cmd.getOptionValue("daemon")).toPath());
+                return 0;
+            }
+            if (cmd.hasOption("remote")) {
+                return Daemon.submit(resolve(workDir, cmd.getOptionValue("remote")).toPath(), workDir, withoutOption(args, "--remote"));
+            }
             if (cmd.hasOption("h") || !cmd.hasOption("i")) {
                 new HelpFormatter().printHelp("chlorine", options);
-                return;
+                return 0;
             }
 
-            File inputFile = new File(cmd.getOptionValue("i"));
-            File outputFile = new File(cmd.getOptionValue("o", inputFile.getName().replace(".jar", "-obf.jar")));
+            File inputFile = resolve(workDir, cmd.getOptionValue("i"));
+            File outputFile = cmd.hasOption("o")
+                    ? resolve(workDir, cmd.getOptionValue("o"))
+                    : new File(workDir, inputFile.getName().replace(".jar", "-obf.jar"));
             validateOutputPathSafety(inputFile, outputFile);
             
-            Set<String> keeps = new HashSet<>();
+            ChlorineConfig config = new ChlorineConfig().setLog(Log.console());
             if (cmd.hasOption("k")) {
-                Collections.addAll(keeps, cmd.getOptionValue("k").split(","));
+                for (String rule : cmd.getOptionValue("k").split(",")) {
+                    config.addKeep(rule);
+                }
             }
             
             Transformers registry = new Transformers();
-            List<Transformer> toRun = new ArrayList<>();
             
             if (cmd.hasOption("t")) {
                 String[] names = cmd.getOptionValue("t").split(",");
                 for (String name : names) {
                     Transformer t = registry.get(name.trim());
-                    if (t != null) toRun.add(t);
-                    else System.err.println("Warning: Transformer " + name + " not found.");
+                    if (t != null) config.addTransformer(t);
+                    else config.getLog().warn("Transformer " + name + " not found.");
                 }
             } else {
-                toRun.addAll(registry.getTransformers());
+                registry.getTransformers().forEach(config::addTransformer);
             }
 
-            process(inputFile, outputFile, toRun, keeps);
+            for (Transformer t : config.getTransformers()) {
+                if (!(t instanceof FlowTransformer)) continue;
+                ((FlowTransformer) t).setExceptionFree(cmd.hasOption("flow-no-exceptions"));
+                ((FlowTransformer) t).setTableDispatch(cmd.hasOption("flow-tableswitch"));
+                ((FlowTransformer) t).setRegionFlattening(cmd.hasOption("flow-regions"));
+            }
+            if (cmd.hasOption("j")) config.setThreads(parseInt(cmd.getOptionValue("j"), "thread count"));
+            if (cmd.hasOption("l")) config.setCompressionLevel(parseInt(cmd.getOptionValue("l"), "compression level"));
+            config.setStoreOnly(cmd.hasOption("store"));
+            config.setMappedInput(!cmd.hasOption("no-mmap"));
+            config.setPipelined(cmd.hasOption("pipeline"));
+            config.setFused(cmd.hasOption("fuse"));
+            config.setIncremental(cmd.hasOption("incremental"));
+            if (cmd.hasOption("seed")) config.setSeed(parseLong(cmd.getOptionValue("seed"), "seed"));
+            if (cmd.hasOption("size-budget")) config.setSizeBudget(parseSizeBudget(cmd.getOptionValue("size-budget")));
+            if (cmd.hasOption("profile")) config.setProfile(resolve(workDir, cmd.getOptionValue("profile")).toPath());
+            if (cmd.hasOption("profile-hot")) config.setProfileHotPercent(parseDouble(cmd.getOptionValue("profile-hot"), "hot percentile"));
+            if (cmd.hasOption("libraries")) {
+                for (String library : cmd.getOptionValue("libraries").split(",")) {
+                    if (library.trim().isEmpty()) continue;
+                    String path = library.trim();
+                    config.addLibrary(Libraries.isJrt(path) ? path : resolve(workDir, path).getPath());
+                }
+            }
+            if (cmd.hasOption("nested")) {
+                for (String pattern : cmd.getOptionValue("nested").split(",")) {
+                    if (!pattern.trim().isEmpty()) config.addNestedJar(pattern.trim());
+                }
+            }
+            if (cmd.hasOption("cache-dir")) config.setCacheDir(resolve(workDir, cmd.getOptionValue("cache-dir")).toPath());
 
-        } catch (IllegalArgumentException e) {
+            process(inputFile, outputFile, config, session);
+            return 0;
+        } catch (IllegalArgumentException | ParseException e) {
             System.err.println("Error: " + e.getMessage());
-            System.exit(1);
+            return 1;
         } catch (Exception e) {
             e.printStackTrace();
-            System.exit(1);
+            return 1;
+        }
+    }
+
+    private static int parseInt(String value, String label) {
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid " + label + ": " + value);
+        }
+    }
+
+    private static File resolve(File workDir, String path) {
+        File file = new File(path);
+        return file.isAbsolute() ? file : new File(workDir, path);
+    }
+
+    private static String[] withoutOption(String[] args, String option) {
+        List<String> result = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals(option)) {
+                i++;
+            } else if (!args[i].startsWith(option + "=")) {
+                result.add(args[i]);
+            }
+        }
+        return result.toArray(new String[0]);
+    }
+
+    private static long parseLong(String value, String label) {
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid " + label + ": " + value);
+        }
+    }
+
+    private static double parseDouble(String value, String label) {
+        try {
+            return Double.parseDouble(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid " + label + ": " + value);
+        }
+    }
+
+    private static SizeBudget.Level parseSizeBudget(String value) {
+        try {
+            return SizeBudget.Level.valueOf(value.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid size budget: " + value + " (expected off, compile or inline)");
         }
     }
 
@@ -97,41 +233,145 @@ public class Chlorine {
         }
     }
 
-    private static void process(File input, File output, List<Transformer> transformers, Set<String> keeps) throws IOException {
-        Map<String, ClassNode> classes = new HashMap<>();
-        Map<String, byte[]> resources = new HashMap<>();
-        Map<String, String> manifestAttr = new HashMap<>();
-        
-        try (JarFile jar = new JarFile(input)) {
-            Manifest mf = jar.getManifest();
-            if (mf != null) {
+    // Embedding entry point: transforms entries a caller already holds in memory, keyed by JAR entry name
+    // (com/example/Main.class), and hands each output entry to the sink as soon as it is ready, one call at a time.
+    public static void process(Iterable<? extends Map.Entry<String, byte[]>> entries, ChlorineConfig config, EntrySink sink) throws IOException {
+        ForkJoinPool pool = new ForkJoinPool(config.getThreads());
+        try {
+            process(new EntrySource.MemorySource(entries), new EntryTarget.SinkTarget(sink), config, Session.cold(), pool, Libraries.none());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    // the stream is read once through its iterator, straight into the run's source, without collecting it first
+    public static void process(Stream<? extends Map.Entry<String, byte[]>> entries, ChlorineConfig config, EntrySink sink) throws IOException {
+        Iterable<Map.Entry<String, byte[]>> iterable = entries.<Map.Entry<String, byte[]>>map(entry -> entry)::iterator;
+        process(iterable, config, sink);
+    }
+
+    private static void process(File input, File output, ChlorineConfig config, Session session) throws IOException {
+        ForkJoinPool pool = new ForkJoinPool(config.getThreads());
+        try (ZipArchive archive = ZipArchive.open(input, config.isMappedInput())) {
+            EntryTarget target = new EntryTarget.JarTarget(output, pool, config, config.hasSeed() ? reproducibleTime(config.getLog()) : null);
+            process(new EntrySource.ArchiveSource(archive), target, config, session, pool, Libraries.none());
+        } finally {
+            pool.shutdown();
+        }
+        config.getLog().info("Obfuscation complete: " + output.getPath());
+    }
+
+    // siblings: types of the archive this one is nested in, none for the input itself
+    static void process(EntrySource source, EntryTarget target, ChlorineConfig config, Session session, ForkJoinPool pool,
+                        Libraries siblings) throws IOException {
+        Log log = config.getLog();
+        List<String> classEntries = new ArrayList<>();
+        Map<Integer, List<String>> releaseEntries = new TreeMap<>();
+        Set<String> resources = new TreeSet<>();
+        List<String> nestedJars = new ArrayList<>();
+        Map<String, String> manifestAttr = new LinkedHashMap<>();
+        boolean hasManifest = false;
+
+        for (String name : source.getNames()) {
+            if (EntrySource.isClass(name)) {
+                int release = releaseOf(name);
+                if (release > 0) releaseEntries.computeIfAbsent(release, r -> new ArrayList<>()).add(name);
+                else classEntries.add(name);
+            } else if (name.equalsIgnoreCase(MANIFEST_NAME)) {
+                Manifest mf = new Manifest(new ByteArrayInputStream(source.read(name)));
                 Attributes mainAttrs = mf.getMainAttributes();
                 for (Object key : mainAttrs.keySet()) {
                     manifestAttr.put(key.toString(), mainAttrs.getValue(key.toString()));
                 }
-            }
-            
-            Enumeration<JarEntry> entries = jar.entries();
-            while (entries.hasMoreElements()) {
-                JarEntry entry = entries.nextElement();
-                try (InputStream is = jar.getInputStream(entry)) {
-                    byte[] data = is.readAllBytes();
-                    if (entry.getName().endsWith(".class")) {
-                        ClassReader cr = new ClassReader(data);
-                        ClassNode cn = new ClassNode();
-                        cr.accept(cn, 0);
-                        classes.put(cn.name, cn);
-                    } else if (!entry.isDirectory()) {
-                        resources.put(entry.getName(), data);
-                    }
-                }
+                hasManifest = true;
+            } else {
+                resources.add(name);
+                if (config.isNestedJar(name)) nestedJars.add(name);
             }
         }
+        List<String> allClassEntries = new ArrayList<>(classEntries);
+        releaseEntries.values().forEach(allClassEntries::addAll);
 
-        System.out.println("Loaded " + classes.size() + " classes.");
+        if (!nestedJars.isEmpty()) siblings = siblings.with(NestedJars.types(source, classEntries, resources, pool));
+        Libraries libraries = session.libraries(config.getLibraries(), config.getCacheDir(), pool, log).with(siblings);
+        KeepRules keeps = session.keeps(config);
+        if (keeps.hasAnnotationRules()) {
+            for (String entry : allClassEntries) {
+                keeps.scan(source.read(entry));
+            }
+        }
+        List<Transformer> transformers = Transformers.combineRenames(config.getTransformers());
+        if (config.isFused()) transformers = Transformers.fuse(transformers);
+        if (config.hasSeed()) {
+            for (Transformer t : transformers) {
+                t.setSeed(config.getSeed());
+            }
+        }
+        SizeBudget budget = new SizeBudget(config.getSizeBudget());
+        HotnessProfile profile = loadProfile(config);
+        NameGenerator names = NameGenerator.forRun();
         for (Transformer t : transformers) {
-            System.out.println("Running " + t.getName() + "...");
-            t.transform(classes, manifestAttr, keeps);
+            t.setNames(names);
+            t.setLog(log);
+            t.setSizeBudget(budget);
+            t.setProfile(profile);
+        }
+        boolean pipelined = config.isPipelined();
+        if (pipelined) {
+            String blocker = ClassPipeline.findNonClassLocal(transformers);
+            if (blocker != null) {
+                log.warn(blocker + " transforms the whole class set; running in phased mode instead of --pipeline.");
+                pipelined = false;
+            }
+        }
+
+        ClassCache cache = null;
+        if (config.isIncremental()) {
+            if (pipelined) {
+                log.warn("--incremental runs in phased mode; ignoring --pipeline.");
+                pipelined = false;
+            }
+            cache = ClassCache.open(config.getCacheDir(), cacheConfiguration(transformers, config.getSizeBudget(), profile, keeps, libraries), log);
+        }
+
+        LazyClassMap classes = null;
+        Map<Integer, LazyClassMap> releases = Collections.emptyMap();
+        Map<String, String> cacheKeys = Collections.emptyMap();
+        Map<String, byte[]> cachedClasses = Collections.emptyMap();
+        if (!pipelined) {
+            classes = new LazyClassMap();
+            for (String entry : classEntries) {
+                classes.add(source.read(entry));
+            }
+            log.info("Loaded " + classes.size() + " classes.");
+            if (cache == null) {
+                classes.materialize(pool, transformedClasses(classes, transformers, keeps));
+                runTransformers(transformers, classes, manifestAttr, keeps, pool, log);
+            } else {
+                // whole-set transformers always run, with the previous run's decisions; only classes whose cache
+                // key changed go through the class-local ones and get emitted again
+                long seed = loadState(cache, transformers, config);
+                int split = classLocalStart(transformers);
+                List<Transformer> wholeSet = transformers.subList(0, split);
+                List<Transformer> classLocal = transformers.subList(split, transformers.size());
+                classes.materialize(pool, transformedClasses(classes, wholeSet, keeps));
+                runTransformers(wholeSet, classes, manifestAttr, keeps, pool, log);
+
+                cacheKeys = cache.keys(classes, keeps, seed, pool);
+                cachedClasses = cache.lookup(cacheKeys, pool);
+                List<String> changed = new ArrayList<>();
+                for (String name : classes.keySet()) {
+                    if (!cachedClasses.containsKey(name)) changed.add(name);
+                }
+                log.info("Incremental: " + cache.getHits() + " classes cached, " + cache.getMisses() + " to transform.");
+                LazyClassMap pending = classes.select(changed);
+                pending.materialize(pool, transformedClasses(pending, classLocal, keeps));
+                runTransformers(classLocal, pending, manifestAttr, keeps, pool, log);
+                saveState(cache, transformers, seed);
+            }
+            if (!releaseEntries.isEmpty()) {
+                releases = transformReleases(source, classEntries, releaseEntries, transformers, manifestAttr, keeps, pool, log);
+            }
         }
 
         Manifest finalManifest = new Manifest();
@@ -140,125 +380,264 @@ public class Chlorine {
              finalManifest.getMainAttributes().put(new Attributes.Name(e.getKey()), e.getValue());
         }
 
-        try (FileOutputStream fos = new FileOutputStream(output)) {
-             fos.write((PROJECT_NAME + " " + VERSION + " by dev.eatgrapes\n").getBytes());
-             
-             try (JarOutputStream jos = new JarOutputStream(fos, finalManifest)) {
-                 for (ClassNode cn : classes.values()) {
-                     ClassWriter cw = new NonLoadingClassWriter(ClassWriter.COMPUTE_FRAMES, classes);
-                     cn.accept(cw);
-                     
-                     JarEntry entry = new JarEntry(cn.name + ".class");
-                     jos.putNextEntry(entry);
-                     jos.write(cw.toByteArray());
-                     jos.closeEntry();
-                 }
-                 
-                 for (Map.Entry<String, byte[]> res : resources.entrySet()) {
-                     if (res.getKey().equalsIgnoreCase("META-INF/MANIFEST.MF")) continue; 
-                     JarEntry entry = new JarEntry(res.getKey());
-                     jos.putNextEntry(entry);
-                     jos.write(res.getValue());
-                     jos.closeEntry();
-                 }
-                 
-                 jos.setComment(PROJECT_NAME + " " + VERSION);
-             }
-        }
-        
-        System.out.println("Obfuscation complete: " + output.getPath());
-    }
-
-    private static class NonLoadingClassWriter extends ClassWriter {
-        private final Map<String, ClassNode> classMap;
-
-        public NonLoadingClassWriter(int flags, Map<String, ClassNode> classMap) {
-            super(flags);
-            this.classMap = classMap;
-        }
-
-        @Override
-        protected String getCommonSuperClass(String type1, String type2) {
-            if (type1.equals(type2)) return type1;
-            if (type1.equals("java/lang/Object")) return type1;
-            if (type2.equals("java/lang/Object")) return type2;
-
-            try {
-                if (isAssignableFrom(type1, type2)) return type1;
-                if (isAssignableFrom(type2, type1)) return type2;
-                if (isInterface(type1) || isInterface(type2)) return "java/lang/Object";
-
-                String t1 = type1;
-                do {
-                    t1 = getSuperClass(t1);
-                    if (isAssignableFrom(t1, type2)) return t1;
-                } while (!t1.equals("java/lang/Object"));
-                
-                return "java/lang/Object";
-            } catch (Exception e) {
-                return "java/lang/Object";
+        NestedJars nested = nestedJars.isEmpty() ? null : new NestedJars(source, nestedJars, config, session, pool, siblings);
+        try (target; nested) {
+            target.begin();
+            if (hasManifest || target.needsManifest()) {
+                ByteArrayOutputStream manifestBytes = new ByteArrayOutputStream();
+                finalManifest.write(manifestBytes);
+                target.writeEntry(MANIFEST_NAME, manifestBytes.toByteArray());
             }
-        }
 
-        private boolean isAssignableFrom(String type1, String type2) {
-            if (type1.equals("java/lang/Object")) return true;
-            if (type1.equals(type2)) return true;
-            
-            String current = type2;
-            while (!current.equals("java/lang/Object")) {
-                String superType = getSuperClass(current);
-                if (superType.equals(type1)) return true;
-                
-                List<String> interfaces = getInterfaces(current);
-                for (String itf : interfaces) {
-                    if (itf.equals(type1)) return true;
-                    if (isAssignableFrom(type1, itf)) return true;
+            List<ClassEmitter> emitters = new ArrayList<>();
+            if (pipelined) {
+                log.info("Streaming " + allClassEntries.size() + " classes through " + transformers.size() + " transformers...");
+                ClassPipeline pipeline = new ClassPipeline(source, allClassEntries, transformers, keeps, pool, libraries);
+                pipeline.run(target);
+                emitters.add(pipeline.getEmitter());
+            } else {
+                emitters.add(writeClasses(target, classes, pool, libraries, cache, cacheKeys, cachedClasses));
+                for (Map.Entry<Integer, LazyClassMap> release : releases.entrySet()) {
+                    emitters.add(writeRelease(target, release.getKey(), release.getValue(), pool, libraries));
                 }
-                
-                current = superType;
             }
-            return false;
+            int rewritten = 0, copied = 0, recomputed = 0, copiedMethods = 0;
+            for (ClassEmitter emitter : emitters) {
+                rewritten += emitter.getRewrittenClasses();
+                copied += emitter.getCopiedClasses();
+                recomputed += emitter.getRecomputedMethods();
+                copiedMethods += emitter.getCopiedMethods();
+            }
+            log.info("Rewrote " + rewritten + " classes, " + copied + " copied unchanged.");
+            log.info("Frames recomputed for " + recomputed + " methods, " + copiedMethods + " copied.");
+            reportCapped(budget, log);
+
+            for (String res : resources) {
+                byte[] data = nested == null ? null : nested.get(res);
+                if (data != null) target.rewriteEntry(source, res, data);
+                else target.copyEntry(source, res);
+            }
         }
+    }
 
-        private String getSuperClass(String type) {
-            if (type.equals("java/lang/Object")) return null;
-            if (classMap.containsKey(type)) {
-                return classMap.get(type).superName;
+    private static HotnessProfile loadProfile(ChlorineConfig config) throws IOException {
+        if (config.getProfile() == null) return HotnessProfile.none();
+        HotnessProfile profile = HotnessProfile.load(config.getProfile(), config.getProfileHotPercent());
+        if (profile.isEmpty()) {
+            config.getLog().warn(config.getProfile() + " has no " + HotnessProfile.EXECUTION_SAMPLE + " events; obfuscating every method fully.");
+        } else {
+            config.getLog().info("Profile: " + profile.getSampleCount() + " samples, "
+                    + profile.count(HotnessProfile.Intensity.NONE) + " hot methods left alone, "
+                    + profile.count(HotnessProfile.Intensity.LIGHT) + " warm methods obfuscated lightly.");
+        }
+        return profile;
+    }
+
+    private static void reportCapped(SizeBudget budget, Log log) {
+        Map<String, Set<String>> capped = budget.getCapped();
+        if (capped.isEmpty()) return;
+        log.info("Size budget (" + budget.getLevel().name().toLowerCase(Locale.ROOT) + ") held back "
+                + capped.size() + " methods:");
+        for (Map.Entry<String, Set<String>> e : capped.entrySet()) {
+            log.info("  " + e.getKey() + " (" + String.join(", ", e.getValue()) + ")");
+        }
+    }
+
+    // META-INF/versions/<n>/ holds the classes of release n of a Multi-Release JAR; anything else is the base layer
+    private static int releaseOf(String entryName) {
+        if (!entryName.startsWith(RELEASES_PREFIX)) return 0;
+        int end = entryName.indexOf('/', RELEASES_PREFIX.length());
+        if (end < 0) return 0;
+        try {
+            return Math.max(0, Integer.parseInt(entryName.substring(RELEASES_PREFIX.length(), end)));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    // the transformers from this index on only look at one class at a time
+    private static int classLocalStart(List<Transformer> transformers) {
+        int split = 0;
+        for (int i = 0; i < transformers.size(); i++) {
+            if (!transformers.get(i).isClassLocal()) split = i + 1;
+        }
+        return split;
+    }
+
+    // Each release layer is transformed over the classes it runs with: the base classes overridden by its own and
+    // those of lower releases. The transformers start from the base run's decisions, so a class gets the same new
+    // name in every layer and calls the same string helpers; only the layer's own classes are written back.
+    private static Map<Integer, LazyClassMap> transformReleases(EntrySource source, List<String> classEntries,
+                                                                Map<Integer, List<String>> releaseEntries,
+                                                                List<Transformer> transformers, Map<String, String> manifest,
+                                                                KeepRules keeps, ForkJoinPool pool, Log log) throws IOException {
+        List<Map<String, String>> baseState = new ArrayList<>();
+        for (Transformer t : transformers) {
+            baseState.add(t.saveState());
+        }
+        int split = classLocalStart(transformers);
+        List<Transformer> wholeSet = transformers.subList(0, split);
+        List<Transformer> classLocal = transformers.subList(split, transformers.size());
+
+        Map<Integer, LazyClassMap> releases = new TreeMap<>();
+        for (int release : releaseEntries.keySet()) {
+            LazyClassMap view = new LazyClassMap();
+            for (String entry : classEntries) {
+                view.add(source.read(entry));
             }
-            try {
-                Class<?> c = Class.forName(type.replace('/', '.'), false, ClassLoader.getSystemClassLoader());
-                if (c.getSuperclass() == null) return "java/lang/Object";
-                return c.getSuperclass().getName().replace('.', '/');
-            } catch (Exception e) {
-                return "java/lang/Object";
+            for (Map.Entry<Integer, List<String>> layer : releaseEntries.entrySet()) {
+                if (layer.getKey() > release) break;
+                for (String entry : layer.getValue()) {
+                    view.add(source.read(entry), layer.getKey());
+                }
             }
-        }
-        
-        private boolean isInterface(String type) {
-            if (classMap.containsKey(type)) {
-                return (classMap.get(type).access & org.objectweb.asm.Opcodes.ACC_INTERFACE) != 0;
+            log.info("Release " + release + ": " + releaseEntries.get(release).size() + " classes.");
+            for (int i = 0; i < transformers.size(); i++) {
+                transformers.get(i).loadState(baseState.get(i));
             }
-            try {
-                return Class.forName(type.replace('/', '.'), false, ClassLoader.getSystemClassLoader()).isInterface();
-            } catch (Exception e) {
-                return false;
+
+            // the manifest belongs to the base run; changes made to it here are dropped
+            view.materialize(pool, transformedClasses(view, wholeSet, keeps));
+            runTransformers(wholeSet, view, new LinkedHashMap<>(manifest), keeps, pool, log);
+            List<String> own = new ArrayList<>();
+            for (String name : view.keySet()) {
+                if (view.getLayer(name) == release) own.add(name);
             }
+            LazyClassMap layer = view.select(own);
+            layer.materialize(pool, transformedClasses(layer, classLocal, keeps));
+            runTransformers(classLocal, layer, new LinkedHashMap<>(manifest), keeps, pool, log);
+            releases.put(release, view);
+        }
+        return releases;
+    }
+
+    private static void runTransformers(List<Transformer> transformers, LazyClassMap classes, Map<String, String> manifest,
+                                        KeepRules keeps, ForkJoinPool pool, Log log) {
+        for (Transformer t : transformers) {
+            log.info("Running " + t.getName() + "...");
+            t.setPool(pool);
+            classes.setMarkOnAccess(!t.reportsChanges());
+            t.transform(classes, manifest, keeps);
         }
-        
-        private List<String> getInterfaces(String type) {
-            if (classMap.containsKey(type)) {
-                return classMap.get(type).interfaces;
+        classes.setMarkOnAccess(false);
+    }
+
+    // everything besides a class and the seed that decides what the run emits for it
+    private static List<String> cacheConfiguration(List<Transformer> transformers, SizeBudget.Level sizeBudget,
+                                                   HotnessProfile profile, KeepRules keeps, Libraries libraries) {
+        List<String> configuration = new ArrayList<>();
+        configuration.add(PROJECT_NAME + " " + VERSION);
+        for (Transformer t : transformers) {
+            String settings = t.getSettings();
+            configuration.add("transformer:" + t.getName() + (settings.isEmpty() ? "" : "(" + settings + ")"));
+        }
+        configuration.add("size-budget:" + sizeBudget);
+        if (!profile.isEmpty()) configuration.add("profile:" + profile.getFingerprint());
+        for (String rule : keeps.getRules()) {
+            configuration.add("keep:" + rule);
+        }
+        for (String key : libraries.getKeys()) {
+            configuration.add("library:" + key);
+        }
+        return configuration;
+    }
+
+    // returns the --seed, else the seed of the previous run, else a new one; every transformer uses it
+    private static long loadState(ClassCache cache, List<Transformer> transformers, ChlorineConfig config) {
+        Map<String, String> state = cache.loadState();
+        long seed;
+        try {
+            seed = state.containsKey("seed") ? Long.parseLong(state.get("seed")) : ThreadLocalRandom.current().nextLong();
+        } catch (NumberFormatException e) {
+            seed = ThreadLocalRandom.current().nextLong();
+            state.clear();
+        }
+        if (config.hasSeed()) seed = config.getSeed();
+        for (int i = 0; i < transformers.size(); i++) {
+            Transformer t = transformers.get(i);
+            String prefix = i + "." + t.getName() + ".";
+            Map<String, String> transformerState = new HashMap<>();
+            for (Map.Entry<String, String> e : state.entrySet()) {
+                if (e.getKey().startsWith(prefix)) transformerState.put(e.getKey().substring(prefix.length()), e.getValue());
             }
-            try {
-                Class<?> c = Class.forName(type.replace('/', '.'), false, ClassLoader.getSystemClassLoader());
-                List<String> list = new ArrayList<>();
-                for (Class<?> i : c.getInterfaces()) {
-                    list.add(i.getName().replace('.', '/'));
-                }
-                return list;
-            } catch (Exception e) {
-                return Collections.emptyList();
+            t.setSeed(seed);
+            t.loadState(transformerState);
+        }
+        return seed;
+    }
+
+    private static void saveState(ClassCache cache, List<Transformer> transformers, long seed) {
+        Map<String, String> state = new HashMap<>();
+        state.put("seed", Long.toString(seed));
+        for (int i = 0; i < transformers.size(); i++) {
+            Transformer t = transformers.get(i);
+            for (Map.Entry<String, String> e : t.saveState().entrySet()) {
+                state.put(i + "." + t.getName() + "." + e.getKey(), e.getValue());
+            }
+        }
+        cache.saveState(state);
+    }
+
+    static LocalDateTime reproducibleTime(Log log) {
+        String epoch = System.getenv("SOURCE_DATE_EPOCH");
+        if (epoch == null || epoch.isBlank()) return REPRODUCIBLE_TIME;
+        try {
+            return LocalDateTime.ofInstant(Instant.ofEpochSecond(Long.parseLong(epoch.trim())), ZoneOffset.UTC);
+        } catch (NumberFormatException e) {
+            log.warn("Ignoring invalid SOURCE_DATE_EPOCH: " + epoch);
+            return REPRODUCIBLE_TIME;
+        }
+    }
+
+    private static ClassEmitter writeClasses(EntryTarget target, LazyClassMap classes, ForkJoinPool pool, Libraries libraries,
+                                             ClassCache cache, Map<String, String> cacheKeys, Map<String, byte[]> cachedClasses) throws IOException {
+        ClassEmitter emitter = new ClassEmitter(classes, new ClassHierarchy(classes, libraries));
+        writeBatches(target, "", new ArrayList<>(classes.keySet()), pool, name -> {
+            byte[] cached = cachedClasses.get(name);
+            if (cached != null) return cached;
+            byte[] data = emitter.emit(name);
+            if (cache != null) cache.put(cacheKeys.get(name), data);
+            return data;
+        });
+        return emitter;
+    }
+
+    // the view holds every class the release runs with, so its hierarchy is the one the layer's frames need
+    private static ClassEmitter writeRelease(EntryTarget target, int release, LazyClassMap view, ForkJoinPool pool,
+                                             Libraries libraries) throws IOException {
+        List<String> own = new ArrayList<>();
+        for (String name : view.keySet()) {
+            if (view.getLayer(name) == release) own.add(name);
+        }
+        ClassEmitter emitter = new ClassEmitter(view, new ClassHierarchy(view, libraries));
+        writeBatches(target, RELEASES_PREFIX + release + "/", own, pool, emitter::emit);
+        return emitter;
+    }
+
+    private static void writeBatches(EntryTarget target, String prefix, List<String> names, ForkJoinPool pool,
+                                     Function<String, byte[]> emit) throws IOException {
+        List<String> sorted = new ArrayList<>(names);
+        Collections.sort(sorted);
+        for (int from = 0; from < sorted.size(); from += WRITE_BATCH_SIZE) {
+            List<String> batch = sorted.subList(from, Math.min(from + WRITE_BATCH_SIZE, sorted.size()));
+            List<byte[]> written = ParallelUtils.map(pool, batch, emit);
+            for (int i = 0; i < batch.size(); i++) {
+                target.writeEntry(prefix + batch.get(i) + ".class", written.get(i));
             }
         }
     }
+
+    private static List<String> transformedClasses(LazyClassMap classes, List<Transformer> transformers, KeepRules keeps) {
+        List<String> names = new ArrayList<>();
+        if (transformers.isEmpty()) return names;
+
+        boolean includeKept = false;
+        for (Transformer t : transformers) {
+            includeKept |= t.visitsKeptClasses();
+        }
+        for (String name : classes.keySet()) {
+            if (includeKept || !keeps.keepsClass(name)) names.add(name);
+        }
+        return names;
+    }
 }
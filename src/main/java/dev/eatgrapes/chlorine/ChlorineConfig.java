@@ -0,0 +1,273 @@
+package dev.eatgrapes.chlorine;
+
+import dev.eatgrapes.chlorine.transformers.Transformer;
+import dev.eatgrapes.chlorine.utils.KeepRules;
+import dev.eatgrapes.chlorine.utils.ParallelUtils;
+import dev.eatgrapes.chlorine.utils.SizeBudget;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.zip.Deflater;
+
+public class ChlorineConfig {
+    private final List<Transformer> transformers = new ArrayList<>();
+    private final Set<String> keeps = new LinkedHashSet<>();
+    private KeepRules compiledKeeps;
+    private int threads = ParallelUtils.defaultThreads();
+    private boolean mappedInput = true;
+    private int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+    private boolean storeOnly;
+    private boolean pipelined;
+    private boolean fused;
+    private boolean incremental;
+    private Long seed;
+    private SizeBudget.Level sizeBudget = SizeBudget.Level.COMPILE;
+    private Path profile;
+    private double profileHotPercent = 1;
+    private final List<String> libraries = new ArrayList<>();
+    private Path cacheDir = Paths.get(System.getProperty("user.home"), ".chlorine", "cache");
+    private final List<String> nestedJars = new ArrayList<>();
+    private List<Pattern> nestedJarPatterns;
+    private Log log = Log.silent();
+
+    public List<Transformer> getTransformers() {
+        return transformers;
+    }
+
+    public ChlorineConfig addTransformer(Transformer transformer) {
+        transformers.add(transformer);
+        return this;
+    }
+
+    // compiled once per run and shared by every transformer, so their per-class decisions are cached together
+    public KeepRules getKeeps() {
+        if (compiledKeeps == null) compiledKeeps = KeepRules.compile(keeps);
+        return compiledKeeps;
+    }
+
+    public Set<String> getKeepRules() {
+        return Collections.unmodifiableSet(keeps);
+    }
+
+    public ChlorineConfig addKeep(String rule) {
+        keeps.add(rule);
+        compiledKeeps = null;
+        return this;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public ChlorineConfig setThreads(int threads) {
+        if (threads < 1) throw new IllegalArgumentException("Thread count must be at least 1 (-j).");
+        this.threads = threads;
+        return this;
+    }
+
+    public boolean isMappedInput() {
+        return mappedInput;
+    }
+
+    public ChlorineConfig setMappedInput(boolean mappedInput) {
+        this.mappedInput = mappedInput;
+        return this;
+    }
+
+    public int getCompressionLevel() {
+        return compressionLevel;
+    }
+
+    public ChlorineConfig setCompressionLevel(int compressionLevel) {
+        if (compressionLevel < Deflater.NO_COMPRESSION || compressionLevel > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("Compression level must be between 0 and 9 (-l).");
+        }
+        this.compressionLevel = compressionLevel;
+        return this;
+    }
+
+    public boolean isStoreOnly() {
+        return storeOnly;
+    }
+
+    public ChlorineConfig setStoreOnly(boolean storeOnly) {
+        this.storeOnly = storeOnly;
+        return this;
+    }
+
+    public boolean isPipelined() {
+        return pipelined;
+    }
+
+    public ChlorineConfig setPipelined(boolean pipelined) {
+        this.pipelined = pipelined;
+        return this;
+    }
+
+    public boolean isFused() {
+        return fused;
+    }
+
+    public ChlorineConfig setFused(boolean fused) {
+        this.fused = fused;
+        return this;
+    }
+
+    public boolean isIncremental() {
+        return incremental;
+    }
+
+    public ChlorineConfig setIncremental(boolean incremental) {
+        this.incremental = incremental;
+        return this;
+    }
+
+    public boolean hasSeed() {
+        return seed != null;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    // one seed for every transformer, which also fixes the timestamps of written entries
+    public ChlorineConfig setSeed(long seed) {
+        this.seed = seed;
+        return this;
+    }
+
+    public SizeBudget.Level getSizeBudget() {
+        return sizeBudget;
+    }
+
+    // how far transformers may grow a method: OFF, COMPILE (below HugeMethodLimit) or INLINE (also below the
+    // inlining threshold the method started under)
+    public ChlorineConfig setSizeBudget(SizeBudget.Level sizeBudget) {
+        this.sizeBudget = sizeBudget;
+        return this;
+    }
+
+    public Path getProfile() {
+        return profile;
+    }
+
+    // a JFR recording with jdk.ExecutionSample events; methods it shows as hot get lighter obfuscation
+    public ChlorineConfig setProfile(Path profile) {
+        this.profile = profile;
+        return this;
+    }
+
+    public double getProfileHotPercent() {
+        return profileHotPercent;
+    }
+
+    // the share of sampled methods, hottest first, that are not obfuscated at all
+    public ChlorineConfig setProfileHotPercent(double profileHotPercent) {
+        if (!(profileHotPercent >= 0 && profileHotPercent <= 100)) {
+            throw new IllegalArgumentException("Hot percentile must be between 0 and 100 (--profile-hot).");
+        }
+        this.profileHotPercent = profileHotPercent;
+        return this;
+    }
+
+    public List<String> getLibraries() {
+        return libraries;
+    }
+
+    public ChlorineConfig addLibrary(String library) {
+        libraries.add(library);
+        return this;
+    }
+
+    public Path getCacheDir() {
+        return cacheDir;
+    }
+
+    public ChlorineConfig setCacheDir(Path cacheDir) {
+        this.cacheDir = cacheDir;
+        return this;
+    }
+
+    public List<String> getNestedJars() {
+        return Collections.unmodifiableList(nestedJars);
+    }
+
+    // entry-name glob of JARs inside the input to process as well; * stays within a directory, ** does not
+    public ChlorineConfig addNestedJar(String pattern) {
+        nestedJars.add(pattern);
+        nestedJarPatterns = null;
+        return this;
+    }
+
+    public boolean isNestedJar(String entryName) {
+        if (nestedJars.isEmpty() || !entryName.endsWith(".jar")) return false;
+        if (nestedJarPatterns == null) {
+            List<Pattern> patterns = new ArrayList<>();
+            for (String glob : nestedJars) {
+                patterns.add(globPattern(glob));
+            }
+            nestedJarPatterns = patterns;
+        }
+        for (Pattern pattern : nestedJarPatterns) {
+            if (pattern.matcher(entryName).matches()) return true;
+        }
+        return false;
+    }
+
+    public Log getLog() {
+        return log;
+    }
+
+    // where progress and warnings go; silent by default, the command line prints them to the console
+    public ChlorineConfig setLog(Log log) {
+        this.log = log;
+        return this;
+    }
+
+    // the settings for one JAR nested in the input: nested JARs are processed side by side, so each gets its own
+    // transformers, and incremental state belongs to the outer JAR alone
+    ChlorineConfig forNestedJar() {
+        ChlorineConfig copy = new ChlorineConfig();
+        for (Transformer t : transformers) {
+            copy.addTransformer(t.newInstance());
+        }
+        copy.keeps.addAll(keeps);
+        copy.threads = threads;
+        copy.mappedInput = mappedInput;
+        copy.compressionLevel = compressionLevel;
+        copy.storeOnly = storeOnly;
+        copy.pipelined = pipelined;
+        copy.fused = fused;
+        copy.seed = seed;
+        copy.sizeBudget = sizeBudget;
+        copy.profile = profile;
+        copy.profileHotPercent = profileHotPercent;
+        copy.libraries.addAll(libraries);
+        copy.cacheDir = cacheDir;
+        copy.nestedJars.addAll(nestedJars);
+        copy.log = log;
+        return copy;
+    }
+
+    private static Pattern globPattern(String glob) {
+        StringBuilder regex = new StringBuilder();
+        for (int i = 0; i < glob.length(); i++) {
+            char c = glob.charAt(i);
+            if (c == '*' && i + 1 < glob.length() && glob.charAt(i + 1) == '*') {
+                regex.append(".*");
+                i++;
+            } else if (c == '*') {
+                regex.append("[^/]*");
+            } else {
+                regex.append(Pattern.quote(String.valueOf(c)));
+            }
+        }
+        return Pattern.compile(regex.toString());
+    }
+}
@@ -0,0 +1,160 @@
+package dev.eatgrapes.chlorine;
+
+import dev.eatgrapes.chlorine.library.Libraries;
+import dev.eatgrapes.chlorine.library.TypeHeader;
+import dev.eatgrapes.chlorine.transformers.ClassContext;
+import dev.eatgrapes.chlorine.transformers.Transformer;
+import dev.eatgrapes.chlorine.utils.ClassEmitter;
+import dev.eatgrapes.chlorine.utils.ClassHierarchy;
+import dev.eatgrapes.chlorine.utils.KeepRules;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.MethodNode;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.*;
+import java.util.concurrent.*;
+
+class ClassPipeline {
+    private static final int QUEUE_CAPACITY = 256;
+    private static final Item END = new Item(null, null);
+
+    private final EntrySource source;
+    private final List<String> entries;
+    private final List<Transformer> transformers;
+    private final KeepRules keeps;
+    private final ForkJoinPool pool;
+    private final ClassEmitter emitter;
+
+    ClassPipeline(EntrySource source, List<String> classEntries, List<Transformer> transformers, KeepRules keeps,
+                  ForkJoinPool pool, Libraries libraries) {
+        this.source = source;
+        this.entries = new ArrayList<>(classEntries);
+        Collections.sort(this.entries);
+        this.transformers = transformers;
+        this.keeps = keeps;
+        this.pool = pool;
+        this.emitter = new ClassEmitter(new ClassHierarchy(this::readInputType, libraries));
+    }
+
+    static String findNonClassLocal(List<Transformer> transformers) {
+        for (Transformer t : transformers) {
+            if (!t.isClassLocal()) return t.getName();
+        }
+        return null;
+    }
+
+    ClassEmitter getEmitter() {
+        return emitter;
+    }
+
+    void run(EntryTarget target) throws IOException {
+        BlockingQueue<Item> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        Throwable[] failure = new Throwable[1];
+        Thread reader = new Thread(() -> {
+            try {
+                for (String entry : entries) {
+                    byte[] data = source.read(entry);
+                    queue.put(new Item(entry, CompletableFuture.supplyAsync(() -> process(data), pool)));
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (Throwable t) {
+                failure[0] = t;
+            }
+            try {
+                queue.put(END);
+            } catch (InterruptedException ignored) {
+            }
+        }, "chlorine-reader");
+        reader.setDaemon(true);
+        reader.start();
+
+        // class-local transformers never rename, so every class goes back to the entry it came from, which also
+        // keeps the release layers of a Multi-Release JAR apart
+        try {
+            while (true) {
+                Item item = queue.take();
+                if (item == END) break;
+                target.writeEntry(item.entry, join(item.future));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while writing classes");
+        } finally {
+            reader.interrupt();
+        }
+
+        try {
+            reader.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (failure[0] instanceof IOException) throw (IOException) failure[0];
+        if (failure[0] instanceof RuntimeException) throw (RuntimeException) failure[0];
+        if (failure[0] != null) throw new IOException(failure[0]);
+    }
+
+    private byte[] process(byte[] data) {
+        ClassReader cr = new ClassReader(data);
+        String name = cr.getClassName();
+        if (keeps.keepsClass(name)) {
+            return emitter.copy(data);
+        }
+
+        ClassNode cn = new ClassNode();
+        cr.accept(cn, 0);
+        int originalVersion = cn.version;
+        Set<MethodNode> originalMethods = Collections.newSetFromMap(new IdentityHashMap<>());
+        originalMethods.addAll(cn.methods);
+
+        boolean modified = false;
+        boolean constantsPreserved = true;
+        Set<MethodNode> dirty = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (Transformer t : transformers) {
+            ClassContext context = t.createContext(cn, keeps);
+            t.transformClass(context);
+            if (!context.isModified()) continue;
+            modified = true;
+            constantsPreserved &= t.preservesConstantPool();
+            dirty.addAll(context.getModifiedMethods());
+        }
+
+        if (!modified) {
+            return emitter.copy(data);
+        }
+        return emitter.emit(cn, constantsPreserved ? data : null,
+                mn -> cn.version == originalVersion && originalMethods.contains(mn) && !dirty.contains(mn));
+    }
+
+    private TypeHeader readInputType(String type) {
+        String entry = type + ".class";
+        if (!source.getNames().contains(entry)) return null;
+        try {
+            return TypeHeader.read(source.read(entry));
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static byte[] join(CompletableFuture<byte[]> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            if (e.getCause() instanceof Error) throw (Error) e.getCause();
+            throw e;
+        }
+    }
+
+    private static class Item {
+        private final String entry;
+        private final CompletableFuture<byte[]> future;
+
+        private Item(String entry, CompletableFuture<byte[]> future) {
+            this.entry = entry;
+            this.future = future;
+        }
+    }
+}
@@ -0,0 +1,241 @@
+package dev.eatgrapes.chlorine;
+
+import jdk.net.ExtendedSocketOptions;
+import jdk.net.UnixDomainPrincipal;
+
+import java.io.*;
+import java.net.ConnectException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.nio.file.attribute.UserPrincipal;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Resident mode: jobs arrive on a Unix-domain socket as a working directory plus the usual command line, run
+// concurrently on their own threads against one warm Session, and stream their output back as frames
+// (kind byte, then length and bytes, or the exit status for EXIT). Only the user the daemon runs as may submit
+// jobs, since each one reads and writes files with the daemon's rights. On SIGTERM or Ctrl-C the daemon stops
+// accepting and lets the running jobs finish.
+class Daemon {
+    private static final int EXIT = 0;
+    private static final int OUT = 1;
+    private static final int ERR = 2;
+
+    static void serve(Path socket) throws IOException {
+        if (Files.exists(socket, LinkOption.NOFOLLOW_LINKS)) {
+            BasicFileAttributes attributes = Files.readAttributes(socket, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            if (!attributes.isOther()) {
+                throw new IllegalArgumentException("Not a socket: " + socket + " (--daemon).");
+            }
+            try (SocketChannel probe = SocketChannel.open(UnixDomainSocketAddress.of(socket))) {
+                throw new IllegalArgumentException("A daemon is already listening on " + socket + " (--daemon).");
+            } catch (ConnectException e) {
+                // left behind by a daemon that did not shut down cleanly
+                Files.delete(socket);
+            }
+        }
+
+        RoutedStream out = new RoutedStream(System.out);
+        RoutedStream err = new RoutedStream(System.err);
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(out, true));
+        System.setErr(new PrintStream(err, true));
+
+        Session session = Session.warm();
+        AtomicInteger jobIds = new AtomicInteger();
+        ExecutorService jobs = Executors.newCachedThreadPool(task -> {
+            Thread thread = new Thread(task, "chlorine-job-" + jobIds.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            server.bind(UnixDomainSocketAddress.of(socket));
+            Files.setPosixFilePermissions(socket, PosixFilePermissions.fromString("rw-------"));
+            UserPrincipal owner = Files.getOwner(socket, LinkOption.NOFOLLOW_LINKS);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    server.close();
+                    jobs.shutdown();
+                    jobs.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+                    Files.deleteIfExists(socket);
+                } catch (IOException | InterruptedException ignored) {
+                }
+            }));
+            console.println(Chlorine.PROJECT_NAME + " " + Chlorine.VERSION + " daemon listening on " + socket);
+
+            while (true) {
+                SocketChannel client;
+                try {
+                    client = server.accept();
+                } catch (ClosedChannelException e) {
+                    break;
+                }
+                UnixDomainPrincipal peer = client.getOption(ExtendedSocketOptions.SO_PEERCRED);
+                if (!peer.user().equals(owner)) {
+                    String message = "Rejected a job from " + peer.user().getName() + ", only " + owner.getName() + " may submit jobs.";
+                    console.println("Warning: " + message);
+                    jobs.execute(() -> reject(client, "Error: " + message + "\n"));
+                    continue;
+                }
+                jobs.execute(() -> handle(client, session, out, err, console));
+            }
+        } finally {
+            jobs.shutdown();
+        }
+    }
+
+    static int submit(Path socket, File workDir, String[] args) throws IOException {
+        SocketChannel channel;
+        try {
+            channel = SocketChannel.open(UnixDomainSocketAddress.of(socket));
+        } catch (IOException e) {
+            throw new IllegalArgumentException("No daemon listening on " + socket + " (--remote): " + e.getMessage());
+        }
+
+        try (channel) {
+            DataOutputStream request = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+            request.writeUTF(workDir.getAbsolutePath());
+            request.writeInt(args.length);
+            for (String arg : args) {
+                request.writeUTF(arg);
+            }
+            request.flush();
+
+            DataInputStream response = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+            while (true) {
+                int kind = response.read();
+                if (kind < 0) throw new EOFException("Daemon closed the connection before the job finished");
+                if (kind == EXIT) return response.readInt();
+
+                byte[] data = new byte[response.readInt()];
+                response.readFully(data);
+                PrintStream target = kind == ERR ? System.err : System.out;
+                target.write(data);
+                target.flush();
+            }
+        }
+    }
+
+    private static void handle(SocketChannel client, Session session, RoutedStream out, RoutedStream err, PrintStream console) {
+        try (client) {
+            BufferedInputStream input = new BufferedInputStream(Channels.newInputStream(client));
+            // a connection closed before sending anything is another daemon checking whether this one is alive
+            input.mark(1);
+            if (input.read() < 0) return;
+            input.reset();
+            DataInputStream request = new DataInputStream(input);
+            File workDir = new File(request.readUTF());
+            String[] args = new String[request.readInt()];
+            for (int i = 0; i < args.length; i++) {
+                args[i] = request.readUTF();
+            }
+
+            DataOutputStream response = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(client)));
+            out.route(new FrameStream(response, OUT));
+            err.route(new FrameStream(response, ERR));
+            int status;
+            try {
+                status = Chlorine.run(args, workDir, session);
+            } finally {
+                out.route(null);
+                err.route(null);
+            }
+            synchronized (response) {
+                response.write(EXIT);
+                response.writeInt(status);
+                response.flush();
+            }
+        } catch (IOException e) {
+            console.println("Warning: Job on " + Thread.currentThread().getName() + " failed: " + e.getMessage());
+        }
+    }
+
+    private static void reject(SocketChannel client, String message) {
+        try (client) {
+            DataOutputStream response = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(client)));
+            new FrameStream(response, ERR).write(message.getBytes(StandardCharsets.UTF_8));
+            response.write(EXIT);
+            response.writeInt(1);
+            response.flush();
+        } catch (IOException ignored) {
+        }
+    }
+
+    // sends what the current job writes to its client; threads started by the job inherit the route
+    private static class RoutedStream extends OutputStream {
+        private final OutputStream fallback;
+        private final InheritableThreadLocal<OutputStream> target = new InheritableThreadLocal<>();
+
+        private RoutedStream(OutputStream fallback) {
+            this.fallback = fallback;
+        }
+
+        private void route(OutputStream stream) {
+            target.set(stream);
+        }
+
+        private OutputStream current() {
+            OutputStream stream = target.get();
+            return stream != null ? stream : fallback;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            current().write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            current().write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            current().flush();
+        }
+    }
+
+    private static class FrameStream extends OutputStream {
+        private final DataOutputStream response;
+        private final int kind;
+
+        private FrameStream(DataOutputStream response, int kind) {
+            this.response = response;
+            this.kind = kind;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            synchronized (response) {
+                response.write(kind);
+                response.writeInt(len);
+                response.write(b, off, len);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            synchronized (response) {
+                response.flush();
+            }
+        }
+    }
+}
@@ -0,0 +1,9 @@
+package dev.eatgrapes.chlorine;
+
+import java.io.IOException;
+
+// Receives the output entries of an in-memory run, by JAR entry name, one at a time as they are finished.
+@FunctionalInterface
+public interface EntrySink {
+    void accept(String name, byte[] data) throws IOException;
+}
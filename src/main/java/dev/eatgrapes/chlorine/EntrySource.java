@@ -0,0 +1,81 @@
+package dev.eatgrapes.chlorine;
+
+import dev.eatgrapes.chlorine.io.ArchiveEntry;
+import dev.eatgrapes.chlorine.io.ZipArchive;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+// The entries a run reads, by JAR entry name: a JAR on disk, or entries an embedding caller already holds in memory.
+// Directories are left out; when a name repeats, the last entry wins.
+interface EntrySource {
+    Set<String> getNames();
+
+    byte[] read(String name) throws IOException;
+
+    static boolean isClass(String name) {
+        return !name.endsWith("/") && name.endsWith(".class");
+    }
+
+    class ArchiveSource implements EntrySource {
+        private final ZipArchive archive;
+        private final Map<String, ArchiveEntry> entries = new LinkedHashMap<>();
+
+        ArchiveSource(ZipArchive archive) {
+            this.archive = archive;
+            for (ArchiveEntry entry : archive.getEntries()) {
+                if (!entry.isDirectory()) entries.put(entry.getName(), entry);
+            }
+        }
+
+        ZipArchive getArchive() {
+            return archive;
+        }
+
+        ArchiveEntry getEntry(String name) {
+            return entries.get(name);
+        }
+
+        @Override
+        public Set<String> getNames() {
+            return Collections.unmodifiableSet(entries.keySet());
+        }
+
+        @Override
+        public byte[] read(String name) throws IOException {
+            ArchiveEntry entry = entries.get(name);
+            if (entry == null) throw new FileNotFoundException(name);
+            return archive.read(entry);
+        }
+    }
+
+    class MemorySource implements EntrySource {
+        private final Map<String, byte[]> entries = new LinkedHashMap<>();
+
+        MemorySource(Iterable<? extends Map.Entry<String, byte[]>> input) {
+            for (Map.Entry<String, byte[]> entry : input) {
+                String name = entry.getKey();
+                if (name == null || entry.getValue() == null) {
+                    throw new IllegalArgumentException("Entry without a name or data: " + name);
+                }
+                if (!name.endsWith("/")) entries.put(name, entry.getValue());
+            }
+        }
+
+        @Override
+        public Set<String> getNames() {
+            return Collections.unmodifiableSet(entries.keySet());
+        }
+
+        @Override
+        public byte[] read(String name) throws IOException {
+            byte[] data = entries.get(name);
+            if (data == null) throw new FileNotFoundException(name);
+            return data;
+        }
+    }
+}
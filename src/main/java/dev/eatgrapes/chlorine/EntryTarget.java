@@ -0,0 +1,134 @@
+package dev.eatgrapes.chlorine;
+
+import dev.eatgrapes.chlorine.io.ZipWriter;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.LocalDateTime;
+import java.util.concurrent.ForkJoinPool;
+
+// Where a run writes its entries. Nothing is created before begin(), so a run that fails while transforming
+// leaves no output behind.
+interface EntryTarget extends Closeable {
+    void begin() throws IOException;
+
+    // a JAR always gets a manifest; other targets only get one when the input had one
+    boolean needsManifest();
+
+    void writeEntry(String name, byte[] data) throws IOException;
+
+    // passes a resource of the source through unchanged
+    void copyEntry(EntrySource source, String name) throws IOException;
+
+    // writes new content for a resource of the source, stored the way the original was
+    void rewriteEntry(EntrySource source, String name, byte[] data) throws IOException;
+
+    class JarTarget implements EntryTarget {
+        private final File file;
+        private final OutputStream out;
+        private final ForkJoinPool pool;
+        private final ChlorineConfig config;
+        private final LocalDateTime fixedTime;
+        private ZipWriter writer;
+
+        JarTarget(File file, ForkJoinPool pool, ChlorineConfig config, LocalDateTime fixedTime) {
+            this.file = file;
+            this.out = null;
+            this.pool = pool;
+            this.config = config;
+            this.fixedTime = fixedTime;
+        }
+
+        // a JAR nested in another one; it gets no preamble, so its entries start where a nested JAR reader expects
+        JarTarget(OutputStream out, ForkJoinPool pool, ChlorineConfig config, LocalDateTime fixedTime) {
+            this.file = null;
+            this.out = out;
+            this.pool = pool;
+            this.config = config;
+            this.fixedTime = fixedTime;
+        }
+
+        @Override
+        public void begin() throws IOException {
+            writer = new ZipWriter(out != null ? out : new FileOutputStream(file), pool, config.getCompressionLevel(), config.isStoreOnly());
+            if (fixedTime != null) writer.setFixedTime(fixedTime);
+            if (out == null) writer.writePreamble((Chlorine.PROJECT_NAME + " " + Chlorine.VERSION + " by dev.eatgrapes\n").getBytes());
+        }
+
+        @Override
+        public boolean needsManifest() {
+            return true;
+        }
+
+        @Override
+        public void writeEntry(String name, byte[] data) throws IOException {
+            writer.writeEntry(name, data);
+        }
+
+        @Override
+        public void copyEntry(EntrySource source, String name) throws IOException {
+            // entries of an input JAR are copied still compressed
+            if (source instanceof EntrySource.ArchiveSource) {
+                EntrySource.ArchiveSource archive = (EntrySource.ArchiveSource) source;
+                writer.copyEntry(archive.getArchive(), archive.getEntry(name));
+            } else {
+                writer.writeEntry(name, source.read(name));
+            }
+        }
+
+        @Override
+        public void rewriteEntry(EntrySource source, String name, byte[] data) throws IOException {
+            boolean stored = config.isStoreOnly();
+            if (source instanceof EntrySource.ArchiveSource) {
+                stored |= ((EntrySource.ArchiveSource) source).getEntry(name).isStored();
+            }
+            writer.writeEntry(name, data, stored);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (writer == null) return;
+            writer.setComment(Chlorine.PROJECT_NAME + " " + Chlorine.VERSION);
+            writer.close();
+        }
+    }
+
+    class SinkTarget implements EntryTarget {
+        private final EntrySink sink;
+
+        SinkTarget(EntrySink sink) {
+            this.sink = sink;
+        }
+
+        @Override
+        public void begin() {
+        }
+
+        @Override
+        public boolean needsManifest() {
+            return false;
+        }
+
+        @Override
+        public void writeEntry(String name, byte[] data) throws IOException {
+            sink.accept(name, data);
+        }
+
+        @Override
+        public void copyEntry(EntrySource source, String name) throws IOException {
+            sink.accept(name, source.read(name));
+        }
+
+        @Override
+        public void rewriteEntry(EntrySource source, String name, byte[] data) throws IOException {
+            sink.accept(name, data);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package dev.eatgrapes.chlorine;
+
+// Receives the progress lines and warnings of a run. The command line prints them to the console; an embedded run
+// is silent unless the caller sets a log on its config.
+public interface Log {
+    void info(String message);
+
+    void warn(String message);
+
+    // looks System.out and System.err up on every message, so a daemon can route each job's output to its client
+    static Log console() {
+        return new Log() {
+            @Override
+            public void info(String message) {
+                System.out.println(message);
+            }
+
+            @Override
+            public void warn(String message) {
+                System.err.println("Warning: " + message);
+            }
+        };
+    }
+
+    static Log silent() {
+        return new Log() {
+            @Override
+            public void info(String message) {
+            }
+
+            @Override
+            public void warn(String message) {
+            }
+        };
+    }
+}
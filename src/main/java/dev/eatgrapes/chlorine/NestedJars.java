@@ -0,0 +1,102 @@
+package dev.eatgrapes.chlorine;
+
+import dev.eatgrapes.chlorine.io.ArchiveEntry;
+import dev.eatgrapes.chlorine.io.ZipArchive;
+import dev.eatgrapes.chlorine.library.Libraries;
+import dev.eatgrapes.chlorine.library.TypeHeader;
+import dev.eatgrapes.chlorine.utils.ParallelUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipException;
+
+// Processes the JARs nested in an archive, such as Spring Boot's BOOT-INF/lib/*.jar, as runs of their own that go
+// on side by side. Each run has its own driver thread, so runs never share a NameGenerator counter, and all of them
+// use the outer run's pool for their parallel stages. The outer run picks the results up when it writes the
+// entries back in place.
+class NestedJars implements Closeable {
+    private final ExecutorService runner;
+    private final Map<String, Future<byte[]>> results = new HashMap<>();
+
+    NestedJars(EntrySource source, List<String> names, ChlorineConfig config, Session session, ForkJoinPool pool,
+               Libraries siblings) {
+        AtomicInteger ids = new AtomicInteger();
+        this.runner = Executors.newFixedThreadPool(Math.max(1, Math.min(config.getThreads(), names.size())), task -> {
+            Thread thread = new Thread(task, "chlorine-nested-" + ids.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        for (String name : names) {
+            ChlorineConfig nestedConfig = config.forNestedJar();
+            results.put(name, runner.submit(() -> process(source, name, nestedConfig, session, pool, siblings)));
+        }
+    }
+
+    // the classes of the archive and of every JAR nested in it, so a nested JAR resolves the types of the others
+    static Libraries types(EntrySource source, List<String> classEntries, Collection<String> resources, ForkJoinPool pool) throws IOException {
+        List<byte[]> classData = new ArrayList<>();
+        for (String entry : classEntries) {
+            classData.add(source.read(entry));
+        }
+        for (String resource : resources) {
+            if (!resource.endsWith(".jar")) continue;
+            try (ZipArchive archive = ZipArchive.wrap(source.read(resource))) {
+                for (ArchiveEntry entry : archive.getEntries()) {
+                    if (!entry.isClass() || entry.getName().startsWith("META-INF/")) continue;
+                    classData.add(archive.read(entry));
+                }
+            } catch (ZipException e) {
+                // not a readable archive; process() reports it if it is one of the selected JARs
+            }
+        }
+        return Libraries.of(ParallelUtils.map(pool, classData, TypeHeader::read));
+    }
+
+    // null when the entry is not a processed nested JAR, or could not be read as one
+    byte[] get(String name) throws IOException {
+        Future<byte[]> result = results.get(name);
+        if (result == null) return null;
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while processing " + name);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw new IOException(cause);
+        }
+    }
+
+    @Override
+    public void close() {
+        runner.shutdownNow();
+    }
+
+    private static byte[] process(EntrySource source, String name, ChlorineConfig config, Session session,
+                                  ForkJoinPool pool, Libraries siblings) throws IOException {
+        byte[] data = source.read(name);
+        ZipArchive archive;
+        try {
+            archive = ZipArchive.wrap(data);
+        } catch (ZipException e) {
+            config.getLog().warn("Copying " + name + " unchanged, it is not a readable JAR: " + e.getMessage());
+            return null;
+        }
+
+        config.getLog().info("Processing nested JAR " + name + "...");
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length);
+        try (archive) {
+            EntryTarget target = new EntryTarget.JarTarget(out, pool, config, config.hasSeed() ? Chlorine.reproducibleTime(config.getLog()) : null);
+            Chlorine.process(new EntrySource.ArchiveSource(archive), target, config, session, pool, siblings);
+        }
+        return out.toByteArray();
+    }
+}
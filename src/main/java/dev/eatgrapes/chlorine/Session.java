@@ -0,0 +1,60 @@
+package dev.eatgrapes.chlorine;
+
+import dev.eatgrapes.chlorine.library.Libraries;
+import dev.eatgrapes.chlorine.utils.KeepRules;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+
+// Supplies the lookup structures a run needs. A one-shot CLI run builds them from scratch; a daemon session keeps
+// them between jobs, keyed by what they were built from.
+class Session {
+    private final Map<String, Libraries> libraries;
+    private final Map<List<String>, KeepRules> keeps;
+
+    private Session(boolean warm) {
+        this.libraries = warm ? new ConcurrentHashMap<>() : null;
+        this.keeps = warm ? new ConcurrentHashMap<>() : null;
+    }
+
+    static Session cold() {
+        return new Session(false);
+    }
+
+    static Session warm() {
+        return new Session(true);
+    }
+
+    Libraries libraries(List<String> paths, Path cacheDir, ForkJoinPool pool, Log log) throws IOException {
+        if (libraries == null || paths.isEmpty()) return Libraries.open(paths, cacheDir, pool, log);
+
+        // a library file that changed on disk gets a new key, so a rebuilt JAR is indexed again
+        StringBuilder key = new StringBuilder(String.valueOf(cacheDir));
+        for (String path : paths) {
+            File file = new File(path);
+            key.append('\0').append(path).append(':').append(file.length()).append(':').append(file.lastModified());
+        }
+        Libraries cached = libraries.get(key.toString());
+        if (cached != null) return cached;
+        Libraries opened = Libraries.open(paths, cacheDir, pool, log);
+        libraries.put(key.toString(), opened);
+        return opened;
+    }
+
+    // rules that depend on annotations are filled in from each input, so only the others are shared
+    KeepRules keeps(ChlorineConfig config) {
+        if (keeps == null) return config.getKeeps();
+        List<String> rules = new ArrayList<>(config.getKeepRules());
+        KeepRules cached = keeps.get(rules);
+        if (cached != null) return cached;
+        KeepRules compiled = config.getKeeps();
+        if (!compiled.hasAnnotationRules()) keeps.put(rules, compiled);
+        return compiled;
+    }
+}
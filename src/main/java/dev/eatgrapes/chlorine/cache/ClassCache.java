@@ -0,0 +1,217 @@
+package dev.eatgrapes.chlorine.cache;
+
+import dev.eatgrapes.chlorine.Log;
+import dev.eatgrapes.chlorine.utils.HashUtils;
+import dev.eatgrapes.chlorine.utils.KeepRules;
+import dev.eatgrapes.chlorine.utils.LazyClassMap;
+import dev.eatgrapes.chlorine.utils.ParallelUtils;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Content-addressed store of emitted classes for incremental runs. An entry is keyed by the class as the class-local
+// transformers receive it, the run configuration and the part of the input hierarchy the class refers to, so a hit
+// can be written out without transforming the class or computing its frames again. The state file carries what
+// whole-set transformers decided (rename mappings, helper hosts) and the seed over to the next run.
+public class ClassCache {
+    private static final int CONSTANT_UTF8 = 1;
+
+    private final Path classDir;
+    private final Path stateFile;
+    private final String configKey;
+    private final Log log;
+    private final AtomicInteger hits = new AtomicInteger();
+    private final AtomicInteger misses = new AtomicInteger();
+
+    private ClassCache(Path cacheDir, String configKey, Log log) {
+        this.classDir = cacheDir.resolve("classes");
+        this.stateFile = cacheDir.resolve("state").resolve(configKey + ".properties");
+        this.configKey = configKey;
+        this.log = log;
+    }
+
+    // configuration: everything besides the class itself that decides the output, without the seed
+    public static ClassCache open(Path cacheDir, List<String> configuration, Log log) {
+        MessageDigest digest = HashUtils.sha256();
+        for (String part : configuration) {
+            digest.update(part.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+        }
+        return new ClassCache(cacheDir, HashUtils.hex(digest.digest()), log);
+    }
+
+    public Map<String, String> loadState() {
+        Properties properties = new Properties();
+        if (!Files.isRegularFile(stateFile)) return new HashMap<>();
+        try (InputStream in = Files.newInputStream(stateFile)) {
+            properties.load(in);
+        } catch (IOException | IllegalArgumentException e) {
+            log.warn("Ignoring unreadable incremental state " + stateFile + ": " + e.getMessage());
+            return new HashMap<>();
+        }
+        Map<String, String> state = new HashMap<>();
+        for (String name : properties.stringPropertyNames()) {
+            state.put(name, properties.getProperty(name));
+        }
+        return state;
+    }
+
+    public void saveState(Map<String, String> state) {
+        Properties properties = new Properties();
+        properties.putAll(state);
+        try {
+            Files.createDirectories(stateFile.getParent());
+            Path temp = Files.createTempFile(stateFile.getParent(), configKey, ".tmp");
+            try (OutputStream out = Files.newOutputStream(temp)) {
+                properties.store(out, null);
+            }
+            Files.move(temp, stateFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warn("Could not save incremental state in " + stateFile.getParent() + ": " + e.getMessage());
+        }
+    }
+
+    // one key per class, computed from its current form in the map
+    public Map<String, String> keys(LazyClassMap classes, KeepRules keeps, long seed, ForkJoinPool pool) {
+        List<String> names = new ArrayList<>(classes.keySet());
+        List<String> keys = ParallelUtils.map(pool, names, name -> key(classes, keeps, name, seed));
+        Map<String, String> result = new HashMap<>(names.size() * 2);
+        for (int i = 0; i < names.size(); i++) {
+            result.put(names.get(i), keys.get(i));
+        }
+        return result;
+    }
+
+    // returns the cached bytes of every class whose key has an entry
+    public Map<String, byte[]> lookup(Map<String, String> keys, ForkJoinPool pool) {
+        List<String> names = new ArrayList<>(keys.keySet());
+        List<byte[]> found = ParallelUtils.map(pool, names, name -> get(keys.get(name)));
+        Map<String, byte[]> result = new HashMap<>();
+        for (int i = 0; i < names.size(); i++) {
+            if (found.get(i) != null) result.put(names.get(i), found.get(i));
+        }
+        hits.addAndGet(result.size());
+        misses.addAndGet(names.size() - result.size());
+        return result;
+    }
+
+    public void put(String key, byte[] data) {
+        Path entry = entry(key);
+        try {
+            if (Files.isRegularFile(entry)) return;
+            Files.createDirectories(entry.getParent());
+            Path temp = Files.createTempFile(entry.getParent(), key, ".tmp");
+            Files.write(temp, data);
+            Files.move(temp, entry, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warn("Could not cache class in " + classDir + ": " + e.getMessage());
+        }
+    }
+
+    public int getHits() {
+        return hits.get();
+    }
+
+    public int getMisses() {
+        return misses.get();
+    }
+
+    private byte[] get(String key) {
+        Path entry = entry(key);
+        if (!Files.isRegularFile(entry)) return null;
+        try {
+            return Files.readAllBytes(entry);
+        } catch (IOException e) {
+            log.warn("Ignoring unreadable cache entry " + entry + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    private Path entry(String key) {
+        return classDir.resolve(key.substring(0, 2)).resolve(key + ".class");
+    }
+
+    private String key(LazyClassMap classes, KeepRules keeps, String name, long seed) {
+        byte[] data;
+        if (classes.isModified(name)) {
+            ClassWriter cw = new ClassWriter(0);
+            classes.get(name).accept(cw);
+            data = cw.toByteArray();
+        } else {
+            data = classes.getOriginalBytes(name);
+        }
+
+        MessageDigest digest = HashUtils.sha256();
+        digest.update((configKey + '\0' + seed + '\0').getBytes(StandardCharsets.UTF_8));
+        digest.update(data);
+        for (String type : hierarchySlice(classes, keeps, data)) {
+            digest.update((byte) 0);
+            digest.update(type.getBytes(StandardCharsets.UTF_8));
+        }
+        return HashUtils.hex(digest.digest());
+    }
+
+    // headers of every input class the class mentions, plus their input supertypes: what frame computation can ask.
+    // Each also carries what annotation keep rules matched on it, since transformers decide how to rewrite a call
+    // into another class by whether that class or member is kept.
+    private static SortedSet<String> hierarchySlice(LazyClassMap classes, KeepRules keeps, byte[] data) {
+        Deque<String> pending = new ArrayDeque<>();
+        for (String candidate : mentionedNames(data)) {
+            if (classes.containsKey(candidate)) pending.add(candidate);
+        }
+        Set<String> visited = new HashSet<>();
+        SortedSet<String> slice = new TreeSet<>();
+        while (!pending.isEmpty()) {
+            String type = pending.poll();
+            if (!visited.add(type) || !classes.containsKey(type)) continue;
+            String superName = classes.getSuperName(type);
+            List<String> interfaces = classes.getInterfaces(type);
+            slice.add(type + ':' + classes.getAccess(type) + ':' + superName + ':' + interfaces + ':' + keeps.getAnnotationMatches(type));
+            if (superName != null) pending.add(superName);
+            if (interfaces != null) pending.addAll(interfaces);
+        }
+        return slice;
+    }
+
+    // every UTF8 constant as a possible internal name, plus the object types inside descriptors and signatures
+    private static Set<String> mentionedNames(byte[] data) {
+        ClassReader cr = new ClassReader(data);
+        Set<String> names = new HashSet<>();
+        for (int i = 1; i < cr.getItemCount(); i++) {
+            int offset = cr.getItem(i);
+            if (offset == 0) continue;
+            if (data[offset - 1] != CONSTANT_UTF8) continue;
+            String value = readUtf8(data, offset);
+            names.add(value);
+            for (int start = value.indexOf('L'); start >= 0; start = value.indexOf('L', start + 1)) {
+                int end = value.indexOf(';', start);
+                if (end < 0) break;
+                names.add(value.substring(start + 1, end));
+            }
+        }
+        return names;
+    }
+
+    // class files store strings in modified UTF-8, which DataInput reads; the entry starts with its u2 length
+    private static String readUtf8(byte[] data, int offset) {
+        int length = ((data[offset] & 0xFF) << 8) | (data[offset + 1] & 0xFF);
+        try {
+            return new DataInputStream(new ByteArrayInputStream(data, offset, length + 2)).readUTF();
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Malformed CONSTANT_Utf8 at " + offset, e);
+        }
+    }
+}
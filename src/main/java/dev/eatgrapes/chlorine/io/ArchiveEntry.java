@@ -0,0 +1,67 @@
+package dev.eatgrapes.chlorine.io;
+
+public class ArchiveEntry {
+    private final String name;
+    private final int flags;
+    private final int method;
+    private final int dosTime;
+    private final int crc;
+    private final long compressedSize;
+    private final long size;
+    private final long localHeaderOffset;
+
+    ArchiveEntry(String name, int flags, int method, int dosTime, int crc, long compressedSize, long size, long localHeaderOffset) {
+        this.name = name;
+        this.flags = flags;
+        this.method = method;
+        this.dosTime = dosTime;
+        this.crc = crc;
+        this.compressedSize = compressedSize;
+        this.size = size;
+        this.localHeaderOffset = localHeaderOffset;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getFlags() {
+        return flags;
+    }
+
+    public int getMethod() {
+        return method;
+    }
+
+    public int getDosTime() {
+        return dosTime;
+    }
+
+    public int getCrc() {
+        return crc;
+    }
+
+    public long getCompressedSize() {
+        return compressedSize;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public long getLocalHeaderOffset() {
+        return localHeaderOffset;
+    }
+
+    public boolean isStored() {
+        return method == ZipConstants.STORED;
+    }
+
+    public boolean isDirectory() {
+        return name.endsWith("/");
+    }
+
+    public boolean isClass() {
+        return !isDirectory() && name.endsWith(".class");
+    }
+}
@@ -0,0 +1,45 @@
+package dev.eatgrapes.chlorine.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.ZipException;
+
+public class ChannelZipArchive extends ZipArchive {
+    private final FileChannel channel;
+
+    public ChannelZipArchive(File file) throws IOException {
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        readEntries();
+    }
+
+    @Override
+    protected long size() throws IOException {
+        return channel.size();
+    }
+
+    @Override
+    protected void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, position);
+            if (n < 0) {
+                throw new ZipException("Unexpected end of archive");
+            }
+            position += n;
+        }
+    }
+
+    @Override
+    protected ByteBuffer rawData(long position, long length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) length);
+        readFully(buffer, position);
+        return buffer.flip();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
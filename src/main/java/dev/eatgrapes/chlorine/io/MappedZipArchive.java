@@ -0,0 +1,88 @@
+package dev.eatgrapes.chlorine.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.ZipException;
+
+public class MappedZipArchive extends ZipArchive {
+    private static final long SEGMENT_SIZE = 1L << 30;
+    private static final int SEGMENT_OVERLAP = 1 << 24;
+
+    private final long size;
+    private final MappedByteBuffer[] segments;
+
+    public MappedZipArchive(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            this.size = channel.size();
+            int count = (int) Math.max(1, (size + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
+            this.segments = new MappedByteBuffer[count];
+            for (int i = 0; i < count; i++) {
+                long start = i * SEGMENT_SIZE;
+                long length = Math.min(SEGMENT_SIZE + SEGMENT_OVERLAP, size - start);
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+            }
+        }
+        readEntries();
+    }
+
+    @Override
+    protected long size() {
+        return size;
+    }
+
+    @Override
+    protected void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int chunk = Math.min(buffer.remaining(), SEGMENT_OVERLAP);
+            ByteBuffer source = slice(position, chunk);
+            buffer.put(source);
+            position += chunk;
+        }
+    }
+
+    @Override
+    protected ByteBuffer rawData(long position, long length) throws IOException {
+        if (length <= SEGMENT_OVERLAP) {
+            return slice(position, (int) length);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate((int) length);
+        readFully(buffer, position);
+        return buffer.flip();
+    }
+
+    @Override
+    public void copyRaw(ArchiveEntry entry, OutputStream out) throws IOException {
+        long position = getDataOffset(entry);
+        long remaining = entry.getCompressedSize();
+        WritableByteChannel target = Channels.newChannel(out);
+        while (remaining > 0) {
+            int chunk = (int) Math.min(remaining, SEGMENT_OVERLAP);
+            ByteBuffer source = slice(position, chunk);
+            while (source.hasRemaining()) {
+                target.write(source);
+            }
+            position += chunk;
+            remaining -= chunk;
+        }
+    }
+
+    private ByteBuffer slice(long position, int length) throws IOException {
+        if (position < 0 || length < 0 || position + length > size) {
+            throw new ZipException("Unexpected end of archive");
+        }
+        int index = (int) (position / SEGMENT_SIZE);
+        int offset = (int) (position - index * SEGMENT_SIZE);
+        return segments[index].slice(offset, length);
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,37 @@
+package dev.eatgrapes.chlorine.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.ZipException;
+
+// An archive that is itself an entry of another one, such as a JAR under BOOT-INF/lib.
+public class MemoryZipArchive extends ZipArchive {
+    private final ByteBuffer data;
+
+    public MemoryZipArchive(byte[] data) throws IOException {
+        this.data = ByteBuffer.wrap(data);
+        readEntries();
+    }
+
+    @Override
+    protected long size() {
+        return data.capacity();
+    }
+
+    @Override
+    protected void readFully(ByteBuffer buffer, long position) throws IOException {
+        buffer.put(rawData(position, buffer.remaining()));
+    }
+
+    @Override
+    protected ByteBuffer rawData(long position, long length) throws IOException {
+        if (position < 0 || length < 0 || position + length > data.capacity()) {
+            throw new ZipException("Unexpected end of archive");
+        }
+        return data.slice((int) position, (int) length);
+    }
+
+    @Override
+    public void close() {
+    }
+}
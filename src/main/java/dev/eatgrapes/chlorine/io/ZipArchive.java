@@ -0,0 +1,240 @@
+package dev.eatgrapes.chlorine.io;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+import static dev.eatgrapes.chlorine.io.ZipConstants.*;
+
+public abstract class ZipArchive implements Closeable {
+    protected static final int COPY_BUFFER_SIZE = 64 * 1024;
+    protected static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+
+    private List<ArchiveEntry> entries;
+
+    public static ZipArchive open(File file, boolean mapped) throws IOException {
+        return mapped ? new MappedZipArchive(file) : new ChannelZipArchive(file);
+    }
+
+    public static ZipArchive wrap(byte[] data) throws IOException {
+        return new MemoryZipArchive(data);
+    }
+
+    protected final void readEntries() throws IOException {
+        try {
+            this.entries = Collections.unmodifiableList(readCentralDirectory());
+        } catch (IOException | RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    protected abstract long size() throws IOException;
+
+    protected abstract void readFully(ByteBuffer buffer, long position) throws IOException;
+
+    protected abstract ByteBuffer rawData(long position, long length) throws IOException;
+
+    public List<ArchiveEntry> getEntries() {
+        return entries;
+    }
+
+    public byte[] read(ArchiveEntry entry) throws IOException {
+        if ((entry.getFlags() & 1) != 0) {
+            throw new ZipException("Encrypted entry is not supported: " + entry.getName());
+        }
+        if (entry.getSize() > MAX_ARRAY_SIZE || entry.getCompressedSize() > MAX_ARRAY_SIZE) {
+            throw new ZipException("Entry too large to load: " + entry.getName());
+        }
+
+        long dataOffset = getDataOffset(entry);
+        byte[] data;
+        if (entry.getMethod() == STORED) {
+            data = new byte[(int) entry.getSize()];
+            readFully(ByteBuffer.wrap(data), dataOffset);
+        } else if (entry.getMethod() == DEFLATED) {
+            data = inflate(entry, rawData(dataOffset, entry.getCompressedSize()));
+        } else {
+            throw new ZipException("Unsupported compression method " + entry.getMethod() + ": " + entry.getName());
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        if ((int) crc.getValue() != entry.getCrc()) {
+            throw new ZipException("CRC mismatch: " + entry.getName());
+        }
+        return data;
+    }
+
+    public void copyRaw(ArchiveEntry entry, OutputStream out) throws IOException {
+        long position = getDataOffset(entry);
+        long remaining = entry.getCompressedSize();
+        byte[] buffer = new byte[(int) Math.min(COPY_BUFFER_SIZE, Math.max(remaining, 1))];
+        while (remaining > 0) {
+            int chunk = (int) Math.min(buffer.length, remaining);
+            readFully(ByteBuffer.wrap(buffer, 0, chunk), position);
+            out.write(buffer, 0, chunk);
+            position += chunk;
+            remaining -= chunk;
+        }
+    }
+
+    public long getDataOffset(ArchiveEntry entry) throws IOException {
+        ByteBuffer header = readBuffer(entry.getLocalHeaderOffset(), LOCAL_HEADER_SIZE);
+        if (header.getInt(0) != LOCAL_HEADER_SIG) {
+            throw new ZipException("Invalid local header: " + entry.getName());
+        }
+        return entry.getLocalHeaderOffset() + LOCAL_HEADER_SIZE + u16(header, 26) + u16(header, 28);
+    }
+
+    private byte[] inflate(ArchiveEntry entry, ByteBuffer compressed) throws IOException {
+        byte[] data = new byte[(int) entry.getSize()];
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(compressed);
+            boolean paddedInput = false;
+            int n = 0;
+            while (n < data.length) {
+                int count = inflater.inflate(data, n, data.length - n);
+                if (count == 0) {
+                    if (inflater.needsInput() && !paddedInput) {
+                        inflater.setInput(new byte[1]);
+                        paddedInput = true;
+                        continue;
+                    }
+                    if (inflater.finished() || inflater.needsInput() || inflater.needsDictionary()) break;
+                }
+                n += count;
+            }
+            if (n != data.length) {
+                throw new ZipException("Truncated entry: " + entry.getName());
+            }
+        } catch (DataFormatException e) {
+            throw new ZipException("Corrupt entry " + entry.getName() + ": " + e.getMessage());
+        } finally {
+            inflater.end();
+        }
+        return data;
+    }
+
+    private List<ArchiveEntry> readCentralDirectory() throws IOException {
+        long fileSize = size();
+        if (fileSize < END_SIZE) {
+            throw new ZipException("Not a ZIP archive");
+        }
+
+        int tailSize = (int) Math.min(fileSize, END_SIZE + MAX_COMMENT_SIZE);
+        long tailOffset = fileSize - tailSize;
+        ByteBuffer tail = readBuffer(tailOffset, tailSize);
+
+        int endPos = -1;
+        for (int i = tailSize - END_SIZE; i >= 0; i--) {
+            if (tail.getInt(i) == END_SIG && i + END_SIZE + u16(tail, i + 20) <= tailSize) {
+                endPos = i;
+                break;
+            }
+        }
+        if (endPos < 0) {
+            throw new ZipException("End of central directory not found");
+        }
+
+        long endOffset = tailOffset + endPos;
+        long entryCount = u16(tail, endPos + 10);
+        long cdSize = u32(tail, endPos + 12);
+        long cdOffset = u32(tail, endPos + 16);
+        long cdPosition = endOffset - cdSize;
+
+        if (entryCount == ZIP64_MAGIC_COUNT || cdSize == ZIP64_MAGIC || cdOffset == ZIP64_MAGIC) {
+            long locatorOffset = endOffset - ZIP64_LOCATOR_SIZE;
+            if (locatorOffset >= 0 && readBuffer(locatorOffset, 4).getInt(0) == ZIP64_LOCATOR_SIG) {
+                long zip64EndOffset = locatorOffset - ZIP64_END_SIZE;
+                ByteBuffer zip64End = readBuffer(zip64EndOffset, ZIP64_END_SIZE);
+                if (zip64End.getInt(0) != ZIP64_END_SIG) {
+                    throw new ZipException("Invalid ZIP64 end of central directory");
+                }
+                entryCount = zip64End.getLong(32);
+                cdSize = zip64End.getLong(40);
+                cdOffset = zip64End.getLong(48);
+                cdPosition = zip64EndOffset - cdSize;
+            }
+        }
+
+        long base = cdPosition - cdOffset;
+        if (base < 0 || cdPosition < 0 || cdSize > MAX_ARRAY_SIZE) {
+            throw new ZipException("Invalid central directory");
+        }
+
+        ByteBuffer cd = readBuffer(cdPosition, (int) cdSize);
+        List<ArchiveEntry> result = new ArrayList<>((int) Math.min(entryCount, 1 << 16));
+        int pos = 0;
+        while (pos + CENTRAL_HEADER_SIZE <= cd.limit() && cd.getInt(pos) == CENTRAL_HEADER_SIG) {
+            int flags = u16(cd, pos + 8);
+            int method = u16(cd, pos + 10);
+            int dosTime = cd.getInt(pos + 12);
+            int crc = cd.getInt(pos + 16);
+            long compressedSize = u32(cd, pos + 20);
+            long size = u32(cd, pos + 24);
+            int nameLength = u16(cd, pos + 28);
+            int extraLength = u16(cd, pos + 30);
+            int commentLength = u16(cd, pos + 32);
+            long localHeaderOffset = u32(cd, pos + 42);
+
+            byte[] nameBytes = new byte[nameLength];
+            cd.get(pos + CENTRAL_HEADER_SIZE, nameBytes);
+            String name = new String(nameBytes, StandardCharsets.UTF_8);
+
+            int extraPos = pos + CENTRAL_HEADER_SIZE + nameLength;
+            int extraEnd = extraPos + extraLength;
+            while (extraPos + 4 <= extraEnd) {
+                int id = u16(cd, extraPos);
+                int length = u16(cd, extraPos + 2);
+                int fieldPos = extraPos + 4;
+                if (id == ZIP64_EXTRA_ID) {
+                    if (size == ZIP64_MAGIC && fieldPos + 8 <= extraEnd) {
+                        size = cd.getLong(fieldPos);
+                        fieldPos += 8;
+                    }
+                    if (compressedSize == ZIP64_MAGIC && fieldPos + 8 <= extraEnd) {
+                        compressedSize = cd.getLong(fieldPos);
+                        fieldPos += 8;
+                    }
+                    if (localHeaderOffset == ZIP64_MAGIC && fieldPos + 8 <= extraEnd) {
+                        localHeaderOffset = cd.getLong(fieldPos);
+                    }
+                    break;
+                }
+                extraPos = fieldPos + length;
+            }
+
+            result.add(new ArchiveEntry(name, flags, method, dosTime, crc, compressedSize, size, localHeaderOffset + base));
+            pos += CENTRAL_HEADER_SIZE + nameLength + extraLength + commentLength;
+        }
+        return result;
+    }
+
+    private ByteBuffer readBuffer(long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        readFully(buffer, position);
+        buffer.flip();
+        return buffer.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static int u16(ByteBuffer buffer, int index) {
+        return buffer.getShort(index) & 0xFFFF;
+    }
+
+    private static long u32(ByteBuffer buffer, int index) {
+        return buffer.getInt(index) & 0xFFFFFFFFL;
+    }
+}
@@ -0,0 +1,34 @@
+package dev.eatgrapes.chlorine.io;
+
+final class ZipConstants {
+    static final int LOCAL_HEADER_SIG = 0x04034b50;
+    static final int CENTRAL_HEADER_SIG = 0x02014b50;
+    static final int END_SIG = 0x06054b50;
+    static final int ZIP64_END_SIG = 0x06064b50;
+    static final int ZIP64_LOCATOR_SIG = 0x07064b50;
+
+    static final int LOCAL_HEADER_SIZE = 30;
+    static final int CENTRAL_HEADER_SIZE = 46;
+    static final int END_SIZE = 22;
+    static final int ZIP64_END_SIZE = 56;
+    static final int ZIP64_LOCATOR_SIZE = 20;
+    static final int MAX_COMMENT_SIZE = 0xFFFF;
+
+    static final int ZIP64_EXTRA_ID = 0x0001;
+    static final int JAR_MAGIC_ID = 0xCAFE;
+
+    static final int FLAG_DATA_DESCRIPTOR = 0x08;
+    static final int FLAG_UTF8 = 0x800;
+
+    static final int VERSION_DEFAULT = 20;
+    static final int VERSION_ZIP64 = 45;
+
+    static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+    static final int ZIP64_MAGIC_COUNT = 0xFFFF;
+
+    static final int STORED = 0;
+    static final int DEFLATED = 8;
+
+    private ZipConstants() {
+    }
+}
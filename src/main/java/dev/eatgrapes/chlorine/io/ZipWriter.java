@@ -0,0 +1,355 @@
+package dev.eatgrapes.chlorine.io;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import static dev.eatgrapes.chlorine.io.ZipConstants.*;
+
+public class ZipWriter implements Closeable {
+    private static final byte[] JAR_MAGIC_EXTRA = {(byte) 0xFE, (byte) 0xCA, 0, 0};
+    private static final byte[] NO_EXTRA = new byte[0];
+    private static final int MAX_PENDING = 512;
+
+    private final OutputStream out;
+    private final Executor executor;
+    private final int level;
+    private final boolean storeOnly;
+    private final List<Record> records = new ArrayList<>();
+    private final Deque<PendingEntry> pending = new ArrayDeque<>();
+    private final Queue<Deflater> deflaters = new ConcurrentLinkedQueue<>();
+    private long position;
+    private byte[] comment = NO_EXTRA;
+    private int fixedDosTime = -1;
+
+    public ZipWriter(OutputStream out) {
+        this(out, null, Deflater.DEFAULT_COMPRESSION, false);
+    }
+
+    public ZipWriter(OutputStream out, Executor executor, int level, boolean storeOnly) {
+        if (level != Deflater.DEFAULT_COMPRESSION && (level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION)) {
+            throw new IllegalArgumentException("Compression level must be between 0 and 9");
+        }
+        this.out = new BufferedOutputStream(out, 64 * 1024);
+        this.executor = executor;
+        this.level = level;
+        this.storeOnly = storeOnly;
+    }
+
+    public void writePreamble(byte[] data) throws IOException {
+        if (!records.isEmpty() || !pending.isEmpty()) {
+            throw new IllegalStateException("Preamble must be written before any entry");
+        }
+        write(data);
+    }
+
+    public void writeEntry(String name, byte[] data) throws IOException {
+        writeEntry(name, data, storeOnly);
+    }
+
+    // stored: written uncompressed whatever the level, as nested JARs in a Spring Boot archive must be
+    public void writeEntry(String name, byte[] data, boolean stored) throws IOException {
+        int dosTime = fixedDosTime >= 0 ? fixedDosTime : toDosTime(System.currentTimeMillis());
+        CompletableFuture<Compressed> future = executor == null
+                ? CompletableFuture.completedFuture(compress(data, stored))
+                : CompletableFuture.supplyAsync(() -> compress(data, stored), executor);
+        pending.add(new PendingEntry(name, dosTime, future));
+        drain(false);
+    }
+
+    public void copyEntry(ZipArchive source, ArchiveEntry entry) throws IOException {
+        drain(true);
+        int flags = (entry.getFlags() & ~FLAG_DATA_DESCRIPTOR) | FLAG_UTF8;
+        writeEntry(entry.getName(), flags, entry.getMethod(), entry.getDosTime(), entry.getCrc(), entry.getCompressedSize(), entry.getSize());
+        source.copyRaw(entry, out);
+        position += entry.getCompressedSize();
+    }
+
+    // entries written from now on get this modification time instead of the current one
+    public void setFixedTime(LocalDateTime time) {
+        this.fixedDosTime = toDosTime(time);
+    }
+
+    public void setComment(String comment) {
+        byte[] bytes = comment == null ? NO_EXTRA : comment.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > MAX_COMMENT_SIZE) {
+            throw new IllegalArgumentException("ZIP comment too long");
+        }
+        this.comment = bytes;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            drain(true);
+            long cdOffset = position;
+            for (Record record : records) {
+                writeCentralHeader(record);
+            }
+            long cdSize = position - cdOffset;
+            writeEnd(cdOffset, cdSize);
+            out.flush();
+        } finally {
+            for (Deflater deflater : deflaters) {
+                deflater.end();
+            }
+            out.close();
+        }
+    }
+
+    private void drain(boolean all) throws IOException {
+        while (!pending.isEmpty()) {
+            PendingEntry head = pending.peek();
+            if (!all && pending.size() <= MAX_PENDING && !head.future.isDone()) return;
+
+            Compressed compressed;
+            try {
+                compressed = head.future.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+                throw e;
+            }
+            pending.poll();
+            writeEntry(head.name, FLAG_UTF8, compressed.method, head.dosTime, compressed.crc, compressed.data.length, compressed.size);
+            write(compressed.data);
+        }
+    }
+
+    private Compressed compress(byte[] data, boolean stored) {
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        if (stored) {
+            return new Compressed(STORED, (int) crc.getValue(), data.length, data);
+        }
+
+        Deflater deflater = deflaters.poll();
+        if (deflater == null) {
+            deflater = new Deflater(level, true);
+        } else {
+            deflater.reset();
+        }
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            ByteArrayOutputStream bos = new ByteArrayOutputStream(Math.max(64, data.length / 2));
+            byte[] buffer = new byte[Math.max(512, Math.min(64 * 1024, data.length))];
+            while (!deflater.finished()) {
+                int n = deflater.deflate(buffer);
+                bos.write(buffer, 0, n);
+            }
+            return new Compressed(DEFLATED, (int) crc.getValue(), data.length, bos.toByteArray());
+        } finally {
+            deflaters.add(deflater);
+        }
+    }
+
+    private void writeEntry(String name, int flags, int method, int dosTime, int crc, long compressedSize, long size) throws IOException {
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        byte[] extra = records.isEmpty() ? JAR_MAGIC_EXTRA : NO_EXTRA;
+        Record record = new Record(nameBytes, extra, flags, method, dosTime, crc, compressedSize, size, position);
+        records.add(record);
+
+        boolean zip64 = size >= ZIP64_MAGIC || compressedSize >= ZIP64_MAGIC;
+        byte[] localExtra = extra;
+        if (zip64) {
+            ByteBuffer zip64Extra = buffer(4 + 16);
+            zip64Extra.putShort((short) ZIP64_EXTRA_ID).putShort((short) 16).putLong(size).putLong(compressedSize);
+            localExtra = concat(extra, zip64Extra.array());
+        }
+
+        ByteBuffer header = buffer(LOCAL_HEADER_SIZE);
+        header.putInt(LOCAL_HEADER_SIG);
+        header.putShort((short) (zip64 ? VERSION_ZIP64 : VERSION_DEFAULT));
+        header.putShort((short) flags);
+        header.putShort((short) method);
+        header.putInt(dosTime);
+        header.putInt(crc);
+        header.putInt((int) (zip64 ? ZIP64_MAGIC : compressedSize));
+        header.putInt((int) (zip64 ? ZIP64_MAGIC : size));
+        header.putShort((short) nameBytes.length);
+        header.putShort((short) localExtra.length);
+        write(header.array());
+        write(nameBytes);
+        write(localExtra);
+    }
+
+    private void writeCentralHeader(Record record) throws IOException {
+        ByteBuffer zip64Extra = buffer(4 + 24);
+        zip64Extra.putShort((short) ZIP64_EXTRA_ID).putShort((short) 0);
+        if (record.size >= ZIP64_MAGIC) zip64Extra.putLong(record.size);
+        if (record.compressedSize >= ZIP64_MAGIC) zip64Extra.putLong(record.compressedSize);
+        if (record.offset >= ZIP64_MAGIC) zip64Extra.putLong(record.offset);
+        int zip64Length = zip64Extra.position() - 4;
+        boolean zip64 = zip64Length > 0;
+
+        byte[] extra = record.extra;
+        if (zip64) {
+            zip64Extra.putShort(2, (short) zip64Length);
+            byte[] zip64Bytes = new byte[zip64Extra.position()];
+            zip64Extra.get(0, zip64Bytes);
+            extra = concat(extra, zip64Bytes);
+        }
+
+        int version = zip64 ? VERSION_ZIP64 : VERSION_DEFAULT;
+        ByteBuffer header = buffer(CENTRAL_HEADER_SIZE);
+        header.putInt(CENTRAL_HEADER_SIG);
+        header.putShort((short) version);
+        header.putShort((short) version);
+        header.putShort((short) record.flags);
+        header.putShort((short) record.method);
+        header.putInt(record.dosTime);
+        header.putInt(record.crc);
+        header.putInt((int) Math.min(record.compressedSize, ZIP64_MAGIC));
+        header.putInt((int) Math.min(record.size, ZIP64_MAGIC));
+        header.putShort((short) record.name.length);
+        header.putShort((short) extra.length);
+        header.putShort((short) 0);
+        header.putShort((short) 0);
+        header.putShort((short) 0);
+        header.putInt(0);
+        header.putInt((int) Math.min(record.offset, ZIP64_MAGIC));
+        write(header.array());
+        write(record.name);
+        write(extra);
+    }
+
+    private void writeEnd(long cdOffset, long cdSize) throws IOException {
+        int count = records.size();
+        boolean zip64 = count >= ZIP64_MAGIC_COUNT || cdOffset >= ZIP64_MAGIC || cdSize >= ZIP64_MAGIC;
+        if (zip64) {
+            long zip64EndOffset = position;
+            ByteBuffer end64 = buffer(ZIP64_END_SIZE);
+            end64.putInt(ZIP64_END_SIG);
+            end64.putLong(ZIP64_END_SIZE - 12);
+            end64.putShort((short) VERSION_ZIP64);
+            end64.putShort((short) VERSION_ZIP64);
+            end64.putInt(0);
+            end64.putInt(0);
+            end64.putLong(count);
+            end64.putLong(count);
+            end64.putLong(cdSize);
+            end64.putLong(cdOffset);
+            write(end64.array());
+
+            ByteBuffer locator = buffer(ZIP64_LOCATOR_SIZE);
+            locator.putInt(ZIP64_LOCATOR_SIG);
+            locator.putInt(0);
+            locator.putLong(zip64EndOffset);
+            locator.putInt(1);
+            write(locator.array());
+        }
+
+        ByteBuffer end = buffer(END_SIZE);
+        end.putInt(END_SIG);
+        end.putShort((short) 0);
+        end.putShort((short) 0);
+        end.putShort((short) Math.min(count, ZIP64_MAGIC_COUNT));
+        end.putShort((short) Math.min(count, ZIP64_MAGIC_COUNT));
+        end.putInt((int) Math.min(cdSize, ZIP64_MAGIC));
+        end.putInt((int) Math.min(cdOffset, ZIP64_MAGIC));
+        end.putShort((short) comment.length);
+        write(end.array());
+        write(comment);
+    }
+
+    private void write(byte[] data) throws IOException {
+        out.write(data);
+        position += data.length;
+    }
+
+    private static ByteBuffer buffer(int size) {
+        return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static byte[] concat(byte[] a, byte[] b) {
+        byte[] result = new byte[a.length + b.length];
+        System.arraycopy(a, 0, result, 0, a.length);
+        System.arraycopy(b, 0, result, a.length, b.length);
+        return result;
+    }
+
+    static int toDosTime(long millis) {
+        return toDosTime(LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault()));
+    }
+
+    static int toDosTime(LocalDateTime time) {
+        if (time.getYear() < 1980) {
+            return (1 << 21) | (1 << 16);
+        }
+        return (time.getYear() - 1980) << 25
+                | time.getMonthValue() << 21
+                | time.getDayOfMonth() << 16
+                | time.getHour() << 11
+                | time.getMinute() << 5
+                | time.getSecond() >> 1;
+    }
+
+    private static class PendingEntry {
+        private final String name;
+        private final int dosTime;
+        private final CompletableFuture<Compressed> future;
+
+        private PendingEntry(String name, int dosTime, CompletableFuture<Compressed> future) {
+            this.name = name;
+            this.dosTime = dosTime;
+            this.future = future;
+        }
+    }
+
+    private static class Compressed {
+        private final int method;
+        private final int crc;
+        private final long size;
+        private final byte[] data;
+
+        private Compressed(int method, int crc, long size, byte[] data) {
+            this.method = method;
+            this.crc = crc;
+            this.size = size;
+            this.data = data;
+        }
+    }
+
+    private static class Record {
+        private final byte[] name;
+        private final byte[] extra;
+        private final int flags;
+        private final int method;
+        private final int dosTime;
+        private final int crc;
+        private final long compressedSize;
+        private final long size;
+        private final long offset;
+
+        private Record(byte[] name, byte[] extra, int flags, int method, int dosTime, int crc, long compressedSize, long size, long offset) {
+            this.name = name;
+            this.extra = extra;
+            this.flags = flags;
+            this.method = method;
+            this.dosTime = dosTime;
+            this.crc = crc;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.offset = offset;
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package dev.eatgrapes.chlorine.library;
+
+import dev.eatgrapes.chlorine.Log;
+import dev.eatgrapes.chlorine.io.ArchiveEntry;
+import dev.eatgrapes.chlorine.io.ZipArchive;
+import dev.eatgrapes.chlorine.utils.HashUtils;
+import dev.eatgrapes.chlorine.utils.ParallelUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Stream;
+
+public class Libraries {
+    public static final String JRT = "jrt:/";
+    private static final Libraries NONE = new Libraries(Collections.emptyList(), Collections.emptyList());
+
+    private final List<TypeIndex> indexes;
+    private final List<String> keys;
+
+    private Libraries(List<TypeIndex> indexes, List<String> keys) {
+        this.indexes = indexes;
+        this.keys = keys;
+    }
+
+    public static Libraries none() {
+        return NONE;
+    }
+
+    public static Libraries open(List<String> paths, Path cacheDir, ForkJoinPool pool, Log log) throws IOException {
+        if (paths.isEmpty()) return NONE;
+        List<TypeIndex> indexes = new ArrayList<>();
+        List<String> keys = new ArrayList<>();
+        for (String path : paths) {
+            String key = key(path);
+            indexes.add(load(path, key, cacheDir, pool, log));
+            keys.add(key);
+        }
+        return new Libraries(indexes, keys);
+    }
+
+    // types already held in memory, such as the classes of the other JARs nested in the same archive
+    public static Libraries of(Collection<TypeHeader> types) throws IOException {
+        Map<String, TypeHeader> unique = new LinkedHashMap<>();
+        for (TypeHeader type : types) {
+            unique.putIfAbsent(type.getName(), type);
+        }
+        byte[] data = TypeIndex.serialize(unique.values());
+        return new Libraries(List.of(TypeIndex.wrap(data)), List.of(HashUtils.hex(HashUtils.sha256().digest(data))));
+    }
+
+    // these libraries first, then the other ones
+    public Libraries with(Libraries other) {
+        if (other.indexes.isEmpty()) return this;
+        if (indexes.isEmpty()) return other;
+        List<TypeIndex> combinedIndexes = new ArrayList<>(indexes);
+        combinedIndexes.addAll(other.indexes);
+        List<String> combinedKeys = new ArrayList<>(keys);
+        combinedKeys.addAll(other.keys);
+        return new Libraries(combinedIndexes, combinedKeys);
+    }
+
+    // content hashes of the libraries in lookup order
+    public List<String> getKeys() {
+        return keys;
+    }
+
+    public TypeHeader find(String name) {
+        for (TypeIndex index : indexes) {
+            TypeHeader type = index.find(name);
+            if (type != null) return type;
+        }
+        return null;
+    }
+
+    private static String key(String path) throws IOException {
+        if (isJrt(path)) return jrtHash();
+        File file = new File(path);
+        if (!file.isFile()) {
+            throw new IllegalArgumentException("Library not found: " + path + " (--libraries).");
+        }
+        return contentHash(file);
+    }
+
+    private static TypeIndex load(String path, String key, Path cacheDir, ForkJoinPool pool, Log log) throws IOException {
+        boolean jrt = isJrt(path);
+        File file = new File(path);
+        Path cached = cacheDir == null ? null : cacheDir.resolve("types").resolve(key + ".idx");
+        if (cached != null && Files.isRegularFile(cached)) {
+            try {
+                TypeIndex index = TypeIndex.map(cached);
+                log.info("Library " + path + ": " + index.size() + " types (cached)");
+                return index;
+            } catch (IOException e) {
+                log.warn("Ignoring unreadable type index " + cached + ": " + e.getMessage());
+            }
+        }
+
+        List<byte[]> classData = jrt ? readJrt() : readJar(file);
+        List<TypeHeader> types = ParallelUtils.map(pool, classData, TypeHeader::read);
+        byte[] data = TypeIndex.serialize(types);
+        log.info("Library " + path + ": " + types.size() + " types (indexed)");
+
+        if (cached != null) {
+            try {
+                Files.createDirectories(cached.getParent());
+                Path temp = Files.createTempFile(cached.getParent(), key, ".tmp");
+                Files.write(temp, data);
+                Files.move(temp, cached, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                return TypeIndex.map(cached);
+            } catch (IOException e) {
+                log.warn("Could not cache type index in " + cacheDir + ": " + e.getMessage());
+            }
+        }
+        return TypeIndex.wrap(data);
+    }
+
+    public static boolean isJrt(String path) {
+        return path.equals(JRT) || path.equals("jrt:") || path.equals("jrt");
+    }
+
+    private static List<byte[]> readJar(File file) throws IOException {
+        List<byte[]> result = new ArrayList<>();
+        try (ZipArchive archive = ZipArchive.open(file, true)) {
+            for (ArchiveEntry entry : archive.getEntries()) {
+                if (!entry.isClass() || entry.getName().startsWith("META-INF/")) continue;
+                if (entry.getName().endsWith("module-info.class")) continue;
+                result.add(archive.read(entry));
+            }
+        }
+        return result;
+    }
+
+    private static List<byte[]> readJrt() throws IOException {
+        FileSystem fs = FileSystems.getFileSystem(URI.create(JRT));
+        List<byte[]> result = new ArrayList<>();
+        try (Stream<Path> files = Files.walk(fs.getPath("/modules"))) {
+            for (Path p : (Iterable<Path>) files::iterator) {
+                String name = p.getFileName() == null ? "" : p.getFileName().toString();
+                if (!name.endsWith(".class") || name.equals("module-info.class")) continue;
+                result.add(Files.readAllBytes(p));
+            }
+        }
+        return result;
+    }
+
+    private static String jrtHash() throws IOException {
+        MessageDigest digest = HashUtils.sha256();
+        String javaHome = System.getProperty("java.home");
+        digest.update(("jrt\0" + javaHome + "\0" + System.getProperty("java.runtime.version")).getBytes(StandardCharsets.UTF_8));
+        Path modules = Paths.get(javaHome, "lib", "modules");
+        if (Files.isRegularFile(modules)) {
+            digest.update(("\0" + Files.size(modules) + "\0" + Files.getLastModifiedTime(modules).toMillis()).getBytes(StandardCharsets.UTF_8));
+        }
+        return HashUtils.hex(digest.digest());
+    }
+
+    private static String contentHash(File file) throws IOException {
+        MessageDigest digest = HashUtils.sha256();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(1 << 20);
+            while (channel.read(buffer) > 0) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        }
+        return HashUtils.hex(digest.digest());
+    }
+}
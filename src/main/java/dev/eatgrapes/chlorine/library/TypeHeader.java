@@ -0,0 +1,101 @@
+package dev.eatgrapes.chlorine.library;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class TypeHeader {
+    private final String name;
+    private final int access;
+    private final String superName;
+    private final List<String> interfaces;
+    private final List<Member> members;
+
+    public TypeHeader(String name, int access, String superName, List<String> interfaces, List<Member> members) {
+        this.name = name;
+        this.access = access;
+        this.superName = superName;
+        this.interfaces = Collections.unmodifiableList(interfaces);
+        this.members = Collections.unmodifiableList(members);
+    }
+
+    public static TypeHeader read(byte[] data) {
+        ClassReader cr = new ClassReader(data);
+        List<Member> members = new ArrayList<>();
+        cr.accept(new ClassVisitor(Opcodes.ASM9) {
+            @Override
+            public FieldVisitor visitField(int access, String name, String descriptor, String signature, Object value) {
+                members.add(new Member(access, name, descriptor));
+                return null;
+            }
+
+            @Override
+            public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+                members.add(new Member(access, name, descriptor));
+                return null;
+            }
+        }, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+        return new TypeHeader(cr.getClassName(), cr.getAccess(), cr.getSuperName(), List.of(cr.getInterfaces()), members);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getAccess() {
+        return access;
+    }
+
+    public String getSuperName() {
+        return superName;
+    }
+
+    public List<String> getInterfaces() {
+        return interfaces;
+    }
+
+    public List<Member> getMembers() {
+        return members;
+    }
+
+    public boolean hasMethod(String name, String descriptor) {
+        for (Member member : members) {
+            if (member.isMethod() && member.name.equals(name) && member.descriptor.equals(descriptor)) return true;
+        }
+        return false;
+    }
+
+    public static class Member {
+        private final int access;
+        private final String name;
+        private final String descriptor;
+
+        public Member(int access, String name, String descriptor) {
+            this.access = access;
+            this.name = name;
+            this.descriptor = descriptor;
+        }
+
+        public int getAccess() {
+            return access;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getDescriptor() {
+            return descriptor;
+        }
+
+        public boolean isMethod() {
+            return descriptor.startsWith("(");
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package dev.eatgrapes.chlorine.library;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/*
+ * Layout (big-endian):
+ *   int magic, int version, int count, int[count] offsets of the entries sorted by UTF-8 name,
+ *   then per entry: str name, int access, str super ("" for none), u16 n + n * str interface,
+ *   int m + m * (int access, str name, str descriptor), where str is u16 length + UTF-8 bytes.
+ */
+public class TypeIndex {
+    private static final int MAGIC = 0x434C5449;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 12;
+
+    private final ByteBuffer buffer;
+    private final int count;
+
+    private TypeIndex(ByteBuffer buffer) throws IOException {
+        if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IOException("Not a type index or unsupported version");
+        }
+        this.buffer = buffer;
+        this.count = buffer.getInt(8);
+        if (count < 0 || HEADER_SIZE + (long) count * 4 > buffer.limit()) {
+            throw new IOException("Corrupt type index");
+        }
+    }
+
+    public static TypeIndex map(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return new TypeIndex(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    public static TypeIndex wrap(byte[] data) throws IOException {
+        return new TypeIndex(ByteBuffer.wrap(data));
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public TypeHeader find(String name) {
+        byte[] key = name.getBytes(StandardCharsets.UTF_8);
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int offset = buffer.getInt(HEADER_SIZE + mid * 4);
+            int cmp = compareName(offset, key);
+            if (cmp < 0) low = mid + 1;
+            else if (cmp > 0) high = mid - 1;
+            else return readEntry(offset);
+        }
+        return null;
+    }
+
+    private int compareName(int offset, byte[] key) {
+        int length = buffer.getShort(offset) & 0xFFFF;
+        int n = Math.min(length, key.length);
+        for (int i = 0; i < n; i++) {
+            int cmp = Integer.compare(buffer.get(offset + 2 + i) & 0xFF, key[i] & 0xFF);
+            if (cmp != 0) return cmp;
+        }
+        return Integer.compare(length, key.length);
+    }
+
+    private TypeHeader readEntry(int offset) {
+        ByteBuffer in = buffer.duplicate();
+        in.position(offset);
+        String name = readString(in);
+        int access = in.getInt();
+        String superName = readString(in);
+        int interfaceCount = in.getShort() & 0xFFFF;
+        List<String> interfaces = new ArrayList<>(interfaceCount);
+        for (int i = 0; i < interfaceCount; i++) {
+            interfaces.add(readString(in));
+        }
+        int memberCount = in.getInt();
+        List<TypeHeader.Member> members = new ArrayList<>(memberCount);
+        for (int i = 0; i < memberCount; i++) {
+            int memberAccess = in.getInt();
+            members.add(new TypeHeader.Member(memberAccess, readString(in), readString(in)));
+        }
+        return new TypeHeader(name, access, superName.isEmpty() ? null : superName, interfaces, members);
+    }
+
+    private static String readString(ByteBuffer in) {
+        byte[] bytes = new byte[in.getShort() & 0xFFFF];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    public static byte[] serialize(Collection<TypeHeader> types) throws IOException {
+        List<TypeHeader> sorted = new ArrayList<>(types);
+        sorted.sort((a, b) -> Arrays.compareUnsigned(
+                a.getName().getBytes(StandardCharsets.UTF_8), b.getName().getBytes(StandardCharsets.UTF_8)));
+
+        ByteArrayOutputStream entries = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(entries);
+        int base = HEADER_SIZE + sorted.size() * 4;
+        int[] offsets = new int[sorted.size()];
+        for (int i = 0; i < sorted.size(); i++) {
+            TypeHeader type = sorted.get(i);
+            offsets[i] = base + out.size();
+            writeString(out, type.getName());
+            out.writeInt(type.getAccess());
+            writeString(out, type.getSuperName() == null ? "" : type.getSuperName());
+            out.writeShort(type.getInterfaces().size());
+            for (String itf : type.getInterfaces()) {
+                writeString(out, itf);
+            }
+            out.writeInt(type.getMembers().size());
+            for (TypeHeader.Member member : type.getMembers()) {
+                out.writeInt(member.getAccess());
+                writeString(out, member.getName());
+                writeString(out, member.getDescriptor());
+            }
+        }
+        out.flush();
+
+        ByteBuffer result = ByteBuffer.allocate(base + entries.size());
+        result.putInt(MAGIC).putInt(VERSION).putInt(sorted.size());
+        for (int offset : offsets) {
+            result.putInt(offset);
+        }
+        result.put(entries.toByteArray());
+        return result.array();
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+}
@@ -0,0 +1,53 @@
+package dev.eatgrapes.chlorine.transformers;
+
+import dev.eatgrapes.chlorine.utils.KeepRules;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.MethodNode;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.SplittableRandom;
+
+public class ClassContext {
+    private final ClassNode classNode;
+    private final KeepRules keeps;
+    private final SplittableRandom random;
+    private final Set<MethodNode> modifiedMethods = Collections.newSetFromMap(new IdentityHashMap<>());
+    private boolean modified;
+
+    public ClassContext(ClassNode classNode, KeepRules keeps, SplittableRandom random) {
+        this.classNode = classNode;
+        this.keeps = keeps;
+        this.random = random;
+    }
+
+    public ClassNode getClassNode() {
+        return classNode;
+    }
+
+    public KeepRules getKeeps() {
+        return keeps;
+    }
+
+    public SplittableRandom getRandom() {
+        return random;
+    }
+
+    public void markModified() {
+        modified = true;
+    }
+
+    public void markModified(MethodNode mn) {
+        modified = true;
+        modifiedMethods.add(mn);
+    }
+
+    public boolean isModified() {
+        return modified;
+    }
+
+    public Set<MethodNode> getModifiedMethods() {
+        return modifiedMethods;
+    }
+}
@@ -0,0 +1,272 @@
+package dev.eatgrapes.chlorine.transformers;
+
+import dev.eatgrapes.chlorine.Log;
+import dev.eatgrapes.chlorine.utils.KeepRules;
+import dev.eatgrapes.chlorine.utils.HotnessProfile;
+import dev.eatgrapes.chlorine.utils.NameGenerator;
+import dev.eatgrapes.chlorine.utils.SizeBudget;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.InsnList;
+import org.objectweb.asm.tree.MethodNode;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.function.ToIntFunction;
+
+// Runs the rewriters of several fusable transformers in a single walk over each method. A replacement made by
+// one rewriter is offered to the rewriters after it, and a method added by one part, in prepare or visitEnd, is
+// only offered to the parts from there on, so the result matches running the transformers one by one. The one
+// exception is a size budget that caps a method: the fused parts share its room in instruction order rather than
+// the earlier part taking what it needs first.
+public class FusedTransformer extends Transformer {
+    private final List<Transformer> parts;
+    // method added by a part's prepare -> the index of that part
+    private final Map<MethodNode, Integer> preparedBy = new IdentityHashMap<>();
+
+    public FusedTransformer(List<Transformer> parts) {
+        for (Transformer t : parts) {
+            if (!t.isFusable()) throw new IllegalArgumentException(t.getName() + " cannot be fused");
+        }
+        this.parts = List.copyOf(parts);
+    }
+
+    public List<Transformer> getParts() {
+        return parts;
+    }
+
+    @Override
+    public String getName() {
+        StringJoiner joiner = new StringJoiner("+", "Fused[", "]");
+        for (Transformer t : parts) {
+            joiner.add(t.getName());
+        }
+        return joiner.toString();
+    }
+
+    @Override
+    public boolean isClassLocal() {
+        for (Transformer t : parts) {
+            if (!t.isClassLocal()) return false;
+        }
+        return true;
+    }
+
+    @Override
+    public boolean visitsKeptClasses() {
+        for (Transformer t : parts) {
+            if (t.visitsKeptClasses()) return true;
+        }
+        return false;
+    }
+
+    @Override
+    public boolean reportsChanges() {
+        return true;
+    }
+
+    @Override
+    public boolean preservesConstantPool() {
+        for (Transformer t : parts) {
+            if (!t.preservesConstantPool()) return false;
+        }
+        return true;
+    }
+
+    @Override
+    public void setSeed(long seed) {
+        super.setSeed(seed);
+        for (Transformer t : parts) {
+            t.setSeed(seed);
+        }
+    }
+
+    @Override
+    public void setSizeBudget(SizeBudget sizeBudget) {
+        super.setSizeBudget(sizeBudget);
+        for (Transformer t : parts) {
+            t.setSizeBudget(sizeBudget);
+        }
+    }
+
+    @Override
+    public void setProfile(HotnessProfile profile) {
+        super.setProfile(profile);
+        for (Transformer t : parts) {
+            t.setProfile(profile);
+        }
+    }
+
+    @Override
+    public void setNames(NameGenerator names) {
+        super.setNames(names);
+        for (Transformer t : parts) {
+            t.setNames(names);
+        }
+    }
+
+    @Override
+    public void setLog(Log log) {
+        super.setLog(log);
+        for (Transformer t : parts) {
+            t.setLog(log);
+        }
+    }
+
+    @Override
+    public Map<String, String> saveState() {
+        Map<String, String> state = new HashMap<>();
+        for (int i = 0; i < parts.size(); i++) {
+            for (Map.Entry<String, String> e : parts.get(i).saveState().entrySet()) {
+                state.put(i + "." + e.getKey(), e.getValue());
+            }
+        }
+        return state;
+    }
+
+    @Override
+    public void loadState(Map<String, String> state) {
+        for (int i = 0; i < parts.size(); i++) {
+            String prefix = i + ".";
+            Map<String, String> partState = new HashMap<>();
+            for (Map.Entry<String, String> e : state.entrySet()) {
+                if (e.getKey().startsWith(prefix)) partState.put(e.getKey().substring(prefix.length()), e.getValue());
+            }
+            parts.get(i).loadState(partState);
+        }
+    }
+
+    @Override
+    public void prepare(Map<String, ClassNode> classes, KeepRules keeps) {
+        preparedBy.clear();
+        Map<ClassNode, Integer> methodCounts = new IdentityHashMap<>();
+        for (int i = 0; i < parts.size(); i++) {
+            if (i > 0) {
+                for (ClassNode cn : unkeptClasses(classes, keeps)) {
+                    methodCounts.put(cn, cn.methods.size());
+                }
+            }
+            parts.get(i).prepare(classes, keeps);
+            if (i == 0) continue;
+            // prepare only appends, and a class it creates is new to every earlier part
+            for (ClassNode cn : unkeptClasses(classes, keeps)) {
+                for (int m = methodCounts.getOrDefault(cn, 0); m < cn.methods.size(); m++) {
+                    preparedBy.put(cn.methods.get(m), i);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void transform(Map<String, ClassNode> classes, Map<String, String> manifest, KeepRules keeps) {
+        prepare(classes, keeps);
+        transformEachClass(classes, keeps);
+    }
+
+    @Override
+    public void transformClass(ClassContext context) {
+        ClassNode cn = context.getClassNode();
+        List<ClassContext> contexts = new ArrayList<>(parts.size());
+        List<InsnRewriter> rewriters = new ArrayList<>(parts.size());
+        List<Integer> partIndices = new ArrayList<>(parts.size());
+        for (int i = 0; i < parts.size(); i++) {
+            Transformer t = parts.get(i);
+            ClassContext partContext = t.createContext(cn, context.getKeeps());
+            InsnRewriter rewriter = t.createRewriter(partContext);
+            if (rewriter == null) continue;
+            contexts.add(partContext);
+            rewriters.add(rewriter);
+            partIndices.add(i);
+        }
+        walk(cn, contexts, rewriters, mn -> {
+            Integer part = preparedBy.get(mn);
+            if (part == null) return 0;
+            int first = 0;
+            while (first < partIndices.size() && partIndices.get(first) < part) first++;
+            return first;
+        });
+
+        for (ClassContext partContext : contexts) {
+            if (partContext.isModified()) context.markModified();
+            for (MethodNode mn : partContext.getModifiedMethods()) {
+                context.markModified(mn);
+            }
+        }
+    }
+
+    static void walk(ClassNode cn, List<ClassContext> contexts, List<InsnRewriter> rewriters) {
+        walk(cn, contexts, rewriters, mn -> 0);
+    }
+
+    // first: the index of the first rewriter a method is offered to. Such a method is held back until the rewriters
+    // before that one are done, and the methods a rewriter adds in visitEnd are walked by the rewriters after it
+    // before their own visitEnd, so every rewriter sees the methods in the order running alone would list them.
+    static void walk(ClassNode cn, List<ClassContext> contexts, List<InsnRewriter> rewriters, ToIntFunction<MethodNode> first) {
+        if (rewriters.isEmpty()) return;
+        List<MethodNode> deferred = new ArrayList<>();
+        for (MethodNode mn : cn.methods) {
+            if (first.applyAsInt(mn) > 0) deferred.add(mn);
+        }
+        cn.methods.removeAll(deferred);
+
+        boolean[] active = new boolean[rewriters.size()];
+        walkMethods(new ArrayList<>(cn.methods), 0, active, contexts, rewriters);
+        for (int i = 0; i < rewriters.size(); i++) {
+            int count = cn.methods.size();
+            rewriters.get(i).visitEnd();
+            for (MethodNode mn : deferred) {
+                if (first.applyAsInt(mn) == i + 1) cn.methods.add(mn);
+            }
+            if (cn.methods.size() > count && i + 1 < rewriters.size()) {
+                walkMethods(new ArrayList<>(cn.methods.subList(count, cn.methods.size())), i + 1, active, contexts, rewriters);
+            }
+        }
+    }
+
+    private static void walkMethods(List<MethodNode> methods, int from, boolean[] active, List<ClassContext> contexts,
+                                    List<InsnRewriter> rewriters) {
+        for (MethodNode mn : methods) {
+            if (mn.instructions == null || mn.instructions.size() == 0) continue;
+            boolean any = false;
+            for (int i = 0; i < active.length; i++) {
+                active[i] = i >= from && rewriters.get(i).visitMethod(mn);
+                any |= active[i];
+            }
+            if (!any) continue;
+
+            for (AbstractInsnNode insn = mn.instructions.getFirst(); insn != null; ) {
+                AbstractInsnNode next = insn.getNext();
+                rewrite(mn, insn, from, active, contexts, rewriters);
+                insn = next;
+            }
+        }
+    }
+
+    private static void rewrite(MethodNode mn, AbstractInsnNode insn, int from, boolean[] active,
+                                List<ClassContext> contexts, List<InsnRewriter> rewriters) {
+        for (int i = from; i < active.length; i++) {
+            if (!active[i]) continue;
+            InsnList replacement = rewriters.get(i).rewrite(mn, insn);
+            if (replacement == null) continue;
+
+            contexts.get(i).markModified(mn);
+            AbstractInsnNode first = replacement.getFirst();
+            AbstractInsnNode last = replacement.getLast();
+            mn.instructions.insertBefore(insn, replacement);
+            mn.instructions.remove(insn);
+            if (first == null || i + 1 == active.length) return;
+
+            for (AbstractInsnNode current = first; ; ) {
+                AbstractInsnNode next = current.getNext();
+                boolean end = current == last;
+                rewrite(mn, current, i + 1, active, contexts, rewriters);
+                if (end) return;
+                current = next;
+            }
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package dev.eatgrapes.chlorine.transformers;
+
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.InsnList;
+import org.objectweb.asm.tree.MethodNode;
+
+public interface InsnRewriter {
+
+    // false: none of the method's instructions are offered to this rewriter
+    default boolean visitMethod(MethodNode mn) {
+        return true;
+    }
+
+    // returns the instructions that replace insn, or null to leave it in place
+    InsnList rewrite(MethodNode mn, AbstractInsnNode insn);
+
+    // called once after every method of the class has been walked
+    default void visitEnd() {
+    }
+}
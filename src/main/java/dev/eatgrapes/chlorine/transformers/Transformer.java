@@ -1,22 +1,223 @@
 package dev.eatgrapes.chlorine.transformers;
 
+import dev.eatgrapes.chlorine.Log;
+import dev.eatgrapes.chlorine.utils.HotnessProfile;
+import dev.eatgrapes.chlorine.utils.KeepRules;
 import dev.eatgrapes.chlorine.utils.KeepUtils;
+import dev.eatgrapes.chlorine.utils.LazyClassMap;
+import dev.eatgrapes.chlorine.utils.NameGenerator;
+import dev.eatgrapes.chlorine.utils.ParallelUtils;
+import dev.eatgrapes.chlorine.utils.SizeBudget;
 import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.MethodNode;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadLocalRandom;
 
 public abstract class Transformer {
+    private long seed = ThreadLocalRandom.current().nextLong();
+    private ForkJoinPool pool = ForkJoinPool.commonPool();
+    private SizeBudget sizeBudget = SizeBudget.none();
+    private HotnessProfile profile = HotnessProfile.none();
+    private NameGenerator names = NameGenerator.forRun();
+    private Log log = Log.silent();
 
-    public abstract void transform(Map<String, ClassNode> classes, Map<String, String> manifest, Set<String> keeps);
+    public abstract void transform(Map<String, ClassNode> classes, Map<String, String> manifest, KeepRules keeps);
 
     public abstract String getName();
 
-    protected boolean shouldKeep(String internalName, Set<String> keeps) {
-        return KeepUtils.shouldKeep(internalName, keeps);
+    // true: the transformer only looks at one class at a time through transformClass and never sees kept classes
+    public boolean isClassLocal() {
+        return false;
     }
 
-    protected boolean shouldKeepMember(String ownerInternal, String memberName, Set<String> keeps) {
-        return KeepUtils.shouldKeepMember(ownerInternal, memberName, keeps);
+    public void transformClass(ClassContext context) {
+        if (isFusable()) {
+            InsnRewriter rewriter = createRewriter(context);
+            if (rewriter != null) FusedTransformer.walk(context.getClassNode(), List.of(context), List.of(rewriter));
+            return;
+        }
+        for (MethodNode mn : context.getClassNode().methods) {
+            if (transformMethod(context, mn)) context.markModified(mn);
+        }
+    }
+
+    // returns true if the method was changed; a class-local transformer overrides this or transformClass
+    protected boolean transformMethod(ClassContext context, MethodNode mn) {
+        return false;
+    }
+
+    // true: the per-class work is an instruction rewrite from createRewriter, so it can share one walk with others
+    public boolean isFusable() {
+        return false;
+    }
+
+    // returns null when the class has nothing to rewrite; a fusable transformer overrides this
+    public InsnRewriter createRewriter(ClassContext context) {
+        return null;
+    }
+
+    // whole-set setup that has to run before createRewriter is called for any class
+    public void prepare(Map<String, ClassNode> classes, KeepRules keeps) {
+    }
+
+    // each class gets its own stream derived from the seed and its name, so output does not depend on scheduling
+    public ClassContext createContext(ClassNode cn, KeepRules keeps) {
+        long h = seed ^ 0xcbf29ce484222325L;
+        for (byte b : (getName() + '/' + cn.name).getBytes(StandardCharsets.UTF_8)) {
+            h = (h ^ (b & 0xff)) * 0x100000001b3L;
+        }
+        return new ClassContext(cn, keeps, new SplittableRandom(h));
+    }
+
+    // decisions of a whole-set transformer that an incremental run hands to the next one, so unchanged classes
+    // come out the same; loadState is called before transform with what saveState returned last time
+    public Map<String, String> saveState() {
+        return Collections.emptyMap();
+    }
+
+    public void loadState(Map<String, String> state) {
+    }
+
+    // the options that change what this transformer emits, empty when it has none; part of the incremental cache key
+    public String getSettings() {
+        return "";
+    }
+
+    // a transformer with the same settings and none of this one's state, for a run that goes on beside this one's
+    public Transformer newInstance() {
+        try {
+            return getClass().getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(getName() + " has no no-argument constructor", e);
+        }
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    protected ForkJoinPool getPool() {
+        return pool;
+    }
+
+    public void setPool(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    // shared by every transformer of a run; transformers that grow methods check it before rewriting
+    public SizeBudget getSizeBudget() {
+        return sizeBudget;
+    }
+
+    public void setSizeBudget(SizeBudget sizeBudget) {
+        this.sizeBudget = sizeBudget;
+    }
+
+    // shared by every transformer of a run; transformers with a runtime cost scale it down in hot methods
+    public HotnessProfile getProfile() {
+        return profile;
+    }
+
+    public void setProfile(HotnessProfile profile) {
+        this.profile = profile;
+    }
+
+    // shared by every transformer of a run; new class, member and helper names come from it
+    public NameGenerator getNames() {
+        return names;
+    }
+
+    public void setNames(NameGenerator names) {
+        this.names = names;
+    }
+
+    // the run's log, for what a transformer has to skip
+    public Log getLog() {
+        return log;
+    }
+
+    public void setLog(Log log) {
+        this.log = log;
+    }
+
+    // false: kept classes are never handed to this transformer, so they do not need to be parsed for it
+    public boolean visitsKeptClasses() {
+        return !isClassLocal();
+    }
+
+    // false: every class this transformer reads is treated as modified and re-serialized
+    public boolean reportsChanges() {
+        return isClassLocal();
+    }
+
+    // true: the transformer never drops constants from a class, so its original constant pool can be reused
+    public boolean preservesConstantPool() {
+        return false;
+    }
+
+    protected void markModified(Map<String, ClassNode> classes, ClassNode cn) {
+        if (classes instanceof LazyClassMap) {
+            ((LazyClassMap) classes).markModified(cn.name, preservesConstantPool());
+        }
+    }
+
+    protected void markModified(Map<String, ClassNode> classes, ClassNode cn, MethodNode mn) {
+        if (classes instanceof LazyClassMap) {
+            ((LazyClassMap) classes).markModified(cn.name, mn, preservesConstantPool());
+        }
+    }
+
+    protected void transformEachClass(Map<String, ClassNode> classes, KeepRules keeps) {
+        List<ClassContext> contexts = ParallelUtils.map(pool, unkeptClasses(classes, keeps), cn -> {
+            ClassContext context = createContext(cn, keeps);
+            transformClass(context);
+            return context;
+        });
+        for (ClassContext context : contexts) {
+            ClassNode cn = context.getClassNode();
+            if (context.isModified()) markModified(classes, cn);
+            for (MethodNode mn : context.getModifiedMethods()) {
+                markModified(classes, cn, mn);
+            }
+        }
+    }
+
+    protected List<ClassNode> unkeptClasses(Map<String, ClassNode> classes, KeepRules keeps) {
+        List<ClassNode> result = new ArrayList<>();
+        for (String name : new ArrayList<>(classes.keySet())) {
+            if (shouldKeep(name, keeps)) continue;
+            result.add(classes.get(name));
+        }
+        return result;
+    }
+
+    protected void replaceClasses(Map<String, ClassNode> classes, Map<String, ClassNode> replacements) {
+        if (classes instanceof LazyClassMap) {
+            ((LazyClassMap) classes).replaceClasses(replacements);
+            return;
+        }
+        classes.keySet().removeAll(replacements.keySet());
+        for (ClassNode cn : replacements.values()) {
+            classes.put(cn.name, cn);
+        }
+    }
+
+    protected boolean shouldKeep(String internalName, KeepRules keeps) {
+        return keeps.keepsClass(internalName);
+    }
+
+    protected boolean shouldKeepMember(String ownerInternal, String memberName, String desc, KeepRules keeps) {
+        return keeps.keepsMember(ownerInternal, memberName, desc);
     }
 
     protected boolean isExternal(String internalName) {
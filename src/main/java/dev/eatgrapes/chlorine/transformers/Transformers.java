@@ -6,6 +6,7 @@ import dev.eatgrapes.chlorine.transformers.impl.FlowTransformer;
 import dev.eatgrapes.chlorine.transformers.impl.MethodNameTransformer;
 import dev.eatgrapes.chlorine.transformers.impl.NumberObfuscationTransformer;
 import dev.eatgrapes.chlorine.transformers.impl.ReflectionTransformer;
+import dev.eatgrapes.chlorine.transformers.impl.RenameTransformer;
 import dev.eatgrapes.chlorine.transformers.impl.StringEncryptionTransformer;
 import java.util.ArrayList;
 import java.util.List;
@@ -31,6 +32,47 @@ public class Transformers {
         return transformers;
     }
     
+    // merges each run of consecutive ClassRename/MethodRename/FieldRename toggles into one rename pass
+    public static List<Transformer> combineRenames(List<Transformer> transformers) {
+        List<Transformer> result = new ArrayList<>();
+        List<RenameTransformer> run = new ArrayList<>();
+        for (Transformer t : transformers) {
+            if (t instanceof RenameTransformer) {
+                run.add((RenameTransformer) t);
+                continue;
+            }
+            if (run.size() > 1) result.add(RenameTransformer.combine(run));
+            else result.addAll(run);
+            run.clear();
+            result.add(t);
+        }
+        if (run.size() > 1) result.add(RenameTransformer.combine(run));
+        else result.addAll(run);
+        return result;
+    }
+
+    // merges each run of consecutive fusable transformers into one FusedTransformer, keeping the configured order
+    public static List<Transformer> fuse(List<Transformer> transformers) {
+        List<Transformer> result = new ArrayList<>();
+        List<Transformer> run = new ArrayList<>();
+        for (Transformer t : transformers) {
+            if (t.isFusable()) {
+                run.add(t);
+                continue;
+            }
+            flushRun(run, result);
+            result.add(t);
+        }
+        flushRun(run, result);
+        return result;
+    }
+
+    private static void flushRun(List<Transformer> run, List<Transformer> result) {
+        if (run.size() > 1) result.add(new FusedTransformer(run));
+        else result.addAll(run);
+        run.clear();
+    }
+
     public Transformer get(String name) {
         for(Transformer t : transformers) {
             if(t.getName().equalsIgnoreCase(name)) return t;
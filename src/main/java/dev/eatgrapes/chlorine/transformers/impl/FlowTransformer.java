@@ -1,10 +1,16 @@
 package dev.eatgrapes.chlorine.transformers.impl;
 
+import dev.eatgrapes.chlorine.transformers.ClassContext;
 import dev.eatgrapes.chlorine.transformers.Transformer;
 import dev.eatgrapes.chlorine.utils.AsmUtils;
+import dev.eatgrapes.chlorine.utils.ControlFlowGraph;
+import dev.eatgrapes.chlorine.utils.HotnessProfile;
+import dev.eatgrapes.chlorine.utils.KeepRules;
+import dev.eatgrapes.chlorine.utils.SizeBudget;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.Type;
 import org.objectweb.asm.tree.*;
+import org.objectweb.asm.tree.analysis.AnalyzerException;
 
 import java.util.*;
 
@@ -15,23 +21,121 @@ public class FlowTransformer extends Transformer {
     private static final int MAX_JUNK_CASES = 3;
     private static final int MIN_DISPATCH_BUDGET = 8;
     private static final int MAX_DISPATCH_BUDGET = 14;
-
-    private final Random random = new Random();
+    // stages, bridge, exit pivot, real case and gate; the junk cases come on top
+    private static final int DISPATCH_KEY_COUNT = 7;
+
+    // stages leave through opaque predicates instead of thrown exceptions, and the mix seed is a constant instead
+    // of System.nanoTime, so a flattened method costs a few integer operations per dispatch rather than three
+    // exception constructions per call
+    private boolean exceptionFree;
+    // dispatch with a tableswitch on a bijection of the state instead of a lookupswitch on the sparse keys, so the
+    // dispatcher compiles to a jump table rather than a binary search
+    private boolean tableDispatch;
+    // jumps between the method's own blocks go through the dispatcher as well, except inside innermost loops, whose
+    // bodies and back edges are left as they are so the JIT still sees a plain counted loop
+    private boolean regionFlattening;
 
     @Override
     public String getName() { return "FlowObfuscation"; }
 
+    public boolean isExceptionFree() {
+        return exceptionFree;
+    }
+
+    public void setExceptionFree(boolean exceptionFree) {
+        this.exceptionFree = exceptionFree;
+    }
+
+    public boolean isTableDispatch() {
+        return tableDispatch;
+    }
+
+    public void setTableDispatch(boolean tableDispatch) {
+        this.tableDispatch = tableDispatch;
+    }
+
+    public boolean isRegionFlattening() {
+        return regionFlattening;
+    }
+
+    public void setRegionFlattening(boolean regionFlattening) {
+        this.regionFlattening = regionFlattening;
+    }
+
+    @Override
+    public String getSettings() {
+        List<String> settings = new ArrayList<>();
+        if (exceptionFree) settings.add("exception-free");
+        if (tableDispatch) settings.add("table-dispatch");
+        if (regionFlattening) settings.add("regions");
+        return String.join(",", settings);
+    }
+
     @Override
-    public void transform(Map<String, ClassNode> classes, Map<String, String> manifest, Set<String> keeps) {
-        for (ClassNode cn : classes.values()) {
-            if (shouldKeep(cn.name, keeps)) continue;
-            if (AsmUtils.isInterface(cn) || AsmUtils.isModuleInfo(cn)) continue;
-
-            for (MethodNode mn : cn.methods) {
-                if (!shouldTransformMethod(mn)) continue;
-                if (!shouldApplyByMethodSize(mn)) continue;
-                applyFlattening(mn);
+    public Transformer newInstance() {
+        FlowTransformer copy = (FlowTransformer) super.newInstance();
+        copy.setExceptionFree(exceptionFree);
+        copy.setTableDispatch(tableDispatch);
+        copy.setRegionFlattening(regionFlattening);
+        return copy;
+    }
+
+    @Override
+    public boolean isClassLocal() {
+        return true;
+    }
+
+    @Override
+    public boolean preservesConstantPool() {
+        return true;
+    }
+
+    @Override
+    public void transform(Map<String, ClassNode> classes, Map<String, String> manifest, KeepRules keeps) {
+        transformEachClass(classes, keeps);
+    }
+
+    @Override
+    public void transformClass(ClassContext context) {
+        ClassNode cn = context.getClassNode();
+        if (AsmUtils.isInterface(cn) || AsmUtils.isModuleInfo(cn)) return;
+
+        SplittableRandom random = context.getRandom();
+        SizeBudget budget = getSizeBudget();
+        HotnessProfile profile = getProfile();
+        for (MethodNode mn : cn.methods) {
+            if (!shouldTransformMethod(mn)) continue;
+            // warm methods are flattened with the cheap stages and in one piece, hot ones not at all
+            HotnessProfile.Intensity intensity = profile.getIntensity(cn.name, mn);
+            if (intensity == HotnessProfile.Intensity.NONE) continue;
+            boolean light = intensity == HotnessProfile.Intensity.LIGHT;
+            if (!shouldApplyByMethodSize(random, mn)) continue;
+            SizeBudget.Method size = budget.track(cn.name, mn);
+            AbstractInsnNode first = mn.instructions.getFirst();
+            AbstractInsnNode last = mn.instructions.getLast();
+            int tryCatchCount = mn.tryCatchBlocks.size();
+            int maxLocals = mn.maxLocals;
+
+            RegionPlan regions = regionFlattening && !light ? planRegions(cn.name, mn) : null;
+            applyFlattening(random, mn, regions, exceptionFree || light);
+            if (!size.fits(SizeBudget.estimate(mn.instructions) - size.getSize())) {
+                if (regions != null) regions.undo(mn.instructions);
+                // the real case still holds the original instructions in order; take them back out
+                InsnList original = new InsnList();
+                for (AbstractInsnNode insn = first; ; ) {
+                    AbstractInsnNode next = insn.getNext();
+                    mn.instructions.remove(insn);
+                    original.add(insn);
+                    if (insn == last) break;
+                    insn = next;
+                }
+                mn.instructions = original;
+                mn.tryCatchBlocks.subList(tryCatchCount, mn.tryCatchBlocks.size()).clear();
+                mn.maxLocals = maxLocals;
+                budget.cap(cn.name, mn, getName());
+                continue;
             }
+            context.markModified(mn);
         }
     }
 
@@ -51,7 +155,7 @@ public class FlowTransformer extends Transformer {
         return true;
     }
 
-    private boolean shouldApplyByMethodSize(MethodNode mn) {
+    private boolean shouldApplyByMethodSize(SplittableRandom random, MethodNode mn) {
         int size = mn.instructions.size();
         if (size <= 60) return true;
         if (size <= 140) return random.nextInt(100) < 90;
@@ -59,7 +163,7 @@ public class FlowTransformer extends Transformer {
         return random.nextInt(100) < 45;
     }
 
-    private void applyFlattening(MethodNode mn) {
+    private void applyFlattening(SplittableRandom random, MethodNode mn, RegionPlan regions, boolean exceptionFree) {
         InsnList original = new InsnList();
         original.add(mn.instructions);
 
@@ -74,13 +178,15 @@ public class FlowTransformer extends Transformer {
         List<AbstractInsnNode> snippetPool = collectSnippetPool(original, stableLoadSlots);
 
         Set<Integer> usedKeys = new HashSet<>();
-        int keyStage0 = nextKey(usedKeys);
-        int keyStage1 = nextKey(usedKeys);
-        int keyStage2 = nextKey(usedKeys);
-        int keyBridge = nextKey(usedKeys);
-        int keyExit = nextKey(usedKeys);
-        int keyReal = nextKey(usedKeys);
-        int keyGate = nextKey(usedKeys);
+        int keyCapacity = DISPATCH_KEY_COUNT + MAX_JUNK_CASES + (regions == null ? 0 : regions.targets.size());
+        DenseKeys denseKeys = tableDispatch ? new DenseKeys(random, keyCapacity) : null;
+        int keyStage0 = nextKey(random, usedKeys, denseKeys);
+        int keyStage1 = nextKey(random, usedKeys, denseKeys);
+        int keyStage2 = nextKey(random, usedKeys, denseKeys);
+        int keyBridge = nextKey(random, usedKeys, denseKeys);
+        int keyExit = nextKey(random, usedKeys, denseKeys);
+        int keyReal = nextKey(random, usedKeys, denseKeys);
+        int keyGate = nextKey(random, usedKeys, denseKeys);
         int gateResumeMask = random.nextInt();
         int gatePredicateMask = (1 << (2 + random.nextInt(3))) - 1;
         Type returnType = Type.getReturnType(mn.desc);
@@ -89,11 +195,12 @@ public class FlowTransformer extends Transformer {
         List<Integer> junkKeys = new ArrayList<>();
         List<LabelNode> junkLabels = new ArrayList<>();
         for (int i = 0; i < junkCaseCount; i++) {
-            junkKeys.add(nextKey(usedKeys));
+            junkKeys.add(nextKey(random, usedKeys, denseKeys));
             junkLabels.add(new LabelNode());
         }
 
         LabelNode loopHead = new LabelNode();
+        LabelNode directDispatch = new LabelNode();
         LabelNode defaultLabel = new LabelNode();
 
         LabelNode caseStage0 = new LabelNode();
@@ -104,7 +211,7 @@ public class FlowTransformer extends Transformer {
         LabelNode caseReal = new LabelNode();
         LabelNode caseGate = new LabelNode();
 
-        List<ExceptionPattern> patterns = pickExceptionPatterns(EXCEPTION_STAGE_COUNT);
+        List<ExceptionPattern> patterns = pickExceptionPatterns(random, EXCEPTION_STAGE_COUNT);
 
         LabelNode[] tryStarts = new LabelNode[EXCEPTION_STAGE_COUNT];
         LabelNode[] tryEnds = new LabelNode[EXCEPTION_STAGE_COUNT];
@@ -113,6 +220,7 @@ public class FlowTransformer extends Transformer {
             tryStarts[i] = new LabelNode();
             tryEnds[i] = new LabelNode();
             handlers[i] = new LabelNode();
+            if (exceptionFree) continue;
             mn.tryCatchBlocks.add(new TryCatchBlockNode(
                     tryStarts[i],
                     tryEnds[i],
@@ -132,11 +240,20 @@ public class FlowTransformer extends Transformer {
         for (int i = 0; i < junkCaseCount; i++) {
             dispatchCases.put(junkKeys.get(i), junkLabels.get(i));
         }
+        if (regions != null) {
+            // the stubs follow the original instructions, which never fall off their end
+            original.add(linkRegions(random, regions, original, stateVar, directDispatch, usedKeys, denseKeys, dispatchCases));
+            emitLocalDefaults(mn.instructions, regions.localTypes);
+        }
 
         pushInt(mn.instructions, keyStage0);
         mn.instructions.add(new VarInsnNode(Opcodes.ISTORE, stateVar));
-        mn.instructions.add(new MethodInsnNode(Opcodes.INVOKESTATIC, "java/lang/System", "nanoTime", "()J", false));
-        mn.instructions.add(new InsnNode(Opcodes.L2I));
+        if (exceptionFree) {
+            pushInt(mn.instructions, random.nextInt());
+        } else {
+            mn.instructions.add(new MethodInsnNode(Opcodes.INVOKESTATIC, "java/lang/System", "nanoTime", "()J", false));
+            mn.instructions.add(new InsnNode(Opcodes.L2I));
+        }
         mn.instructions.add(new VarInsnNode(Opcodes.ISTORE, mixVar));
         pushInt(mn.instructions, random.nextInt());
         mn.instructions.add(new VarInsnNode(Opcodes.ISTORE, sinkVar));
@@ -193,7 +310,6 @@ public class FlowTransformer extends Transformer {
         mn.instructions.add(new VarInsnNode(Opcodes.ISTORE, budgetVar));
 
         mn.instructions.add(dispatchReady);
-        LabelNode directDispatch = new LabelNode();
         mn.instructions.add(new VarInsnNode(Opcodes.ILOAD, budgetVar));
         mn.instructions.add(new InsnNode(Opcodes.ICONST_1));
         mn.instructions.add(new JumpInsnNode(Opcodes.IF_ICMPLE, directDispatch));
@@ -214,13 +330,19 @@ public class FlowTransformer extends Transformer {
         mn.instructions.add(directDispatch);
         mn.instructions.add(new VarInsnNode(Opcodes.ILOAD, stateVar));
 
-        appendLookupSwitch(mn.instructions, dispatchCases, defaultLabel);
+        if (denseKeys != null) {
+            appendTableSwitch(mn.instructions, denseKeys, dispatchCases, defaultLabel);
+        } else {
+            appendLookupSwitch(mn.instructions, dispatchCases, defaultLabel);
+        }
 
         emitExceptionStage(
+                random,
                 mn.instructions,
                 caseStage0,
                 tryStarts[0],
                 tryEnds[0],
+                handlers[0],
                 patterns.get(0),
                 stateVar,
                 mixVar,
@@ -228,13 +350,16 @@ public class FlowTransformer extends Transformer {
                 keyStage0,
                 keyStage1,
                 loopHead,
-                snippetPool
+                snippetPool,
+                exceptionFree
         );
         emitExceptionStage(
+                random,
                 mn.instructions,
                 caseStage1,
                 tryStarts[1],
                 tryEnds[1],
+                handlers[1],
                 patterns.get(1),
                 stateVar,
                 mixVar,
@@ -242,13 +367,16 @@ public class FlowTransformer extends Transformer {
                 keyStage1,
                 keyStage2,
                 loopHead,
-                snippetPool
+                snippetPool,
+                exceptionFree
         );
         emitExceptionStage(
+                random,
                 mn.instructions,
                 caseStage2,
                 tryStarts[2],
                 tryEnds[2],
+                handlers[2],
                 patterns.get(2),
                 stateVar,
                 mixVar,
@@ -256,15 +384,17 @@ public class FlowTransformer extends Transformer {
                 keyStage2,
                 keyBridge,
                 loopHead,
-                snippetPool
+                snippetPool,
+                exceptionFree
         );
 
         int realPlacement = random.nextInt(3);
         if (realPlacement == 0) {
-            emitRealCase(mn.instructions, caseReal, original, mixVar, sinkVar, snippetPool);
+            emitRealCase(random, mn.instructions, caseReal, original, mixVar, sinkVar, snippetPool);
         }
 
         emitExceptionHandler(
+                random,
                 mn.instructions,
                 handlers[0],
                 stateVar,
@@ -274,9 +404,11 @@ public class FlowTransformer extends Transformer {
                 keyStage1,
                 junkKeys.isEmpty() ? null : junkKeys.get(0),
                 loopHead,
-                snippetPool
+                snippetPool,
+                exceptionFree
         );
         emitExceptionHandler(
+                random,
                 mn.instructions,
                 handlers[1],
                 stateVar,
@@ -286,9 +418,11 @@ public class FlowTransformer extends Transformer {
                 keyStage2,
                 junkKeys.size() < 2 ? null : junkKeys.get(1),
                 loopHead,
-                snippetPool
+                snippetPool,
+                exceptionFree
         );
         emitExceptionHandler(
+                random,
                 mn.instructions,
                 handlers[2],
                 stateVar,
@@ -298,11 +432,12 @@ public class FlowTransformer extends Transformer {
                 keyBridge,
                 junkKeys.size() < 3 ? null : junkKeys.get(2),
                 loopHead,
-                snippetPool
+                snippetPool,
+                exceptionFree
         );
 
         if (realPlacement == 1) {
-            emitRealCase(mn.instructions, caseReal, original, mixVar, sinkVar, snippetPool);
+            emitRealCase(random, mn.instructions, caseReal, original, mixVar, sinkVar, snippetPool);
         }
 
         for (int i = 0; i < junkCaseCount; i++) {
@@ -311,6 +446,7 @@ public class FlowTransformer extends Transformer {
             int targetB = (i == junkCaseCount - 1) ? keyBridge : junkKeys.get(i + 1);
 
             emitJunkCase(
+                    random,
                     mn.instructions,
                     junkLabels.get(i),
                     stateVar,
@@ -327,7 +463,7 @@ public class FlowTransformer extends Transformer {
         }
 
         mn.instructions.add(caseGate);
-        emitCasePayload(mn.instructions, mixVar, sinkVar, snippetPool, true);
+        emitCasePayload(random, mn.instructions, mixVar, sinkVar, snippetPool, true);
         mn.instructions.add(new VarInsnNode(Opcodes.ILOAD, gateResumeVar));
         pushInt(mn.instructions, gateResumeMask);
         mn.instructions.add(new InsnNode(Opcodes.IXOR));
@@ -335,33 +471,35 @@ public class FlowTransformer extends Transformer {
         mn.instructions.add(new JumpInsnNode(Opcodes.GOTO, loopHead));
 
         mn.instructions.add(caseBridge);
-        emitCasePayload(mn.instructions, mixVar, sinkVar, snippetPool, true);
-        emitStateTransition(mn.instructions, stateVar, keyBridge, keyReal);
+        emitCasePayload(random, mn.instructions, mixVar, sinkVar, snippetPool, true);
+        emitStateTransition(random, mn.instructions, stateVar, keyBridge, keyReal);
         mn.instructions.add(new JumpInsnNode(Opcodes.GOTO, loopHead));
 
         mn.instructions.add(caseExitPivot);
-        emitCasePayload(mn.instructions, mixVar, sinkVar, snippetPool, true);
+        emitCasePayload(random, mn.instructions, mixVar, sinkVar, snippetPool, true);
         pushInt(mn.instructions, MIN_DISPATCH_BUDGET + random.nextInt(MAX_DISPATCH_BUDGET - MIN_DISPATCH_BUDGET + 1));
         mn.instructions.add(new VarInsnNode(Opcodes.ISTORE, budgetVar));
-        emitStateTransition(mn.instructions, stateVar, keyExit, keyReal);
+        emitStateTransition(random, mn.instructions, stateVar, keyExit, keyReal);
         mn.instructions.add(new JumpInsnNode(Opcodes.GOTO, loopHead));
 
         if (realPlacement == 2) {
-            emitRealCase(mn.instructions, caseReal, original, mixVar, sinkVar, snippetPool);
+            emitRealCase(random, mn.instructions, caseReal, original, mixVar, sinkVar, snippetPool);
         }
 
         mn.instructions.add(defaultLabel);
-        emitCasePayload(mn.instructions, mixVar, sinkVar, snippetPool, true);
+        emitCasePayload(random, mn.instructions, mixVar, sinkVar, snippetPool, true);
         pushInt(mn.instructions, keyStage0);
         mn.instructions.add(new VarInsnNode(Opcodes.ISTORE, stateVar));
         mn.instructions.add(new JumpInsnNode(Opcodes.GOTO, loopHead));
     }
 
     private void emitExceptionStage(
+            SplittableRandom random,
             InsnList out,
             LabelNode caseLabel,
             LabelNode tryStart,
             LabelNode tryEnd,
+            LabelNode handler,
             ExceptionPattern pattern,
             int stateVar,
             int mixVar,
@@ -369,18 +507,25 @@ public class FlowTransformer extends Transformer {
             int fromKey,
             int fallbackKey,
             LabelNode loopHead,
-            List<AbstractInsnNode> snippetPool
+            List<AbstractInsnNode> snippetPool,
+            boolean exceptionFree
     ) {
         out.add(caseLabel);
-        emitCasePayload(out, mixVar, sinkVar, snippetPool, true);
+        emitCasePayload(random, out, mixVar, sinkVar, snippetPool, true);
         out.add(tryStart);
-        emitExceptionPattern(out, pattern);
+        if (exceptionFree) {
+            // the handler is entered on a predicate that always holds, the fallback stays as dead code
+            emitOpaqueJump(random, out, random.nextBoolean() ? mixVar : sinkVar, handler);
+        } else {
+            emitExceptionPattern(random, out, pattern);
+        }
         out.add(tryEnd);
-        emitStateTransition(out, stateVar, fromKey, fallbackKey);
+        emitStateTransition(random, out, stateVar, fromKey, fallbackKey);
         out.add(new JumpInsnNode(Opcodes.GOTO, loopHead));
     }
 
     private void emitExceptionHandler(
+            SplittableRandom random,
             InsnList out,
             LabelNode handler,
             int stateVar,
@@ -390,11 +535,12 @@ public class FlowTransformer extends Transformer {
             int targetKey,
             Integer alternateKey,
             LabelNode loopHead,
-            List<AbstractInsnNode> snippetPool
+            List<AbstractInsnNode> snippetPool,
+            boolean exceptionFree
     ) {
         out.add(handler);
-        out.add(new InsnNode(Opcodes.POP));
-        emitCasePayload(out, mixVar, sinkVar, snippetPool, true);
+        if (!exceptionFree) out.add(new InsnNode(Opcodes.POP));
+        emitCasePayload(random, out, mixVar, sinkVar, snippetPool, true);
 
         if (alternateKey != null) {
             LabelNode primaryPath = new LabelNode();
@@ -404,16 +550,17 @@ public class FlowTransformer extends Transformer {
             pushInt(out, 1 + random.nextInt(7));
             out.add(new InsnNode(Opcodes.IAND));
             out.add(new JumpInsnNode(Opcodes.IFNE, primaryPath));
-            emitStateTransition(out, stateVar, fromKey, alternateKey);
+            emitStateTransition(random, out, stateVar, fromKey, alternateKey);
             out.add(new JumpInsnNode(Opcodes.GOTO, loopHead));
             out.add(primaryPath);
         }
 
-        emitStateTransition(out, stateVar, fromKey, targetKey);
+        emitStateTransition(random, out, stateVar, fromKey, targetKey);
         out.add(new JumpInsnNode(Opcodes.GOTO, loopHead));
     }
 
     private void emitJunkCase(
+            SplittableRandom random,
             InsnList out,
             LabelNode caseLabel,
             int stateVar,
@@ -428,7 +575,7 @@ public class FlowTransformer extends Transformer {
             List<AbstractInsnNode> snippetPool
     ) {
         out.add(caseLabel);
-        emitCasePayload(out, mixVar, sinkVar, snippetPool, true);
+        emitCasePayload(random, out, mixVar, sinkVar, snippetPool, true);
 
         emitFakeReturnNoise(out, returnType, budgetVar, mixVar, sinkVar);
 
@@ -439,15 +586,16 @@ public class FlowTransformer extends Transformer {
         pushInt(out, 1 + random.nextInt(5));
         out.add(new InsnNode(Opcodes.IAND));
         out.add(new JumpInsnNode(Opcodes.IFNE, branchB));
-        emitStateTransition(out, stateVar, fromKey, targetA);
+        emitStateTransition(random, out, stateVar, fromKey, targetA);
         out.add(new JumpInsnNode(Opcodes.GOTO, loopHead));
 
         out.add(branchB);
-        emitStateTransition(out, stateVar, fromKey, targetB);
+        emitStateTransition(random, out, stateVar, fromKey, targetB);
         out.add(new JumpInsnNode(Opcodes.GOTO, loopHead));
     }
 
     private void emitRealCase(
+            SplittableRandom random,
             InsnList out,
             LabelNode caseReal,
             InsnList original,
@@ -456,7 +604,7 @@ public class FlowTransformer extends Transformer {
             List<AbstractInsnNode> snippetPool
     ) {
         out.add(caseReal);
-        emitCasePayload(out, mixVar, sinkVar, snippetPool, false);
+        emitCasePayload(random, out, mixVar, sinkVar, snippetPool, false);
         out.add(original);
         out.add(new InsnNode(Opcodes.ACONST_NULL));
         out.add(new InsnNode(Opcodes.ATHROW));
@@ -515,10 +663,10 @@ public class FlowTransformer extends Transformer {
         out.add(done);
     }
 
-    private void emitCasePayload(InsnList out, int mixVar, int sinkVar, List<AbstractInsnNode> snippetPool, boolean allowSnippet) {
+    private void emitCasePayload(SplittableRandom random, InsnList out, int mixVar, int sinkVar, List<AbstractInsnNode> snippetPool, boolean allowSnippet) {
         if (allowSnippet && !snippetPool.isEmpty()) {
             int snippetCount = 1 + random.nextInt(Math.min(2, snippetPool.size()));
-            emitSnippetPayload(out, snippetPool, snippetCount);
+            emitSnippetPayload(random, out, snippetPool, snippetCount);
         }
 
         switch (random.nextInt(4)) {
@@ -540,7 +688,7 @@ public class FlowTransformer extends Transformer {
                 out.add(new VarInsnNode(Opcodes.ILOAD, mixVar));
                 out.add(new InsnNode(Opcodes.IXOR));
                 out.add(new VarInsnNode(Opcodes.ISTORE, sinkVar));
-                out.add(new IincInsnNode(mixVar, randomSignedSmall()));
+                out.add(new IincInsnNode(mixVar, randomSignedSmall(random)));
                 break;
             case 2:
                 out.add(new VarInsnNode(Opcodes.ILOAD, mixVar));
@@ -571,7 +719,7 @@ public class FlowTransformer extends Transformer {
         }
     }
 
-    private void emitSnippetPayload(InsnList out, List<AbstractInsnNode> snippetPool, int count) {
+    private void emitSnippetPayload(SplittableRandom random, InsnList out, List<AbstractInsnNode> snippetPool, int count) {
         for (int i = 0; i < count; i++) {
             AbstractInsnNode source = snippetPool.get(random.nextInt(snippetPool.size()));
             AbstractInsnNode cloned = source.clone(new HashMap<>());
@@ -644,6 +792,160 @@ public class FlowTransformer extends Transformer {
         return false;
     }
 
+    // null when the method cannot be split safely, which leaves it to the classic mode
+    private RegionPlan planRegions(String owner, MethodNode mn) {
+        ControlFlowGraph cfg;
+        try {
+            cfg = ControlFlowGraph.build(owner, mn);
+        } catch (AnalyzerException e) {
+            return null;
+        }
+        // a block reached from the dispatcher sees every local the dispatcher has seen, so each slot needs a single
+        // type the prologue can initialize it with
+        Optional<Map<Integer, Type>> localTypes = cfg.getLocalTypes();
+        if (localTypes.isEmpty()) return null;
+
+        Set<ControlFlowGraph.Block> handlers = new HashSet<>();
+        for (TryCatchBlockNode tcb : mn.tryCatchBlocks) {
+            handlers.add(cfg.getBlock(tcb.handler));
+        }
+        Map<ControlFlowGraph.Block, ControlFlowGraph.Loop> innermostLoops = new HashMap<>();
+        for (ControlFlowGraph.Loop loop : cfg.getLoops()) {
+            if (!loop.isInnermost()) continue;
+            for (ControlFlowGraph.Block block : loop.getBody()) {
+                innermostLoops.put(block, loop);
+            }
+        }
+
+        RegionPlan plan = new RegionPlan();
+        Map<ControlFlowGraph.Block, RegionTarget> targets = new LinkedHashMap<>();
+        List<ControlFlowGraph.Block> blocks = cfg.getBlocks();
+        for (int i = 0; i < blocks.size(); i++) {
+            ControlFlowGraph.Block block = blocks.get(i);
+            if (!block.isReachable()) continue;
+            AbstractInsnNode last = block.getLast();
+            if (last instanceof JumpInsnNode jump) {
+                ControlFlowGraph.Block target = cfg.getBlock(jump.label);
+                if (canDispatch(block, target, handlers, innermostLoops)) {
+                    targets.computeIfAbsent(target, RegionTarget::new).jumps.add(jump);
+                }
+            }
+            if (i + 1 < blocks.size() && fallsThrough(last)) {
+                ControlFlowGraph.Block target = blocks.get(i + 1);
+                if (canDispatch(block, target, handlers, innermostLoops)) {
+                    targets.computeIfAbsent(target, RegionTarget::new).fallthrough = true;
+                }
+            }
+        }
+        if (targets.isEmpty()) return null;
+
+        int parameterSize = Type.getArgumentsAndReturnSizes(mn.desc) >> 2;
+        if (AsmUtils.isStatic(mn)) parameterSize--;
+        for (Map.Entry<Integer, Type> entry : localTypes.get().entrySet()) {
+            if (entry.getKey() >= parameterSize) plan.localTypes.put(entry.getKey(), entry.getValue());
+        }
+        plan.targets.addAll(targets.values());
+        return plan;
+    }
+
+    private boolean canDispatch(
+            ControlFlowGraph.Block from,
+            ControlFlowGraph.Block to,
+            Set<ControlFlowGraph.Block> handlers,
+            Map<ControlFlowGraph.Block, ControlFlowGraph.Loop> innermostLoops
+    ) {
+        if (!to.isReachable() || to.getEntryStackSize() != 0 || handlers.contains(to)) return false;
+        ControlFlowGraph.Loop loop = innermostLoops.get(from);
+        return loop == null || loop != innermostLoops.get(to);
+    }
+
+    private boolean fallsThrough(AbstractInsnNode insn) {
+        int opcode = insn.getOpcode();
+        if (opcode >= Opcodes.IRETURN && opcode <= Opcodes.RETURN) return false;
+        return opcode != Opcodes.GOTO && opcode != Opcodes.ATHROW
+                && opcode != Opcodes.TABLESWITCH && opcode != Opcodes.LOOKUPSWITCH;
+    }
+
+    // gives every target block a dispatch key and sends its jumps and fallthroughs to a stub that sets the state and
+    // enters the switch directly, past the budget and the gate; returns the stubs
+    private InsnList linkRegions(
+            SplittableRandom random,
+            RegionPlan regions,
+            InsnList original,
+            int stateVar,
+            LabelNode directDispatch,
+            Set<Integer> usedKeys,
+            DenseKeys denseKeys,
+            Map<Integer, LabelNode> dispatchCases
+    ) {
+        InsnList stubs = new InsnList();
+        for (RegionTarget target : regions.targets) {
+            LabelNode label;
+            if (target.first instanceof LabelNode firstLabel) {
+                label = firstLabel;
+            } else {
+                label = new LabelNode();
+                original.insertBefore(target.first, label);
+                regions.inserted.add(label);
+            }
+
+            int key = nextKey(random, usedKeys, denseKeys);
+            int mask = random.nextInt();
+            dispatchCases.put(key, label);
+            LabelNode stub = new LabelNode();
+            stubs.add(stub);
+            pushInt(stubs, key ^ mask);
+            pushInt(stubs, mask);
+            stubs.add(new InsnNode(Opcodes.IXOR));
+            stubs.add(new VarInsnNode(Opcodes.ISTORE, stateVar));
+            stubs.add(new JumpInsnNode(Opcodes.GOTO, directDispatch));
+
+            for (JumpInsnNode jump : target.jumps) {
+                regions.retargeted.put(jump, jump.label);
+                jump.label = stub;
+            }
+            if (target.fallthrough) {
+                JumpInsnNode jump = new JumpInsnNode(Opcodes.GOTO, stub);
+                original.insertBefore(label, jump);
+                regions.inserted.add(jump);
+            }
+        }
+        return stubs;
+    }
+
+    private void emitLocalDefaults(InsnList out, Map<Integer, Type> localTypes) {
+        for (Map.Entry<Integer, Type> entry : localTypes.entrySet()) {
+            Type type = entry.getValue();
+            int slot = entry.getKey();
+            switch (type == null ? Type.OBJECT : type.getSort()) {
+                case Type.BOOLEAN:
+                case Type.BYTE:
+                case Type.CHAR:
+                case Type.SHORT:
+                case Type.INT:
+                    out.add(new InsnNode(Opcodes.ICONST_0));
+                    out.add(new VarInsnNode(Opcodes.ISTORE, slot));
+                    break;
+                case Type.FLOAT:
+                    out.add(new InsnNode(Opcodes.FCONST_0));
+                    out.add(new VarInsnNode(Opcodes.FSTORE, slot));
+                    break;
+                case Type.LONG:
+                    out.add(new InsnNode(Opcodes.LCONST_0));
+                    out.add(new VarInsnNode(Opcodes.LSTORE, slot));
+                    break;
+                case Type.DOUBLE:
+                    out.add(new InsnNode(Opcodes.DCONST_0));
+                    out.add(new VarInsnNode(Opcodes.DSTORE, slot));
+                    break;
+                default:
+                    out.add(new InsnNode(Opcodes.ACONST_NULL));
+                    out.add(new VarInsnNode(Opcodes.ASTORE, slot));
+                    break;
+            }
+        }
+    }
+
     private Set<Integer> collectStableLoadSlots(MethodNode mn) {
         Set<Integer> stableLoadSlots = new HashSet<>();
         int localIndex = 0;
@@ -661,7 +963,7 @@ public class FlowTransformer extends Transformer {
         return stableLoadSlots;
     }
 
-    private void emitExceptionPattern(InsnList out, ExceptionPattern pattern) {
+    private void emitExceptionPattern(SplittableRandom random, InsnList out, ExceptionPattern pattern) {
         int variant = random.nextInt(3);
 
         switch (pattern.id) {
@@ -672,7 +974,7 @@ public class FlowTransformer extends Transformer {
                     out.add(new InsnNode(Opcodes.IDIV));
                     out.add(new InsnNode(Opcodes.POP));
                 } else if (variant == 1) {
-                    pushInt(out, randomSignedSmall());
+                    pushInt(out, randomSignedSmall(random));
                     out.add(new InsnNode(Opcodes.ICONST_0));
                     out.add(new InsnNode(Opcodes.IREM));
                     out.add(new InsnNode(Opcodes.POP));
@@ -831,7 +1133,48 @@ public class FlowTransformer extends Transformer {
         }
     }
 
-    private List<ExceptionPattern> pickExceptionPatterns(int count) {
+    // jumps to target on a predicate that holds for every value of var
+    private void emitOpaqueJump(SplittableRandom random, InsnList out, int var, LabelNode target) {
+        switch (random.nextInt(4)) {
+            case 0:
+                // x * (x + 1) is even
+                out.add(new VarInsnNode(Opcodes.ILOAD, var));
+                out.add(new InsnNode(Opcodes.DUP));
+                out.add(new InsnNode(Opcodes.ICONST_1));
+                out.add(new InsnNode(Opcodes.IADD));
+                out.add(new InsnNode(Opcodes.IMUL));
+                out.add(new InsnNode(Opcodes.ICONST_1));
+                out.add(new InsnNode(Opcodes.IAND));
+                out.add(new JumpInsnNode(Opcodes.IFEQ, target));
+                break;
+            case 1:
+                // a square is never 2 mod 4
+                out.add(new VarInsnNode(Opcodes.ILOAD, var));
+                out.add(new InsnNode(Opcodes.DUP));
+                out.add(new InsnNode(Opcodes.IMUL));
+                out.add(new InsnNode(Opcodes.ICONST_3));
+                out.add(new InsnNode(Opcodes.IAND));
+                out.add(new InsnNode(Opcodes.ICONST_2));
+                out.add(new JumpInsnNode(Opcodes.IF_ICMPNE, target));
+                break;
+            case 2:
+                out.add(new VarInsnNode(Opcodes.ILOAD, var));
+                pushInt(out, 1 << random.nextInt(31));
+                out.add(new InsnNode(Opcodes.IOR));
+                out.add(new JumpInsnNode(Opcodes.IFNE, target));
+                break;
+            default:
+                out.add(new VarInsnNode(Opcodes.ILOAD, var));
+                pushInt(out, 1 + random.nextInt(30));
+                out.add(new InsnNode(Opcodes.ISHL));
+                out.add(new InsnNode(Opcodes.ICONST_1));
+                out.add(new InsnNode(Opcodes.IAND));
+                out.add(new JumpInsnNode(Opcodes.IFEQ, target));
+                break;
+        }
+    }
+
+    private List<ExceptionPattern> pickExceptionPatterns(SplittableRandom random, int count) {
         List<ExceptionPattern> available = new ArrayList<>(Arrays.asList(
                 new ExceptionPattern(0, "java/lang/ArithmeticException"),
                 new ExceptionPattern(1, "java/lang/NullPointerException"),
@@ -842,11 +1185,13 @@ public class FlowTransformer extends Transformer {
                 new ExceptionPattern(6, "java/lang/NumberFormatException"),
                 new ExceptionPattern(7, "java/lang/IllegalStateException")
         ));
-        Collections.shuffle(available, random);
+        for (int i = available.size() - 1; i > 0; i--) {
+            Collections.swap(available, i, random.nextInt(i + 1));
+        }
         return new ArrayList<>(available.subList(0, count));
     }
 
-    private void emitStateTransition(InsnList out, int stateVar, int fromKey, int toKey) {
+    private void emitStateTransition(SplittableRandom random, InsnList out, int stateVar, int fromKey, int toKey) {
         switch (random.nextInt(5)) {
             case 0:
                 pushInt(out, toKey);
@@ -901,7 +1246,29 @@ public class FlowTransformer extends Transformer {
         out.add(new LookupSwitchInsnNode(defaultLabel, keys, labels));
     }
 
-    private int nextKey(Set<Integer> used) {
+    // expects the state on the stack; the state is mapped back to the index its key was built from
+    private void appendTableSwitch(InsnList out, DenseKeys denseKeys, Map<Integer, LabelNode> dispatchCases, LabelNode defaultLabel) {
+        LabelNode[] labels = new LabelNode[denseKeys.getMaxIndex() + 1];
+        Arrays.fill(labels, defaultLabel);
+        for (Map.Entry<Integer, LabelNode> entry : dispatchCases.entrySet()) {
+            labels[denseKeys.indexOf(entry.getKey())] = entry.getValue();
+        }
+
+        pushInt(out, denseKeys.xor);
+        out.add(new InsnNode(Opcodes.IXOR));
+        pushInt(out, denseKeys.multiplier);
+        out.add(new InsnNode(Opcodes.IMUL));
+        pushInt(out, denseKeys.shift);
+        out.add(new InsnNode(Opcodes.IUSHR));
+        out.add(new TableSwitchInsnNode(0, labels.length - 1, defaultLabel, labels));
+    }
+
+    private int nextKey(SplittableRandom random, Set<Integer> used, DenseKeys denseKeys) {
+        if (denseKeys != null) {
+            int key = denseKeys.next(random);
+            used.add(key);
+            return key;
+        }
         int key;
         do {
             key = random.nextInt();
@@ -909,7 +1276,7 @@ public class FlowTransformer extends Transformer {
         return key;
     }
 
-    private int randomSignedSmall() {
+    private int randomSignedSmall(SplittableRandom random) {
         int value;
         do {
             value = random.nextInt(9) - 4;
@@ -931,6 +1298,86 @@ public class FlowTransformer extends Transformer {
         }
     }
 
+    // Keys that look as random as nextKey's but satisfy ((key ^ xor) * multiplier) >>> shift == index for an index
+    // in 0..capacity-1: the index goes in the top bits, random bits below it, and the odd multiplier is inverted
+    // modulo 2^32. Indices are handed out in shuffled order, so the case layout says nothing about the stage order.
+    static class DenseKeys {
+        private final int xor;
+        private final int multiplier;
+        private final int inverse;
+        private final int shift;
+        private final int[] indices;
+        private int used;
+
+        DenseKeys(SplittableRandom random, int capacity) {
+            this.xor = random.nextInt();
+            this.multiplier = random.nextInt() | 1;
+            int inverse = multiplier;
+            for (int i = 0; i < 5; i++) {
+                inverse *= 2 - multiplier * inverse;
+            }
+            this.inverse = inverse;
+            this.shift = Integer.numberOfLeadingZeros(capacity - 1);
+            this.indices = new int[capacity];
+            for (int i = 0; i < capacity; i++) {
+                indices[i] = i;
+            }
+            for (int i = capacity - 1; i > 0; i--) {
+                int j = random.nextInt(i + 1);
+                int swap = indices[i];
+                indices[i] = indices[j];
+                indices[j] = swap;
+            }
+        }
+
+        int next(SplittableRandom random) {
+            int index = indices[used++];
+            int low = random.nextInt() & ((1 << shift) - 1);
+            return ((index << shift) | low) * inverse ^ xor;
+        }
+
+        int indexOf(int key) {
+            return ((key ^ xor) * multiplier) >>> shift;
+        }
+
+        private int getMaxIndex() {
+            int max = 0;
+            for (int i = 0; i < used; i++) {
+                max = Math.max(max, indices[i]);
+            }
+            return max;
+        }
+    }
+
+    // the blocks region mode dispatches to, and what it changed in the original instructions so a method that ends
+    // up over its size budget can be put back
+    private static class RegionPlan {
+        private final List<RegionTarget> targets = new ArrayList<>();
+        // non-parameter slots -> their single type, null for slots that only ever hold null
+        private final Map<Integer, Type> localTypes = new TreeMap<>();
+        private final List<AbstractInsnNode> inserted = new ArrayList<>();
+        private final Map<JumpInsnNode, LabelNode> retargeted = new LinkedHashMap<>();
+
+        private void undo(InsnList instructions) {
+            for (AbstractInsnNode insn : inserted) {
+                instructions.remove(insn);
+            }
+            for (Map.Entry<JumpInsnNode, LabelNode> entry : retargeted.entrySet()) {
+                entry.getKey().label = entry.getValue();
+            }
+        }
+    }
+
+    private static class RegionTarget {
+        private final AbstractInsnNode first;
+        private final List<JumpInsnNode> jumps = new ArrayList<>();
+        private boolean fallthrough;
+
+        private RegionTarget(ControlFlowGraph.Block block) {
+            this.first = block.getFirst();
+        }
+    }
+
     private static class ExceptionPattern {
         private final int id;
         private final String exceptionInternalName;
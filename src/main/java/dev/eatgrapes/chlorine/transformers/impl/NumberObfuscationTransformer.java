@@ -1,61 +1,107 @@
 package dev.eatgrapes.chlorine.transformers.impl;
 
+import dev.eatgrapes.chlorine.transformers.ClassContext;
+import dev.eatgrapes.chlorine.transformers.InsnRewriter;
 import dev.eatgrapes.chlorine.transformers.Transformer;
 import dev.eatgrapes.chlorine.utils.AsmUtils;
+import dev.eatgrapes.chlorine.utils.HotnessProfile;
+import dev.eatgrapes.chlorine.utils.KeepRules;
+import dev.eatgrapes.chlorine.utils.SizeBudget;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.tree.*;
 
 import java.util.*;
 
 public class NumberObfuscationTransformer extends Transformer {
-    private final Random random = new Random();
-
     @Override
     public String getName() {
         return "NumberObfuscation";
     }
 
     @Override
-    public void transform(Map<String, ClassNode> classes, Map<String, String> manifest, Set<String> keeps) {
-        for (ClassNode cn : classes.values()) {
-            if (shouldKeep(cn.name, keeps)) continue;
-            if (AsmUtils.isInterface(cn)) continue;
-            if (AsmUtils.isModuleInfo(cn)) continue;
-
-            for (MethodNode mn : cn.methods) {
-                ListIterator<AbstractInsnNode> it = mn.instructions.iterator();
-                while (it.hasNext()) {
-                    AbstractInsnNode insn = it.next();
-                    InsnList replacement = null;
-
-                    if (insn instanceof InsnNode) {
-                        replacement = handleInsn(insn.getOpcode());
-                    } else if (insn instanceof IntInsnNode) {
-                        replacement = handleIntInsn((IntInsnNode) insn);
-                    } else if (insn instanceof LdcInsnNode) {
-                        replacement = handleLdcInsn((LdcInsnNode) insn);
-                    }
+    public boolean isClassLocal() {
+        return true;
+    }
+
+    @Override
+    public void transform(Map<String, ClassNode> classes, Map<String, String> manifest, KeepRules keeps) {
+        transformEachClass(classes, keeps);
+    }
+
+    @Override
+    public boolean isFusable() {
+        return true;
+    }
+
+    @Override
+    public InsnRewriter createRewriter(ClassContext context) {
+        ClassNode cn = context.getClassNode();
+        if (AsmUtils.isInterface(cn)) return null;
+        if (AsmUtils.isModuleInfo(cn)) return null;
+
+        SplittableRandom random = context.getRandom();
+        SizeBudget budget = getSizeBudget();
+        HotnessProfile profile = getProfile();
+        return new InsnRewriter() {
+            private SizeBudget.Method size;
+            private boolean capped;
+            private int maxDepth;
+
+            // hot methods keep their constants, warm ones get single-step expressions
+            @Override
+            public boolean visitMethod(MethodNode mn) {
+                HotnessProfile.Intensity intensity = profile.getIntensity(cn.name, mn);
+                if (intensity == HotnessProfile.Intensity.NONE) return false;
+                maxDepth = intensity == HotnessProfile.Intensity.LIGHT ? 1 : 3;
+                size = budget.track(cn.name, mn);
+                capped = false;
+                return true;
+            }
 
-                    if (replacement != null) {
-                        mn.instructions.insertBefore(insn, replacement);
-                        it.remove();
+            // a depth-3 expression when the method has room for it, shallower ones when it does not
+            @Override
+            public InsnList rewrite(MethodNode mn, AbstractInsnNode insn) {
+                int removed = SizeBudget.estimate(insn);
+                for (int depth = maxDepth; depth > 0; depth--) {
+                    InsnList replacement = obfuscate(random, insn, depth);
+                    if (replacement == null) return null;
+                    int growth = SizeBudget.estimate(replacement) - removed;
+                    if (size.fits(growth)) {
+                        size.grow(growth);
+                        return replacement;
+                    }
+                    if (!capped) {
+                        budget.cap(cn.name, mn, getName());
+                        capped = true;
                     }
                 }
+                return null;
             }
+        };
+    }
+
+    private InsnList obfuscate(SplittableRandom random, AbstractInsnNode insn, int depth) {
+        if (insn instanceof InsnNode) {
+            return handleInsn(random, insn.getOpcode(), depth);
+        } else if (insn instanceof IntInsnNode) {
+            return handleIntInsn(random, (IntInsnNode) insn, depth);
+        } else if (insn instanceof LdcInsnNode) {
+            return handleLdcInsn(random, (LdcInsnNode) insn, depth);
         }
+        return null;
     }
 
-    private InsnList handleInsn(int opcode) {
+    private InsnList handleInsn(SplittableRandom random, int opcode, int depth) {
         switch (opcode) {
-            case Opcodes.ICONST_M1: return obfuscateInt(-1, 3);
-            case Opcodes.ICONST_0: return obfuscateInt(0, 3);
-            case Opcodes.ICONST_1: return obfuscateInt(1, 3);
-            case Opcodes.ICONST_2: return obfuscateInt(2, 3);
-            case Opcodes.ICONST_3: return obfuscateInt(3, 3);
-            case Opcodes.ICONST_4: return obfuscateInt(4, 3);
-            case Opcodes.ICONST_5: return obfuscateInt(5, 3);
-            case Opcodes.LCONST_0: return obfuscateLong(0L, 3);
-            case Opcodes.LCONST_1: return obfuscateLong(1L, 3);
+            case Opcodes.ICONST_M1: return obfuscateInt(random, -1, depth);
+            case Opcodes.ICONST_0: return obfuscateInt(random, 0, depth);
+            case Opcodes.ICONST_1: return obfuscateInt(random, 1, depth);
+            case Opcodes.ICONST_2: return obfuscateInt(random, 2, depth);
+            case Opcodes.ICONST_3: return obfuscateInt(random, 3, depth);
+            case Opcodes.ICONST_4: return obfuscateInt(random, 4, depth);
+            case Opcodes.ICONST_5: return obfuscateInt(random, 5, depth);
+            case Opcodes.LCONST_0: return obfuscateLong(random, 0L, depth);
+            case Opcodes.LCONST_1: return obfuscateLong(random, 1L, depth);
             case Opcodes.FCONST_0: return obfuscateFloat(0.0f);
             case Opcodes.FCONST_1: return obfuscateFloat(1.0f);
             case Opcodes.FCONST_2: return obfuscateFloat(2.0f);
@@ -65,18 +111,18 @@ public class NumberObfuscationTransformer extends Transformer {
         return null;
     }
 
-    private InsnList handleIntInsn(IntInsnNode insn) {
+    private InsnList handleIntInsn(SplittableRandom random, IntInsnNode insn, int depth) {
         if (insn.getOpcode() == Opcodes.BIPUSH || insn.getOpcode() == Opcodes.SIPUSH) {
-            return obfuscateInt(insn.operand, 3);
+            return obfuscateInt(random, insn.operand, depth);
         }
         return null;
     }
 
-    private InsnList handleLdcInsn(LdcInsnNode insn) {
+    private InsnList handleLdcInsn(SplittableRandom random, LdcInsnNode insn, int depth) {
         if (insn.cst instanceof Integer) {
-            return obfuscateInt((Integer) insn.cst, 3);
+            return obfuscateInt(random, (Integer) insn.cst, depth);
         } else if (insn.cst instanceof Long) {
-            return obfuscateLong((Long) insn.cst, 3);
+            return obfuscateLong(random, (Long) insn.cst, depth);
         } else if (insn.cst instanceof Float) {
             return obfuscateFloat((Float) insn.cst);
         } else if (insn.cst instanceof Double) {
@@ -85,7 +131,7 @@ public class NumberObfuscationTransformer extends Transformer {
         return null;
     }
 
-    private InsnList obfuscateInt(int value, int depth) {
+    private InsnList obfuscateInt(SplittableRandom random, int value, int depth) {
         InsnList list = new InsnList();
         if (depth <= 0) {
             list.add(new LdcInsnNode(value));
@@ -97,22 +143,22 @@ public class NumberObfuscationTransformer extends Transformer {
 
         switch (type) {
             case 0:
-                list.add(obfuscateInt(value ^ key, depth - 1));
-                list.add(obfuscateInt(key, depth - 1));
+                list.add(obfuscateInt(random, value ^ key, depth - 1));
+                list.add(obfuscateInt(random, key, depth - 1));
                 list.add(new InsnNode(Opcodes.IXOR));
                 break;
             case 1:
-                list.add(obfuscateInt(value - key, depth - 1));
-                list.add(obfuscateInt(key, depth - 1));
+                list.add(obfuscateInt(random, value - key, depth - 1));
+                list.add(obfuscateInt(random, key, depth - 1));
                 list.add(new InsnNode(Opcodes.IADD));
                 break;
             case 2:
-                list.add(obfuscateInt(value + key, depth - 1));
-                list.add(obfuscateInt(key, depth - 1));
+                list.add(obfuscateInt(random, value + key, depth - 1));
+                list.add(obfuscateInt(random, key, depth - 1));
                 list.add(new InsnNode(Opcodes.ISUB));
                 break;
             case 3:
-                list.add(obfuscateInt(~value, depth - 1));
+                list.add(obfuscateInt(random, ~value, depth - 1));
                 list.add(new InsnNode(Opcodes.ICONST_M1));
                 list.add(new InsnNode(Opcodes.IXOR));
                 break;
@@ -120,7 +166,7 @@ public class NumberObfuscationTransformer extends Transformer {
         return list;
     }
 
-    private InsnList obfuscateLong(long value, int depth) {
+    private InsnList obfuscateLong(SplittableRandom random, long value, int depth) {
         InsnList list = new InsnList();
         if (depth <= 0) {
             list.add(new LdcInsnNode(value));
@@ -132,22 +178,22 @@ public class NumberObfuscationTransformer extends Transformer {
 
         switch (type) {
             case 0:
-                list.add(obfuscateLong(value ^ key, depth - 1));
-                list.add(obfuscateLong(key, depth - 1));
+                list.add(obfuscateLong(random, value ^ key, depth - 1));
+                list.add(obfuscateLong(random, key, depth - 1));
                 list.add(new InsnNode(Opcodes.LXOR));
                 break;
             case 1:
-                list.add(obfuscateLong(value - key, depth - 1));
-                list.add(obfuscateLong(key, depth - 1));
+                list.add(obfuscateLong(random, value - key, depth - 1));
+                list.add(obfuscateLong(random, key, depth - 1));
                 list.add(new InsnNode(Opcodes.LADD));
                 break;
             case 2:
-                list.add(obfuscateLong(value + key, depth - 1));
-                list.add(obfuscateLong(key, depth - 1));
+                list.add(obfuscateLong(random, value + key, depth - 1));
+                list.add(obfuscateLong(random, key, depth - 1));
                 list.add(new InsnNode(Opcodes.LSUB));
                 break;
             case 3:
-                list.add(obfuscateLong(~value, depth - 1));
+                list.add(obfuscateLong(random, ~value, depth - 1));
                 list.add(new LdcInsnNode(-1L));
                 list.add(new InsnNode(Opcodes.LXOR));
                 break;
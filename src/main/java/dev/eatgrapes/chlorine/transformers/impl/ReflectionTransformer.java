@@ -1,9 +1,14 @@
 package dev.eatgrapes.chlorine.transformers.impl;
 
+import dev.eatgrapes.chlorine.transformers.ClassContext;
+import dev.eatgrapes.chlorine.transformers.InsnRewriter;
 import dev.eatgrapes.chlorine.transformers.Transformer;
 import dev.eatgrapes.chlorine.utils.AsmUtils;
+import dev.eatgrapes.chlorine.utils.HotnessProfile;
 import dev.eatgrapes.chlorine.utils.InsnBuilder;
+import dev.eatgrapes.chlorine.utils.KeepRules;
 import dev.eatgrapes.chlorine.utils.NameGenerator;
+import dev.eatgrapes.chlorine.utils.SizeBudget;
 import org.objectweb.asm.Handle;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.Type;
@@ -13,6 +18,7 @@ import java.util.*;
 
 public class ReflectionTransformer extends Transformer {
     private static final int METHOD_OBFUSCATION_RATE = 100;
+    private static final int LIGHT_METHOD_OBFUSCATION_RATE = 25;
     private static final int FIELD_OBFUSCATION_RATE = 25;
     private static final int CALL_KIND_STATIC = 0;
     private static final int CALL_KIND_VIRTUAL = 1;
@@ -24,34 +30,92 @@ public class ReflectionTransformer extends Transformer {
             "Ljava/lang/String;Ljava/lang/String;Ljava/lang/Integer;Ljava/lang/Integer;Ljava/lang/Integer;)" +
             "Ljava/lang/invoke/CallSite;";
 
-    private final Random random = new Random();
-    private final NameGenerator indyNameGen = NameGenerator.local("i");
-    private Set<String> currentKeeps;
-
     @Override
     public String getName() { return "Reflection"; }
 
     @Override
-    public void transform(Map<String, ClassNode> classes, Map<String, String> manifest, Set<String> keeps) {
-        this.currentKeeps = keeps;
-        List<ClassNode> classList = new ArrayList<>(classes.values());
-        for (ClassNode cn : classList) {
-            if (shouldKeep(cn.name, keeps)) continue;
-            if (AsmUtils.isInterface(cn)) continue;
-            if (AsmUtils.isModuleInfo(cn)) continue;
-
-            CallSiteContext context = createContext(cn);
-            boolean changed = false;
-            for (MethodNode mn : cn.methods) {
-                if (AsmUtils.isAbstract(mn) || AsmUtils.isNative(mn)) continue;
-                if ((mn.access & Opcodes.ACC_SYNTHETIC) != 0) continue;
-                if (mn.name.equals(context.bootstrapName) || mn.name.equals(context.decodeName) || mn.name.equals(context.signatureName)) continue;
-                if (transformMethod(cn, mn, context)) {
-                    changed = true;
+    public boolean isClassLocal() {
+        return true;
+    }
+
+    @Override
+    public void transform(Map<String, ClassNode> classes, Map<String, String> manifest, KeepRules keeps) {
+        transformEachClass(classes, keeps);
+    }
+
+    @Override
+    public boolean isFusable() {
+        return true;
+    }
+
+    @Override
+    public InsnRewriter createRewriter(ClassContext classContext) {
+        ClassNode cn = classContext.getClassNode();
+        if (AsmUtils.isInterface(cn)) return null;
+        if (AsmUtils.isModuleInfo(cn)) return null;
+
+        SplittableRandom random = classContext.getRandom();
+        CallSiteContext context = createCallSiteContext(random, cn);
+        KeepRules keeps = classContext.getKeeps();
+        HotnessProfile profile = getProfile();
+        SizeBudget budget = getSizeBudget();
+        return new InsnRewriter() {
+            private SizeBudget.Method size;
+            private int methodRate;
+            private boolean fieldAccess;
+
+            // hot methods are left alone; warm ones get a share of their calls and no field lookups, which reflect
+            // on every access
+            @Override
+            public boolean visitMethod(MethodNode mn) {
+                if (AsmUtils.isAbstract(mn) || AsmUtils.isNative(mn)) return false;
+                if ((mn.access & Opcodes.ACC_SYNTHETIC) != 0) return false;
+                HotnessProfile.Intensity intensity = profile.getIntensity(cn.name, mn);
+                if (intensity == HotnessProfile.Intensity.NONE) return false;
+                boolean light = intensity == HotnessProfile.Intensity.LIGHT;
+                methodRate = light ? LIGHT_METHOD_OBFUSCATION_RATE : METHOD_OBFUSCATION_RATE;
+                fieldAccess = !light;
+                if (mn.name.equals(context.bootstrapName) || mn.name.equals(context.decodeName) || mn.name.equals(context.signatureName)) return false;
+                size = budget.track(cn.name, mn);
+                return true;
+            }
+
+            // a call or field access the method has no room for is left as it is
+            @Override
+            public InsnList rewrite(MethodNode mn, AbstractInsnNode insn) {
+                int handlers = mn.tryCatchBlocks.size();
+                InsnList replacement = replace(mn, insn);
+                if (replacement == null) return null;
+                int growth = SizeBudget.estimate(replacement) - SizeBudget.estimate(insn);
+                if (!size.fits(growth)) {
+                    budget.cap(cn.name, mn, getName());
+                    mn.tryCatchBlocks.subList(handlers, mn.tryCatchBlocks.size()).clear();
+                    return null;
+                }
+                size.grow(growth);
+                return replacement;
+            }
+
+            private InsnList replace(MethodNode mn, AbstractInsnNode insn) {
+                if (insn instanceof MethodInsnNode) {
+                    MethodInsnNode min = (MethodInsnNode) insn;
+                    if (!shouldTransformMethodCall(random, min, keeps, methodRate)) return null;
+                    InvokeDynamicInsnNode replacement = createInvokeDynamicCall(random, cn, min, context);
+                    if (replacement == null) return null;
+                    InsnList list = new InsnList();
+                    list.add(replacement);
+                    return list;
+                } else if (insn instanceof FieldInsnNode && fieldAccess) {
+                    FieldInsnNode fin = (FieldInsnNode) insn;
+                    if (!shouldTransformFieldAccess(random, fin, keeps)) return null;
+                    return createReflectiveFieldAccess(mn, fin);
                 }
+                return null;
             }
 
-            if (changed) {
+            @Override
+            public void visitEnd() {
+                if (!classContext.isModified()) return;
                 if (cn.version < Opcodes.V1_7) {
                     cn.version = Opcodes.V1_7;
                 }
@@ -59,61 +123,31 @@ public class ReflectionTransformer extends Transformer {
                 cn.methods.add(createSignatureMethod(context.signatureName, context));
                 cn.methods.add(createBootstrapMethod(cn.name, context.bootstrapName, context.decodeName, context));
             }
-        }
-    }
-
-    private boolean transformMethod(ClassNode owner, MethodNode mn, CallSiteContext context) {
-        boolean changed = false;
-        for (AbstractInsnNode insn = mn.instructions.getFirst(); insn != null; ) {
-            AbstractInsnNode next = insn.getNext();
-
-            if (insn instanceof MethodInsnNode) {
-                MethodInsnNode min = (MethodInsnNode) insn;
-                if (shouldTransformMethodCall(min)) {
-                    InvokeDynamicInsnNode replacement = createInvokeDynamicCall(owner, min, context);
-                    if (replacement != null) {
-                        mn.instructions.set(insn, replacement);
-                        changed = true;
-                    }
-                }
-            } else if (insn instanceof FieldInsnNode) {
-                FieldInsnNode fin = (FieldInsnNode) insn;
-                if (shouldTransformFieldAccess(fin)) {
-                    InsnList replacement = createReflectiveFieldAccess(mn, fin);
-                    if (replacement != null) {
-                        mn.instructions.insertBefore(insn, replacement);
-                        mn.instructions.remove(insn);
-                        changed = true;
-                    }
-                }
-            }
-            insn = next;
-        }
-        return changed;
+        };
     }
 
-    private boolean shouldTransformMethodCall(MethodInsnNode min) {
+    private boolean shouldTransformMethodCall(SplittableRandom random, MethodInsnNode min, KeepRules keeps, int rate) {
         boolean forceJdk = isForceJdkMethod(min);
         if (min.owner.startsWith("java/lang/reflect/")) return false;
         if (min.name.equals("<init>") || min.name.equals("<clinit>")) return false;
         if (isExternal(min.owner) && !forceJdk) return false;
-        if (shouldKeep(min.owner, currentKeeps)) return false;
+        if (shouldKeep(min.owner, keeps)) return false;
         if (min.getOpcode() == Opcodes.INVOKESPECIAL) return false;
-        if (shouldKeepMember(min.owner, min.name, currentKeeps)) return false;
+        if (shouldKeepMember(min.owner, min.name, min.desc, keeps)) return false;
         int opcode = min.getOpcode();
         if (opcode != Opcodes.INVOKESTATIC && opcode != Opcodes.INVOKEVIRTUAL && opcode != Opcodes.INVOKEINTERFACE) {
             return false;
         }
         if (forceJdk) return true;
-        return random.nextInt(100) < METHOD_OBFUSCATION_RATE;
+        return random.nextInt(100) < rate;
     }
 
-    private boolean shouldTransformFieldAccess(FieldInsnNode fin) {
+    private boolean shouldTransformFieldAccess(SplittableRandom random, FieldInsnNode fin, KeepRules keeps) {
         boolean forceJdk = isForceJdkField(fin);
         if (fin.getOpcode() != Opcodes.GETSTATIC) return false;
         if (isExternal(fin.owner) && !forceJdk) return false;
-        if (shouldKeep(fin.owner, currentKeeps)) return false;
-        if (shouldKeepMember(fin.owner, fin.name, currentKeeps)) return false;
+        if (shouldKeep(fin.owner, keeps)) return false;
+        if (shouldKeepMember(fin.owner, fin.name, fin.desc, keeps)) return false;
         if (forceJdk) return true;
         return random.nextInt(100) < FIELD_OBFUSCATION_RATE;
     }
@@ -135,7 +169,7 @@ public class ReflectionTransformer extends Transformer {
                 && "Ljava/io/PrintStream;".equals(fin.desc);
     }
 
-    private InvokeDynamicInsnNode createInvokeDynamicCall(ClassNode owner, MethodInsnNode min, CallSiteContext context) {
+    private InvokeDynamicInsnNode createInvokeDynamicCall(SplittableRandom random, ClassNode owner, MethodInsnNode min, CallSiteContext context) {
         int opcode = min.getOpcode();
         boolean isStatic = opcode == Opcodes.INVOKESTATIC;
         int kind = isStatic ? CALL_KIND_STATIC : CALL_KIND_VIRTUAL;
@@ -168,7 +202,7 @@ public class ReflectionTransformer extends Transformer {
         );
 
         return new InvokeDynamicInsnNode(
-                indyNameGen.nextMethod(),
+                context.indyNameGen.nextMethod(),
                 indyDesc,
                 bsm,
                 encodedOwner,
@@ -611,30 +645,32 @@ public class ReflectionTransformer extends Transformer {
         return new String(chars);
     }
 
-    private CallSiteContext createContext(ClassNode cn) {
-        String decodeName = nextUniqueMethodName(cn, "d");
-        String bootstrapName = nextUniqueMethodName(cn, "b");
-        String signatureName = nextUniqueMethodName(cn, "s");
+    private CallSiteContext createCallSiteContext(SplittableRandom random, ClassNode cn) {
+        NameGenerator indyNameGen = NameGenerator.local("i");
+        String decodeName = nextUniqueMethodName(random, indyNameGen, cn, "d");
+        String bootstrapName = nextUniqueMethodName(random, indyNameGen, cn, "b");
+        String signatureName = nextUniqueMethodName(random, indyNameGen, cn, "s");
         while (bootstrapName.equals(decodeName)) {
-            bootstrapName = nextUniqueMethodName(cn, "b");
+            bootstrapName = nextUniqueMethodName(random, indyNameGen, cn, "b");
         }
         while (signatureName.equals(decodeName) || signatureName.equals(bootstrapName)) {
-            signatureName = nextUniqueMethodName(cn, "s");
+            signatureName = nextUniqueMethodName(random, indyNameGen, cn, "s");
         }
 
         int base = scramble(cn.name.hashCode() ^ random.nextInt());
-        int decodeMix = nonZero(scramble(base ^ random.nextInt()));
-        int decodeAdd = nonZero(scramble(Integer.rotateLeft(base, 11) ^ random.nextInt()));
-        int ownerSalt = nonZero(scramble(base ^ 0x6f57a9d1));
-        int nameSalt = nonZero(scramble(base ^ 0x13a5b7c9));
+        int decodeMix = nonZero(random, scramble(base ^ random.nextInt()));
+        int decodeAdd = nonZero(random, scramble(Integer.rotateLeft(base, 11) ^ random.nextInt()));
+        int ownerSalt = nonZero(random, scramble(base ^ 0x6f57a9d1));
+        int nameSalt = nonZero(random, scramble(base ^ 0x13a5b7c9));
         int decodeRotate = 5 + Math.floorMod(base, 23);
-        int signatureSalt = nonZero(scramble(base ^ 0x9f31ab47));
-        int signatureMix = nonZero(scramble(Integer.rotateRight(base, 7) ^ 0x34c2fd11));
-        int signatureAdd = nonZero(scramble(Integer.rotateLeft(base, 19) ^ 0x73a1d5ef));
+        int signatureSalt = nonZero(random, scramble(base ^ 0x9f31ab47));
+        int signatureMix = nonZero(random, scramble(Integer.rotateRight(base, 7) ^ 0x34c2fd11));
+        int signatureAdd = nonZero(random, scramble(Integer.rotateLeft(base, 19) ^ 0x73a1d5ef));
         int signatureRotateA = 3 + Math.floorMod(base, 19);
         int signatureRotateB = 5 + Math.floorMod(Integer.rotateRight(base, 5), 17);
 
         return new CallSiteContext(
+                indyNameGen,
                 bootstrapName,
                 decodeName,
                 signatureName,
@@ -651,7 +687,7 @@ public class ReflectionTransformer extends Transformer {
         );
     }
 
-    private String nextUniqueMethodName(ClassNode cn, String prefix) {
+    private String nextUniqueMethodName(SplittableRandom random, NameGenerator indyNameGen, ClassNode cn, String prefix) {
         Set<String> names = new HashSet<>();
         for (MethodNode mn : cn.methods) {
             names.add(mn.name);
@@ -674,7 +710,7 @@ public class ReflectionTransformer extends Transformer {
         return v;
     }
 
-    private int nonZero(int value) {
+    private int nonZero(SplittableRandom random, int value) {
         if (value == 0) {
             return random.nextInt() | 1;
         }
@@ -729,6 +765,7 @@ public class ReflectionTransformer extends Transformer {
     }
 
     private static class CallSiteContext {
+        private final NameGenerator indyNameGen;
         private final String bootstrapName;
         private final String decodeName;
         private final String signatureName;
@@ -744,6 +781,7 @@ public class ReflectionTransformer extends Transformer {
         private final int signatureRotateB;
 
         private CallSiteContext(
+                NameGenerator indyNameGen,
                 String bootstrapName,
                 String decodeName,
                 String signatureName,
@@ -758,6 +796,7 @@ public class ReflectionTransformer extends Transformer {
                 int signatureRotateA,
                 int signatureRotateB
         ) {
+            this.indyNameGen = indyNameGen;
             this.bootstrapName = bootstrapName;
             this.decodeName = decodeName;
             this.signatureName = signatureName;
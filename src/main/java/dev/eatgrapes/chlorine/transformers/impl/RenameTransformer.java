@@ -0,0 +1,391 @@
+package dev.eatgrapes.chlorine.transformers.impl;
+
+import dev.eatgrapes.chlorine.transformers.Transformer;
+import dev.eatgrapes.chlorine.utils.AsmUtils;
+import dev.eatgrapes.chlorine.utils.KeepRules;
+import dev.eatgrapes.chlorine.utils.NameGenerator;
+import dev.eatgrapes.chlorine.utils.ParallelUtils;
+import dev.eatgrapes.chlorine.utils.TrackingRemapper;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.commons.ClassRemapper;
+import org.objectweb.asm.commons.Remapper;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.FieldNode;
+import org.objectweb.asm.tree.MethodNode;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Collects the class, method and field mappings against the original names, then remaps every class once.
+public class RenameTransformer extends Transformer {
+    private static final Set<String> METHOD_BLOCKLIST = new HashSet<>(Arrays.asList(
+        "main", "<init>", "<clinit>",
+        "toString", "hashCode", "equals", "clone", "finalize", "getClass", "notify", "notifyAll", "wait",
+        "values", "valueOf"
+    ));
+
+    private final boolean renameClasses;
+    private final boolean renameMethods;
+    private final boolean renameFields;
+    private Map<String, String> previousNames = Collections.emptyMap();
+    private final Map<String, String> assignedNames = new HashMap<>();
+
+    public RenameTransformer(boolean renameClasses, boolean renameMethods, boolean renameFields) {
+        this.renameClasses = renameClasses;
+        this.renameMethods = renameMethods;
+        this.renameFields = renameFields;
+    }
+
+    public static RenameTransformer combine(List<RenameTransformer> toggles) {
+        boolean classes = false;
+        boolean methods = false;
+        boolean fields = false;
+        for (RenameTransformer t : toggles) {
+            classes |= t.renameClasses;
+            methods |= t.renameMethods;
+            fields |= t.renameFields;
+        }
+        return new RenameTransformer(classes, methods, fields);
+    }
+
+    @Override
+    public String getName() {
+        StringJoiner joiner = new StringJoiner("+", "Rename[", "]");
+        if (renameClasses) joiner.add("Class");
+        if (renameMethods) joiner.add("Method");
+        if (renameFields) joiner.add("Field");
+        return joiner.toString();
+    }
+
+    @Override
+    public boolean reportsChanges() { return true; }
+
+    @Override
+    public Transformer newInstance() {
+        if (getClass() != RenameTransformer.class) return super.newInstance();
+        return new RenameTransformer(renameClasses, renameMethods, renameFields);
+    }
+
+    // the mappings of the last run, so an incremental run gives unchanged classes and members their old names
+    @Override
+    public Map<String, String> saveState() {
+        return new HashMap<>(assignedNames);
+    }
+
+    @Override
+    public void loadState(Map<String, String> state) {
+        previousNames = new HashMap<>(state);
+    }
+
+    @Override
+    public void transform(Map<String, ClassNode> classes, Map<String, String> manifest, KeepRules keeps) {
+        Map<String, String> classMap = renameClasses ? collectClassMapping(classes, keeps) : Collections.emptyMap();
+        MethodIndex methods = renameMethods ? collectMethodMapping(classes, keeps) : null;
+        Map<String, String> fieldMap = renameFields ? collectFieldMapping(classes, keeps) : Collections.emptyMap();
+        boolean renamesMethods = methods != null && !methods.isEmpty();
+        assignedNames.clear();
+        classMap.forEach((name, newName) -> assignedNames.put("class." + name, newName));
+        if (methods != null) methods.mapping.forEach((member, newName) -> assignedNames.put("method." + member, newName));
+        fieldMap.forEach((member, newName) -> assignedNames.put("field." + member, newName));
+        if (classMap.isEmpty() && !renamesMethods && fieldMap.isEmpty()) return;
+
+        Remapper mapper = new Remapper(Opcodes.ASM9) {
+            @Override
+            public String map(String internalName) {
+                return classMap.getOrDefault(internalName, internalName);
+            }
+
+            @Override
+            public String mapMethodName(String owner, String name, String desc) {
+                return renamesMethods ? methods.resolve(owner, name, desc) : name;
+            }
+
+            @Override
+            public String mapFieldName(String owner, String name, String desc) {
+                return fieldMap.getOrDefault(owner + "." + name, name);
+            }
+        };
+        Set<String> methodNames = renamesMethods ? new HashSet<>(methods.newNames()) : Collections.emptySet();
+        Set<String> fieldNames = new HashSet<>(fieldMap.values());
+
+        List<ClassNode> oldNodes = new ArrayList<>(classes.values());
+        List<ClassNode> newNodes = ParallelUtils.map(getPool(), oldNodes, oldNode -> {
+            TrackingRemapper remapper = new TrackingRemapper(mapper);
+            ClassNode newNode = new ClassNode();
+            oldNode.accept(new ClassRemapper(newNode, remapper));
+
+            boolean changed = remapper.isChanged();
+            if (!classMap.isEmpty()) {
+                newNode.access |= Opcodes.ACC_PUBLIC;
+                if (newNode.sourceFile != null) {
+                    newNode.sourceFile = newNode.name.substring(newNode.name.lastIndexOf('/') + 1) + ".java";
+                }
+                changed |= newNode.access != oldNode.access || !Objects.equals(newNode.sourceFile, oldNode.sourceFile);
+            }
+            for (MethodNode mn : newNode.methods) {
+                if (!methodNames.contains(mn.name)) continue;
+                int access = widen(mn.access);
+                if (access != mn.access) changed = true;
+                mn.access = access;
+            }
+            for (FieldNode fn : newNode.fields) {
+                if (!fieldNames.contains(fn.name)) continue;
+                int access = widen(fn.access);
+                if (access != fn.access) changed = true;
+                fn.access = access;
+            }
+            return changed ? newNode : null;
+        });
+
+        Map<String, ClassNode> newClasses = new HashMap<>();
+        for (int i = 0; i < oldNodes.size(); i++) {
+            if (newNodes.get(i) != null) newClasses.put(oldNodes.get(i).name, newNodes.get(i));
+        }
+        replaceClasses(classes, newClasses);
+        getProfile().rename(mapper);
+
+        String mainClass = manifest.get("Main-Class");
+        if (mainClass != null) {
+            String internalMain = mainClass.replace('.', '/');
+            if (classMap.containsKey(internalMain)) {
+                manifest.put("Main-Class", classMap.get(internalMain).replace('/', '.'));
+            }
+        }
+    }
+
+    private static int widen(int access) {
+        return (access & ~(Opcodes.ACC_PRIVATE | Opcodes.ACC_PROTECTED)) | Opcodes.ACC_PUBLIC;
+    }
+
+    private Map<String, String> collectClassMapping(Map<String, ClassNode> classes, KeepRules keeps) {
+        List<String> renamed = new ArrayList<>();
+        for (ClassNode cn : classes.values()) {
+            if (shouldKeep(cn.name, keeps)) continue;
+            if (AsmUtils.isModuleInfo(cn)) continue;
+            renamed.add(cn.name);
+        }
+
+        Map<String, String> mapping = new HashMap<>();
+        Set<String> taken = new HashSet<>();
+        for (String name : renamed) {
+            String previous = previousNames.get("class." + name);
+            if (previous != null && taken.add(previous)) mapping.put(name, previous);
+        }
+        NameGenerator nameGen = getNames();
+        for (String name : renamed) {
+            if (mapping.containsKey(name)) continue;
+            String newName;
+            do {
+                newName = nameGen.next();
+            } while (!taken.add(newName));
+            mapping.put(name, newName);
+        }
+        return mapping;
+    }
+
+    private Map<String, String> collectFieldMapping(Map<String, ClassNode> classes, KeepRules keeps) {
+        Map<String, String> fieldMap = new HashMap<>();
+        for (ClassNode cn : classes.values()) {
+            if (shouldKeep(cn.name, keeps)) continue;
+            if (AsmUtils.isModuleInfo(cn)) continue;
+
+            Set<String> keptNames = new HashSet<>();
+            for (FieldNode fn : cn.fields) {
+                if (shouldKeepMember(cn.name, fn.name, fn.desc, keeps)) keptNames.add(fn.name);
+            }
+            Set<String> taken = new HashSet<>(keptNames);
+            for (FieldNode fn : cn.fields) {
+                if (keptNames.contains(fn.name)) continue;
+                String previous = previousNames.get("field." + cn.name + "." + fn.name);
+                if (previous != null && taken.add(previous)) fieldMap.put(cn.name + "." + fn.name, previous);
+            }
+            NameGenerator nameGen = getNames();
+            for (FieldNode fn : cn.fields) {
+                if (keptNames.contains(fn.name) || fieldMap.containsKey(cn.name + "." + fn.name)) continue;
+                String newName;
+                do {
+                    newName = nameGen.next();
+                } while (!taken.add(newName));
+                fieldMap.put(cn.name + "." + fn.name, newName);
+            }
+        }
+        return fieldMap;
+    }
+
+    private MethodIndex collectMethodMapping(Map<String, ClassNode> classes, KeepRules keeps) {
+        MethodIndex index = new MethodIndex(classes);
+
+        // 1. Group methods: a method shares its name with every declaration of the same signature in its supertypes
+        boolean[] immutable = new boolean[index.size()];
+        for (ClassNode cn : classes.values()) {
+            if (AsmUtils.isModuleInfo(cn)) continue;
+            boolean kept = shouldKeep(cn.name, keeps);
+            for (MethodNode mn : cn.methods) {
+                boolean isPrivate = (mn.access & Opcodes.ACC_PRIVATE) != 0;
+                boolean isReserved = mn.name.equals("<init>") || mn.name.equals("<clinit>") || mn.name.equals("main");
+                if ((METHOD_BLOCKLIST.contains(mn.name) && (!isPrivate || isReserved)) || kept
+                        || shouldKeepMember(cn.name, mn.name, mn.desc, keeps)) {
+                    immutable[index.node(cn.name, mn.name + mn.desc)] = true;
+                }
+            }
+            index.linkOverrides(cn.name);
+        }
+
+        boolean[] immutableGroup = new boolean[index.size()];
+        for (int node = 0; node < immutable.length; node++) {
+            if (immutable[node]) immutableGroup[index.find(node)] = true;
+        }
+        // new names must not land on a signature that stays as it is
+        Set<String> fixedSignatures = new HashSet<>();
+        for (ClassNode cn : classes.values()) {
+            if (AsmUtils.isModuleInfo(cn)) continue;
+            for (MethodNode mn : cn.methods) {
+                if (immutableGroup[index.find(index.node(cn.name, mn.name + mn.desc))]) fixedSignatures.add(mn.name + mn.desc);
+            }
+        }
+
+        // 2. Assign names, first giving groups back a name one of their members had in the previous run
+        Map<Integer, String> groupNames = new HashMap<>();
+        Set<String> claimed = new HashSet<>(fixedSignatures);
+        for (ClassNode cn : classes.values()) {
+            if (AsmUtils.isModuleInfo(cn) || previousNames.isEmpty()) continue;
+            for (MethodNode mn : cn.methods) {
+                int root = index.find(index.node(cn.name, mn.name + mn.desc));
+                if (immutableGroup[root] || groupNames.containsKey(root)) continue;
+                String previous = previousNames.get("method." + cn.name + "." + mn.name + mn.desc);
+                if (previous != null && claimed.add(previous + mn.desc)) groupNames.put(root, previous);
+            }
+        }
+        for (ClassNode cn : classes.values()) {
+            if (AsmUtils.isModuleInfo(cn)) continue;
+            for (MethodNode mn : cn.methods) {
+                int root = index.find(index.node(cn.name, mn.name + mn.desc));
+                if (immutableGroup[root]) continue;
+
+                String newName = groupNames.computeIfAbsent(root, k -> {
+                    NameGenerator nameGen = getNames();
+                    String name;
+                    do {
+                        name = nameGen.next();
+                    } while (!claimed.add(name + mn.desc));
+                    return name;
+                });
+                index.mapping.put(cn.name + "." + mn.name + mn.desc, newName);
+            }
+        }
+        return index;
+    }
+
+    // Per-class signature index with a union-find over override and implementation relations. References are
+    // resolved against the input hierarchy once and then served from a cache during the parallel remap.
+    private static class MethodIndex {
+        private final Map<String, ClassNode> classes;
+        private final Map<String, Map<String, Integer>> signatures = new HashMap<>();
+        private final Map<String, List<String>> ancestors = new HashMap<>();
+        private final Map<String, String> mapping = new HashMap<>();
+        private final Map<String, String> resolved = new ConcurrentHashMap<>();
+        private final int[] parent;
+
+        private MethodIndex(Map<String, ClassNode> classes) {
+            this.classes = classes;
+            int count = 0;
+            for (ClassNode cn : classes.values()) {
+                Map<String, Integer> declared = new HashMap<>(cn.methods.size() * 2);
+                for (MethodNode mn : cn.methods) {
+                    declared.putIfAbsent(mn.name + mn.desc, count++);
+                }
+                signatures.put(cn.name, declared);
+            }
+            this.parent = new int[count];
+            for (int i = 0; i < count; i++) {
+                parent[i] = i;
+            }
+            for (String name : classes.keySet()) {
+                ancestors.put(name, collectAncestors(name));
+            }
+        }
+
+        private int size() {
+            return parent.length;
+        }
+
+        private int node(String owner, String signature) {
+            return signatures.get(owner).get(signature);
+        }
+
+        private boolean isEmpty() {
+            return mapping.isEmpty();
+        }
+
+        private Collection<String> newNames() {
+            return mapping.values();
+        }
+
+        private int find(int node) {
+            while (parent[node] != node) {
+                parent[node] = parent[parent[node]];
+                node = parent[node];
+            }
+            return node;
+        }
+
+        private void union(int a, int b) {
+            int rootA = find(a);
+            int rootB = find(b);
+            if (rootA != rootB) parent[Math.max(rootA, rootB)] = Math.min(rootA, rootB);
+        }
+
+        // a class ties together every declaration of a signature it can see, which also covers an interface
+        // method implemented by an inherited superclass method
+        private void linkOverrides(String owner) {
+            Map<String, Integer> first = new HashMap<>(signatures.get(owner));
+            for (String type : ancestors.get(owner)) {
+                for (Map.Entry<String, Integer> e : signatures.get(type).entrySet()) {
+                    Integer existing = first.putIfAbsent(e.getKey(), e.getValue());
+                    if (existing != null) union(existing, e.getValue());
+                }
+            }
+        }
+
+        private List<String> collectAncestors(String owner) {
+            List<String> result = new ArrayList<>();
+            Set<String> visited = new HashSet<>();
+            visited.add(owner);
+            Queue<String> queue = new ArrayDeque<>();
+            enqueueSupertypes(classes.get(owner), queue);
+            while (!queue.isEmpty()) {
+                String type = queue.poll();
+                if (!visited.add(type)) continue;
+
+                ClassNode cn = classes.get(type);
+                if (cn == null) continue;
+                result.add(type);
+                enqueueSupertypes(cn, queue);
+            }
+            return result;
+        }
+
+        private static void enqueueSupertypes(ClassNode cn, Queue<String> queue) {
+            if (cn.superName != null) queue.add(cn.superName);
+            if (cn.interfaces != null) queue.addAll(cn.interfaces);
+        }
+
+        private String resolve(String owner, String name, String desc) {
+            String key = owner + "." + name + desc;
+            String result = mapping.get(key);
+            if (result != null) return result;
+
+            List<String> types = ancestors.get(owner);
+            if (types == null || types.isEmpty()) return name;
+            result = resolved.get(key);
+            if (result != null) return result;
+
+            for (int i = 0; i < types.size() && result == null; i++) {
+                result = mapping.get(types.get(i) + "." + name + desc);
+            }
+            if (result == null) result = name;
+            resolved.put(key, result);
+            return result;
+        }
+    }
+}
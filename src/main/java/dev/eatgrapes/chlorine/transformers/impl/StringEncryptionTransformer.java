@@ -1,9 +1,14 @@
 package dev.eatgrapes.chlorine.transformers.impl;
 
+import dev.eatgrapes.chlorine.transformers.ClassContext;
+import dev.eatgrapes.chlorine.transformers.InsnRewriter;
 import dev.eatgrapes.chlorine.transformers.Transformer;
 import dev.eatgrapes.chlorine.utils.AsmUtils;
+import dev.eatgrapes.chlorine.utils.HotnessProfile;
 import dev.eatgrapes.chlorine.utils.InsnBuilder;
+import dev.eatgrapes.chlorine.utils.KeepRules;
 import dev.eatgrapes.chlorine.utils.NameGenerator;
+import dev.eatgrapes.chlorine.utils.SizeBudget;
 import org.objectweb.asm.Handle;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.Type;
@@ -17,15 +22,21 @@ import java.util.*;
 
 public class StringEncryptionTransformer extends Transformer {
     private final byte[] keyBytes = new byte[16];
-    private final NameGenerator nameGen = new NameGenerator();
-    private final Random random = new Random();
+    private Random random;
 
-    private final int helperMul;
-    private final int helperAdd;
-    private final int helperRot;
-    private final int helperXor;
+    private int helperMul;
+    private int helperAdd;
+    private int helperRot;
+    private int helperXor;
 
-    public StringEncryptionTransformer() {
+    private String hostName;
+    private String decryptName;
+    private String bootstrapName;
+    private String xorName;
+    private Map<String, String> previousState = Collections.emptyMap();
+
+    private void initKeys() {
+        random = new Random(getSeed());
         random.nextBytes(keyBytes);
 
         int mul;
@@ -45,10 +56,49 @@ public class StringEncryptionTransformer extends Transformer {
     }
 
     @Override
-    public void transform(Map<String, ClassNode> classes, Map<String, String> manifest, Set<String> keeps) {
+    public boolean visitsKeptClasses() {
+        return false;
+    }
+
+    @Override
+    public boolean reportsChanges() {
+        return true;
+    }
+
+    @Override
+    public boolean isFusable() {
+        return true;
+    }
+
+    @Override
+    public void transform(Map<String, ClassNode> classes, Map<String, String> manifest, KeepRules keeps) {
+        prepare(classes, keeps);
+        transformEachClass(classes, keeps);
+    }
+
+    @Override
+    public Map<String, String> saveState() {
+        if (hostName == null) return Collections.emptyMap();
+        Map<String, String> state = new HashMap<>();
+        state.put("host", hostName);
+        state.put("decrypt", decryptName);
+        state.put("bootstrap", bootstrapName);
+        state.put("xor", xorName);
+        return state;
+    }
+
+    @Override
+    public void loadState(Map<String, String> state) {
+        previousState = new HashMap<>(state);
+    }
+
+    @Override
+    public void prepare(Map<String, ClassNode> classes, KeepRules keeps) {
+        initKeys();
+        hostName = null;
         List<ClassNode> candidates = new ArrayList<>();
-        for (ClassNode cn : classes.values()) {
-            if (!AsmUtils.isInterface(cn) && !AsmUtils.isModuleInfo(cn) && !shouldKeep(cn.name, keeps)) {
+        for (ClassNode cn : unkeptClasses(classes, keeps)) {
+            if (!AsmUtils.isInterface(cn) && !AsmUtils.isModuleInfo(cn)) {
                 candidates.add(cn);
             }
         }
@@ -56,72 +106,121 @@ public class StringEncryptionTransformer extends Transformer {
         if (candidates.isEmpty()) return;
 
         ClassNode hostClass = candidates.get(random.nextInt(candidates.size()));
-        String decryptName = nameGen.nextMethod();
-        String bootstrapName = nameGen.nextMethod();
-        String xorName = nameGen.nextMethod();
+        NameGenerator nameGen = getNames();
+        decryptName = nameGen.nextMethod();
+        bootstrapName = nameGen.nextMethod();
+        xorName = nameGen.nextMethod();
+        // an incremental run keeps the previous host while it is still around, so classes that did not change
+        // keep pointing at the same helpers
+        String previousHost = previousState.get("host");
+        for (ClassNode cn : candidates) {
+            if (!cn.name.equals(previousHost)) continue;
+            hostClass = cn;
+            decryptName = previousState.get("decrypt");
+            bootstrapName = previousState.get("bootstrap");
+            xorName = previousState.get("xor");
+        }
 
         hostClass.methods.add(createXorHelper(xorName));
         hostClass.methods.add(createDecryptMethod(hostClass.name, decryptName, xorName));
         hostClass.methods.add(createBootstrapMethod(hostClass.name, bootstrapName, decryptName));
+        hostName = hostClass.name;
+        markModified(classes, hostClass);
+    }
 
-        for (ClassNode cn : classes.values()) {
-            if (shouldKeep(cn.name, keeps)) continue;
-            if (AsmUtils.isInterface(cn)) continue;
-
-            for (MethodNode mn : cn.methods) {
-                if (cn.name.equals(hostClass.name) && (mn.name.equals(decryptName) || mn.name.equals(bootstrapName) || mn.name.equals(xorName))) continue;
-                if (AsmUtils.isAbstract(mn) || AsmUtils.isNative(mn)) continue;
+    @Override
+    public InsnRewriter createRewriter(ClassContext context) {
+        ClassNode cn = context.getClassNode();
+        if (hostName == null || AsmUtils.isInterface(cn)) return null;
+
+        boolean host = cn.name.equals(hostName);
+        SplittableRandom random = context.getRandom();
+        NameGenerator indyNameGen = NameGenerator.local();
+        SizeBudget budget = getSizeBudget();
+        HotnessProfile profile = getProfile();
+        return new InsnRewriter() {
+            private SizeBudget.Method size;
+            private boolean deoptimize;
+
+            // an encrypted literal costs nothing once its call site is linked, a deoptimized concatenation costs on
+            // every call, so warm methods keep their concatenations and hot ones are left alone
+            @Override
+            public boolean visitMethod(MethodNode mn) {
+                if (host && (mn.name.equals(decryptName) || mn.name.equals(bootstrapName) || mn.name.equals(xorName))) return false;
+                if (AsmUtils.isAbstract(mn) || AsmUtils.isNative(mn)) return false;
+                HotnessProfile.Intensity intensity = profile.getIntensity(cn.name, mn);
+                if (intensity == HotnessProfile.Intensity.NONE) return false;
+                deoptimize = intensity == HotnessProfile.Intensity.FULL;
+                size = budget.track(cn.name, mn);
+                return true;
+            }
 
-                List<InvokeDynamicInsnNode> toReplace = new ArrayList<>();
-                ListIterator<AbstractInsnNode> it = mn.instructions.iterator();
-                while (it.hasNext()) {
-                    AbstractInsnNode insn = it.next();
-                    if (insn instanceof InvokeDynamicInsnNode) {
-                        toReplace.add((InvokeDynamicInsnNode) insn);
+            // a concatenation or literal the method has no room for is left as it is
+            @Override
+            public InsnList rewrite(MethodNode mn, AbstractInsnNode insn) {
+                if (insn instanceof InvokeDynamicInsnNode) {
+                    if (!deoptimize) return null;
+                    int locals = mn.maxLocals;
+                    InsnList replacement = deoptimizeIndy(mn, (InvokeDynamicInsnNode) insn);
+                    if (replacement == null) return null;
+                    for (AbstractInsnNode current = replacement.getFirst(); current != null; current = current.getNext()) {
+                        InvokeDynamicInsnNode encrypted = encryptLiteral(current, random, indyNameGen);
+                        if (encrypted != null) {
+                            replacement.set(current, encrypted);
+                            current = encrypted;
+                        }
                     }
-                }
-                
-                for (InvokeDynamicInsnNode indy : toReplace) {
-                    InsnList replacement = deoptimizeIndy(mn, indy);
-                    if (replacement != null) {
-                        mn.instructions.insertBefore(indy, replacement);
-                        mn.instructions.remove(indy);
+                    if (!fits(mn, SizeBudget.estimate(replacement) - SizeBudget.estimate(insn))) {
+                        mn.maxLocals = locals;
+                        return null;
                     }
+                    return replacement;
                 }
 
-                it = mn.instructions.iterator();
-                while (it.hasNext()) {
-                    AbstractInsnNode insn = it.next();
-                    if (insn instanceof LdcInsnNode) {
-                        LdcInsnNode ldc = (LdcInsnNode) insn;
-                        if (ldc.cst instanceof String) {
-                            String original = (String) ldc.cst;
-                            if (original.length() > 5000) continue;
-
-                            try {
-                                String encrypted = encrypt(original);
-                                
-                                Handle bsmHandle = new Handle(
-                                    Opcodes.H_INVOKESTATIC,
-                                    hostClass.name,
-                                    bootstrapName,
-                                    "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/invoke/MethodType;Ljava/lang/String;)Ljava/lang/invoke/CallSite;",
-                                    false
-                                );
-
-                                mn.instructions.set(insn, new InvokeDynamicInsnNode(
-                                    nameGen.next(), 
-                                    "()Ljava/lang/String;",
-                                    bsmHandle,
-                                    encrypted
-                                ));
-                            } catch (Exception e) {
-                                e.printStackTrace();
-                            }
-                        }
-                    }
+                InvokeDynamicInsnNode encrypted = encryptLiteral(insn, random, indyNameGen);
+                if (encrypted == null) return null;
+                if (!fits(mn, SizeBudget.estimate(encrypted) - SizeBudget.estimate(insn))) return null;
+                InsnList replacement = new InsnList();
+                replacement.add(encrypted);
+                return replacement;
+            }
+
+            private boolean fits(MethodNode mn, int growth) {
+                if (!size.fits(growth)) {
+                    budget.cap(cn.name, mn, getName());
+                    return false;
                 }
+                size.grow(growth);
+                return true;
             }
+        };
+    }
+
+    private InvokeDynamicInsnNode encryptLiteral(AbstractInsnNode insn, SplittableRandom random, NameGenerator indyNameGen) {
+        if (!(insn instanceof LdcInsnNode) || !(((LdcInsnNode) insn).cst instanceof String)) return null;
+        String original = (String) ((LdcInsnNode) insn).cst;
+        if (original.length() > 5000) return null;
+
+        try {
+            String encrypted = encrypt(original, random);
+
+            Handle bsmHandle = new Handle(
+                Opcodes.H_INVOKESTATIC,
+                hostName,
+                bootstrapName,
+                "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/invoke/MethodType;Ljava/lang/String;)Ljava/lang/invoke/CallSite;",
+                false
+            );
+
+            return new InvokeDynamicInsnNode(
+                indyNameGen.next(),
+                "()Ljava/lang/String;",
+                bsmHandle,
+                encrypted
+            );
+        } catch (Exception e) {
+            getLog().warn("Leaving a string constant unencrypted: " + e);
+            return null;
         }
     }
 
@@ -206,7 +305,7 @@ public class StringEncryptionTransformer extends Transformer {
         return b.build();
     }
 
-    private String encrypt(String original) throws Exception {
+    private String encrypt(String original, SplittableRandom random) throws Exception {
         byte[] input = original.getBytes(StandardCharsets.UTF_8);
         byte[] iv = new byte[16];
         random.nextBytes(iv);
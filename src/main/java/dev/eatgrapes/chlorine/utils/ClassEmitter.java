@@ -0,0 +1,101 @@
+package dev.eatgrapes.chlorine.utils;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.MethodNode;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+public class ClassEmitter {
+    private final LazyClassMap classes;
+    private final ClassHierarchy hierarchy;
+    private final AtomicInteger rewrittenClasses = new AtomicInteger();
+    private final AtomicInteger copiedClasses = new AtomicInteger();
+    private final AtomicInteger recomputedMethods = new AtomicInteger();
+    private final AtomicInteger copiedMethods = new AtomicInteger();
+
+    public ClassEmitter(ClassHierarchy hierarchy) {
+        this(null, hierarchy);
+    }
+
+    public ClassEmitter(LazyClassMap classes, ClassHierarchy hierarchy) {
+        this.classes = classes;
+        this.hierarchy = hierarchy;
+    }
+
+    public byte[] emit(String name) {
+        if (!classes.isModified(name)) {
+            return copy(classes.getOriginalBytes(name));
+        }
+        byte[] original = classes.canReuseConstantPool(name) ? classes.getOriginalBytes(name) : null;
+        return emit(classes.get(name), original, mn -> classes.hasOriginalFrames(name, mn));
+    }
+
+    public byte[] copy(byte[] original) {
+        copiedClasses.incrementAndGet();
+        return original;
+    }
+
+    // constantPoolSource: original class bytes whose constant pool may be reused, or null
+    public byte[] emit(ClassNode cn, byte[] constantPoolSource, Predicate<MethodNode> hasOriginalFrames) {
+        rewrittenClasses.incrementAndGet();
+
+        List<Integer> dirty = new ArrayList<>();
+        for (int i = 0; i < cn.methods.size(); i++) {
+            MethodNode mn = cn.methods.get(i);
+            if (mn.instructions.size() == 0) continue;
+            if (hasOriginalFrames.test(mn)) {
+                copiedMethods.incrementAndGet();
+            } else {
+                dirty.add(i);
+            }
+        }
+        if (!dirty.isEmpty()) {
+            computeFrames(cn, dirty);
+            recomputedMethods.addAndGet(dirty.size());
+        }
+
+        ClassWriter cw = constantPoolSource != null
+                ? new NonLoadingClassWriter(new ClassReader(constantPoolSource), 0, hierarchy)
+                : new NonLoadingClassWriter(0, hierarchy);
+        cn.accept(cw);
+        return cw.toByteArray();
+    }
+
+    private void computeFrames(ClassNode cn, List<Integer> dirty) {
+        int flags = (cn.version & 0xFFFF) < Opcodes.V1_6 ? ClassWriter.COMPUTE_MAXS : ClassWriter.COMPUTE_FRAMES;
+        ClassWriter cw = new NonLoadingClassWriter(flags, hierarchy);
+        cw.visit(cn.version, cn.access, cn.name, null, cn.superName, cn.interfaces.toArray(new String[0]));
+        for (int index : dirty) {
+            cn.methods.get(index).accept(cw);
+        }
+        cw.visitEnd();
+
+        ClassNode computed = new ClassNode();
+        new ClassReader(cw.toByteArray()).accept(computed, 0);
+        for (int i = 0; i < dirty.size(); i++) {
+            cn.methods.set(dirty.get(i), computed.methods.get(i));
+        }
+    }
+
+    public int getRewrittenClasses() {
+        return rewrittenClasses.get();
+    }
+
+    public int getCopiedClasses() {
+        return copiedClasses.get();
+    }
+
+    public int getRecomputedMethods() {
+        return recomputedMethods.get();
+    }
+
+    public int getCopiedMethods() {
+        return copiedMethods.get();
+    }
+}
@@ -0,0 +1,160 @@
+package dev.eatgrapes.chlorine.utils;
+
+import dev.eatgrapes.chlorine.library.Libraries;
+import dev.eatgrapes.chlorine.library.TypeHeader;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.Opcodes;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+public class ClassHierarchy {
+    private static final String OBJECT = "java/lang/Object";
+    private static final TypeInfo UNKNOWN = new TypeInfo(OBJECT, Collections.emptyList(), 0);
+
+    private final Map<String, TypeInfo> types;
+    private final Function<String, TypeHeader> inputTypes;
+    private final Libraries libraries;
+    private final Map<String, TypeInfo> externalTypes = new ConcurrentHashMap<>();
+    private final Map<String, String> commonSuperClasses = new ConcurrentHashMap<>();
+
+    public ClassHierarchy(LazyClassMap classes) {
+        this(classes, Libraries.none());
+    }
+
+    public ClassHierarchy(Function<String, TypeHeader> inputTypes, Libraries libraries) {
+        this.types = Collections.emptyMap();
+        this.inputTypes = inputTypes;
+        this.libraries = libraries;
+    }
+
+    public ClassHierarchy(LazyClassMap classes, Libraries libraries) {
+        this.inputTypes = null;
+        this.libraries = libraries;
+        Map<String, TypeInfo> index = new HashMap<>(classes.size() * 2);
+        for (String name : classes.keySet()) {
+            String superName = classes.getSuperName(name);
+            List<String> interfaces = classes.getInterfaces(name);
+            index.put(name, new TypeInfo(
+                    superName == null ? OBJECT : superName,
+                    interfaces == null ? Collections.emptyList() : List.copyOf(interfaces),
+                    classes.getAccess(name)));
+        }
+        this.types = Collections.unmodifiableMap(index);
+        for (String name : types.keySet()) {
+            supertypes(name);
+        }
+    }
+
+    public String getCommonSuperClass(String type1, String type2) {
+        if (type1.equals(type2)) return type1;
+        if (type1.equals(OBJECT)) return type1;
+        if (type2.equals(OBJECT)) return type2;
+
+        String key = type1.compareTo(type2) < 0 ? type1 + ';' + type2 : type2 + ';' + type1;
+        String cached = commonSuperClasses.get(key);
+        if (cached != null) return cached;
+
+        String result = computeCommonSuperClass(type1, type2);
+        commonSuperClasses.put(key, result);
+        return result;
+    }
+
+    private String computeCommonSuperClass(String type1, String type2) {
+        try {
+            if (isAssignableFrom(type1, type2)) return type1;
+            if (isAssignableFrom(type2, type1)) return type2;
+            if (isInterface(type1) || isInterface(type2)) return OBJECT;
+
+            String t1 = type1;
+            do {
+                t1 = getSuperClass(t1);
+                if (isAssignableFrom(t1, type2)) return t1;
+            } while (!t1.equals(OBJECT));
+
+            return OBJECT;
+        } catch (Exception e) {
+            return OBJECT;
+        }
+    }
+
+    public boolean isAssignableFrom(String type1, String type2) {
+        if (type1.equals(OBJECT)) return true;
+        if (type1.equals(type2)) return true;
+        return supertypes(type2).contains(type1);
+    }
+
+    public String getSuperClass(String type) {
+        if (type.equals(OBJECT)) return null;
+        return typeInfo(type).superName;
+    }
+
+    public boolean isInterface(String type) {
+        return (typeInfo(type).access & Opcodes.ACC_INTERFACE) != 0;
+    }
+
+    public List<String> getInterfaces(String type) {
+        return typeInfo(type).interfaces;
+    }
+
+    private Set<String> supertypes(String type) {
+        TypeInfo info = typeInfo(type);
+        Set<String> result = info.supertypes;
+        if (result != null) return result;
+
+        result = new HashSet<>();
+        Deque<String> queue = new ArrayDeque<>();
+        if (!type.equals(OBJECT)) queue.add(info.superName);
+        queue.addAll(info.interfaces);
+        while (!queue.isEmpty()) {
+            String current = queue.poll();
+            if (!result.add(current) || current.equals(OBJECT)) continue;
+            TypeInfo parent = typeInfo(current);
+            queue.add(parent.superName);
+            queue.addAll(parent.interfaces);
+        }
+        result = Collections.unmodifiableSet(result);
+        info.supertypes = result;
+        return result;
+    }
+
+    private TypeInfo typeInfo(String type) {
+        TypeInfo info = types.get(type);
+        if (info != null) return info;
+        return externalTypes.computeIfAbsent(type, this::readExternalType);
+    }
+
+    private TypeInfo readExternalType(String type) {
+        TypeHeader header = inputTypes == null ? null : inputTypes.apply(type);
+        if (header == null) header = libraries.find(type);
+        if (header != null) {
+            String superName = header.getSuperName();
+            return new TypeInfo(superName == null ? OBJECT : superName, header.getInterfaces(), header.getAccess());
+        }
+
+        try (InputStream in = ClassLoader.getSystemResourceAsStream(type + ".class")) {
+            if (in == null) return UNKNOWN;
+            ClassReader cr = new ClassReader(in);
+            String superName = cr.getSuperName();
+            return new TypeInfo(superName == null ? OBJECT : superName, List.of(cr.getInterfaces()), cr.getAccess());
+        } catch (IOException | RuntimeException e) {
+            return UNKNOWN;
+        }
+    }
+
+    private static class TypeInfo {
+        private final String superName;
+        private final List<String> interfaces;
+        private final int access;
+        private volatile Set<String> supertypes;
+
+        private TypeInfo(String superName, List<String> interfaces, int access) {
+            this.superName = superName;
+            this.interfaces = interfaces;
+            this.access = access;
+        }
+    }
+}
@@ -0,0 +1,319 @@
+package dev.eatgrapes.chlorine.utils;
+
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.*;
+import org.objectweb.asm.tree.analysis.*;
+
+import java.util.*;
+
+// Basic blocks, dominators and natural loops of a method, built from the edges ASM's Analyzer follows. The frames
+// keep the exact type of every reference, so callers can tell which type each local slot holds.
+public class ControlFlowGraph {
+    private final MethodNode method;
+    private final Frame<BasicValue>[] frames;
+    private final List<Block> blocks = new ArrayList<>();
+    private final Block[] blockAt;
+    private final List<Loop> loops = new ArrayList<>();
+
+    private ControlFlowGraph(MethodNode method, Frame<BasicValue>[] frames, List<Set<Integer>> successors,
+                             List<Set<Integer>> handlers) {
+        this.method = method;
+        this.frames = frames;
+        this.blockAt = new Block[frames.length];
+        buildBlocks(successors, handlers);
+        computeDominators();
+        findLoops();
+    }
+
+    public static ControlFlowGraph build(String owner, MethodNode mn) throws AnalyzerException {
+        int size = mn.instructions.size();
+        List<Set<Integer>> successors = new ArrayList<>(size);
+        List<Set<Integer>> handlers = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            successors.add(new TreeSet<>());
+            handlers.add(new TreeSet<>());
+        }
+        Analyzer<BasicValue> analyzer = new Analyzer<>(new TypedInterpreter()) {
+            @Override
+            protected void newControlFlowEdge(int insn, int successor) {
+                successors.get(insn).add(successor);
+            }
+
+            @Override
+            protected boolean newControlFlowExceptionEdge(int insn, int successor) {
+                handlers.get(insn).add(successor);
+                return true;
+            }
+        };
+        Frame<BasicValue>[] frames = analyzer.analyze(owner, mn);
+        return new ControlFlowGraph(mn, frames, successors, handlers);
+    }
+
+    public List<Block> getBlocks() {
+        return blocks;
+    }
+
+    public Block getBlock(AbstractInsnNode insn) {
+        return blockAt[method.instructions.indexOf(insn)];
+    }
+
+    public List<Loop> getLoops() {
+        return loops;
+    }
+
+    // the frame before the instruction, or null when it is unreachable
+    public Frame<BasicValue> getFrame(AbstractInsnNode insn) {
+        return frames[method.instructions.indexOf(insn)];
+    }
+
+    // the single type each local slot holds wherever it is set, with null for slots that only ever hold null;
+    // empty when a slot holds values of different types at different points
+    public Optional<Map<Integer, Type>> getLocalTypes() {
+        Map<Integer, Type> types = new HashMap<>();
+        Set<Integer> halves = new HashSet<>();
+        for (int index = 0; index < frames.length; index++) {
+            Frame<BasicValue> frame = frames[index];
+            if (frame == null) continue;
+            for (int i = 0; i < frame.getLocals(); i++) {
+                BasicValue value = frame.getLocal(i);
+                if (value.getType() != null && !addLocalType(types, halves, i, value)) return Optional.empty();
+            }
+            // a stored value can show up in no frame at all when every path after the store merges it with another
+            // type, as a catch handler's exception does with what the slot held in the try block
+            AbstractInsnNode insn = method.instructions.get(index);
+            if (insn.getOpcode() >= Opcodes.ISTORE && insn.getOpcode() <= Opcodes.ASTORE) {
+                BasicValue value = frame.getStack(frame.getStackSize() - 1);
+                if (value.getType() == null || !addLocalType(types, halves, ((VarInsnNode) insn).var, value)) {
+                    return Optional.empty();
+                }
+            }
+        }
+        return Optional.of(types);
+    }
+
+    private static boolean addLocalType(Map<Integer, Type> types, Set<Integer> halves, int slot, BasicValue value) {
+        Type type = value.getType();
+        if (halves.contains(slot)) return false;
+        if (TypedInterpreter.isNull(type)) {
+            types.putIfAbsent(slot, null);
+            return true;
+        }
+        Type previous = types.get(slot);
+        if (previous != null && !previous.equals(type)) return false;
+        types.put(slot, type);
+        if (value.getSize() == 2) {
+            if (types.get(slot + 1) != null) return false;
+            types.remove(slot + 1);
+            halves.add(slot + 1);
+        }
+        return true;
+    }
+
+    private void buildBlocks(List<Set<Integer>> successors, List<Set<Integer>> handlers) {
+        int size = frames.length;
+        boolean[] leader = new boolean[size];
+        if (size > 0) leader[0] = true;
+        for (TryCatchBlockNode tcb : method.tryCatchBlocks) {
+            leader[method.instructions.indexOf(tcb.handler)] = true;
+        }
+        for (int i = 0; i < size; i++) {
+            Set<Integer> next = successors.get(i);
+            boolean fallsThrough = next.size() == 1 && next.contains(i + 1);
+            for (int successor : next) {
+                if (successor != i + 1 || !fallsThrough) leader[successor] = true;
+            }
+            if (!fallsThrough && i + 1 < size) leader[i + 1] = true;
+        }
+
+        Block current = null;
+        for (int i = 0; i < size; i++) {
+            if (leader[i]) {
+                current = new Block(blocks.size(), i);
+                blocks.add(current);
+            }
+            current.end = i;
+            blockAt[i] = current;
+        }
+        for (Block block : blocks) {
+            for (int successor : successors.get(block.end)) {
+                link(block, blockAt[successor]);
+            }
+            for (int i = block.start; i <= block.end; i++) {
+                for (int handler : handlers.get(i)) {
+                    link(block, blockAt[handler]);
+                }
+            }
+        }
+    }
+
+    private static void link(Block from, Block to) {
+        if (from.successors.add(to)) to.predecessors.add(from);
+    }
+
+    // iterative data-flow over the blocks; unreachable blocks keep an empty set
+    private void computeDominators() {
+        if (blocks.isEmpty()) return;
+        BitSet all = new BitSet();
+        all.set(0, blocks.size());
+        for (Block block : blocks) {
+            if (block.index == 0) {
+                block.dominators.set(0);
+            } else if (isReachable(block)) {
+                block.dominators.or(all);
+            }
+        }
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (Block block : blocks) {
+                if (block.index == 0 || !isReachable(block)) continue;
+                BitSet dominators = (BitSet) all.clone();
+                for (Block predecessor : block.predecessors) {
+                    if (isReachable(predecessor)) dominators.and(predecessor.dominators);
+                }
+                dominators.set(block.index);
+                if (!dominators.equals(block.dominators)) {
+                    block.dominators = dominators;
+                    changed = true;
+                }
+            }
+        }
+    }
+
+    // one loop per header, covering every back edge into it; a loop is innermost when no other header is inside it
+    private void findLoops() {
+        Map<Block, Loop> byHeader = new LinkedHashMap<>();
+        for (Block block : blocks) {
+            for (Block successor : block.successors) {
+                if (!block.isDominatedBy(successor)) continue;
+                Loop loop = byHeader.computeIfAbsent(successor, Loop::new);
+                Deque<Block> work = new ArrayDeque<>();
+                if (loop.body.add(block)) work.push(block);
+                while (!work.isEmpty()) {
+                    for (Block predecessor : work.pop().predecessors) {
+                        if (isReachable(predecessor) && loop.body.add(predecessor)) work.push(predecessor);
+                    }
+                }
+            }
+        }
+        loops.addAll(byHeader.values());
+        for (Loop loop : loops) {
+            for (Loop other : loops) {
+                if (other != loop && loop.body.contains(other.header)) {
+                    loop.innermost = false;
+                    break;
+                }
+            }
+        }
+    }
+
+    private boolean isReachable(Block block) {
+        return frames[block.start] != null;
+    }
+
+    public class Block {
+        private final int index;
+        private final int start;
+        private int end;
+        private final Set<Block> successors = new LinkedHashSet<>();
+        private final Set<Block> predecessors = new LinkedHashSet<>();
+        private BitSet dominators = new BitSet();
+
+        private Block(int index, int start) {
+            this.index = index;
+            this.start = start;
+        }
+
+        public AbstractInsnNode getFirst() {
+            return method.instructions.get(start);
+        }
+
+        public AbstractInsnNode getLast() {
+            return method.instructions.get(end);
+        }
+
+        public Set<Block> getSuccessors() {
+            return successors;
+        }
+
+        public boolean isReachable() {
+            return ControlFlowGraph.this.isReachable(this);
+        }
+
+        // operand stack depth on entry; 0 for unreachable blocks
+        public int getEntryStackSize() {
+            Frame<BasicValue> frame = frames[start];
+            return frame == null ? 0 : frame.getStackSize();
+        }
+
+        public boolean isDominatedBy(Block other) {
+            return dominators.get(other.index);
+        }
+    }
+
+    public class Loop {
+        private final Block header;
+        private final Set<Block> body = new LinkedHashSet<>();
+        private boolean innermost = true;
+
+        private Loop(Block header) {
+            this.header = header;
+            body.add(header);
+        }
+
+        public Block getHeader() {
+            return header;
+        }
+
+        public Set<Block> getBody() {
+            return body;
+        }
+
+        public boolean isInnermost() {
+            return innermost;
+        }
+    }
+
+    // BasicInterpreter that keeps the type of every reference instead of collapsing them into one value; merging
+    // two different types leaves the slot unusable, as the verifier would without a common declared type
+    private static class TypedInterpreter extends BasicInterpreter {
+        private static final Type NULL = Type.getObjectType("null");
+
+        TypedInterpreter() {
+            super(Opcodes.ASM9);
+        }
+
+        static boolean isNull(Type type) {
+            return type.equals(NULL);
+        }
+
+        @Override
+        public BasicValue newValue(Type type) {
+            if (type != null && (type.getSort() == Type.OBJECT || type.getSort() == Type.ARRAY)) {
+                return new BasicValue(type);
+            }
+            return super.newValue(type);
+        }
+
+        @Override
+        public BasicValue binaryOperation(AbstractInsnNode insn, BasicValue value1, BasicValue value2) throws AnalyzerException {
+            if (insn.getOpcode() == Opcodes.AALOAD && value1.getType() != null && value1.getType().getSort() == Type.ARRAY) {
+                return newValue(Type.getType(value1.getType().getDescriptor().substring(1)));
+            }
+            return super.binaryOperation(insn, value1, value2);
+        }
+
+        @Override
+        public BasicValue merge(BasicValue value1, BasicValue value2) {
+            if (value1.equals(value2)) return value1;
+            Type type1 = value1.getType();
+            Type type2 = value2.getType();
+            if (type1 != null && type2 != null) {
+                if (isNull(type1) && value2.isReference()) return value2;
+                if (isNull(type2) && value1.isReference()) return value1;
+            }
+            return BasicValue.UNINITIALIZED_VALUE;
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package dev.eatgrapes.chlorine.utils;
+
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordedMethod;
+import jdk.jfr.consumer.RecordedStackTrace;
+import jdk.jfr.consumer.RecordingFile;
+import org.objectweb.asm.commons.Remapper;
+import org.objectweb.asm.tree.MethodNode;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.*;
+
+// How hard each method may be obfuscated, from the jdk.ExecutionSample events of a JFR recording. A sample counts
+// for the method on top of the stack and for every method it was inlined into up to the compiled frame, since that
+// frame's code is what was running. The hottest percentile of sampled methods is left alone, the other sampled
+// methods get a lighter treatment, and methods that never showed up are obfuscated fully.
+public class HotnessProfile {
+    public static final String EXECUTION_SAMPLE = "jdk.ExecutionSample";
+
+    public enum Intensity {
+        FULL,
+        LIGHT,
+        NONE
+    }
+
+    private final Map<String, Intensity> intensities;
+    private final long sampleCount;
+    private final String fingerprint;
+
+    private HotnessProfile(Map<String, Intensity> intensities, long sampleCount) {
+        this.intensities = intensities;
+        this.sampleCount = sampleCount;
+        this.fingerprint = fingerprint(intensities);
+    }
+
+    public static HotnessProfile none() {
+        return new HotnessProfile(new TreeMap<>(), 0);
+    }
+
+    public static HotnessProfile load(Path recording, double hotPercent) throws IOException {
+        Map<String, Long> samples = new HashMap<>();
+        long sampleCount = 0;
+        try (RecordingFile file = new RecordingFile(recording)) {
+            while (file.hasMoreEvents()) {
+                RecordedEvent event = file.readEvent();
+                if (!event.getEventType().getName().equals(EXECUTION_SAMPLE)) continue;
+                RecordedStackTrace stackTrace = event.getStackTrace();
+                if (stackTrace == null) continue;
+                sampleCount++;
+                Set<String> counted = new HashSet<>();
+                for (RecordedFrame frame : stackTrace.getFrames()) {
+                    if (!frame.isJavaFrame()) break;
+                    RecordedMethod method = frame.getMethod();
+                    String key = key(method.getType().getName().replace('.', '/'), method.getName(), method.getDescriptor());
+                    if (counted.add(key)) samples.merge(key, 1L, Long::sum);
+                    if (!"Inlined".equals(frame.getType())) break;
+                }
+            }
+        }
+
+        List<Map.Entry<String, Long>> ranked = new ArrayList<>(samples.entrySet());
+        ranked.sort(Map.Entry.<String, Long>comparingByValue().reversed().thenComparing(Map.Entry.comparingByKey()));
+        int hotCount = ranked.isEmpty() || hotPercent <= 0 ? 0 : Math.max(1, (int) Math.ceil(ranked.size() * hotPercent / 100));
+        Map<String, Intensity> intensities = new TreeMap<>();
+        for (int i = 0; i < ranked.size(); i++) {
+            intensities.put(ranked.get(i).getKey(), i < hotCount ? Intensity.NONE : Intensity.LIGHT);
+        }
+        return new HotnessProfile(intensities, sampleCount);
+    }
+
+    public Intensity getIntensity(String owner, MethodNode mn) {
+        return intensities.getOrDefault(key(owner, mn.name, mn.desc), Intensity.FULL);
+    }
+
+    public boolean isEmpty() {
+        return intensities.isEmpty();
+    }
+
+    public long getSampleCount() {
+        return sampleCount;
+    }
+
+    public int count(Intensity intensity) {
+        int count = 0;
+        for (Intensity value : intensities.values()) {
+            if (value == intensity) count++;
+        }
+        return count;
+    }
+
+    // digest of the intensities as loaded; part of the incremental cache key
+    public String getFingerprint() {
+        return fingerprint;
+    }
+
+    // follows a rename, so transformers that run after it look methods up under their new names
+    public void rename(Remapper mapper) {
+        if (intensities.isEmpty()) return;
+        Map<String, Intensity> renamed = new TreeMap<>();
+        for (Map.Entry<String, Intensity> e : intensities.entrySet()) {
+            String key = e.getKey();
+            int dot = key.indexOf('.');
+            int paren = key.indexOf('(', dot);
+            String owner = key.substring(0, dot);
+            String name = key.substring(dot + 1, paren);
+            String desc = key.substring(paren);
+            renamed.put(key(mapper.map(owner), mapper.mapMethodName(owner, name, desc), mapper.mapMethodDesc(desc)), e.getValue());
+        }
+        intensities.clear();
+        intensities.putAll(renamed);
+    }
+
+    private static String key(String owner, String name, String desc) {
+        return owner + "." + name + desc;
+    }
+
+    private static String fingerprint(Map<String, Intensity> intensities) {
+        MessageDigest digest = HashUtils.sha256();
+        for (Map.Entry<String, Intensity> e : intensities.entrySet()) {
+            digest.update((e.getKey() + "=" + e.getValue() + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+        return HashUtils.hex(digest.digest());
+    }
+}
@@ -0,0 +1,328 @@
+package dev.eatgrapes.chlorine.utils;
+
+import org.objectweb.asm.AnnotationVisitor;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/*
+ * Compiled form of the -k rules. Each rule is one of
+ *   com.example.Main          the class and everything below it as a package prefix (also com.example.Main.member)
+ *   com.example.*             everything below com.example; .** also includes com.example itself
+ *   com.*.api.**              wildcard pattern: * stays within one package level, ** crosses levels
+ *   @com.example.Keep         classes carrying the annotation
+ *   <class>#<member>          members of matching classes; <member> is [@annotation ][name][descriptor], where
+ *                             name may use * and descriptor is a method descriptor "(I)V" or a field type ":I"
+ * Plain prefixes live in a package trie, so a class lookup costs one walk over its name. Decisions are cached for
+ * the lifetime of the rules, which is one run.
+ */
+public class KeepRules {
+    private static final KeepRules NONE = new KeepRules(Collections.emptyList());
+
+    private final List<String> rules;
+    private final TrieNode root = new TrieNode();
+    private final List<Pattern> classPatterns = new ArrayList<>();
+    private final Set<String> keptAnnotations = new HashSet<>();
+    private final Set<String> classAnnotations = new HashSet<>();
+    private final Set<String> legacyMembers = new HashSet<>();
+    private final List<MemberRule> memberRules = new ArrayList<>();
+    private final Set<String> memberAnnotations = new HashSet<>();
+    private final Set<String> annotatedClasses = ConcurrentHashMap.newKeySet();
+    private final Set<String> classTags = ConcurrentHashMap.newKeySet();
+    private final Map<String, Set<String>> annotatedMembers = new ConcurrentHashMap<>();
+    private final Map<String, Boolean> classDecisions = new ConcurrentHashMap<>();
+
+    private KeepRules(List<String> rules) {
+        this.rules = List.copyOf(rules);
+        for (String rule : rules) {
+            compile(rule.trim());
+        }
+    }
+
+    public static KeepRules compile(Collection<String> rules) {
+        return rules.isEmpty() ? NONE : new KeepRules(new ArrayList<>(rules));
+    }
+
+    public static KeepRules none() {
+        return NONE;
+    }
+
+    public List<String> getRules() {
+        return rules;
+    }
+
+    public boolean isEmpty() {
+        return rules.isEmpty();
+    }
+
+    public boolean hasAnnotationRules() {
+        return !keptAnnotations.isEmpty() || !classAnnotations.isEmpty() || !memberAnnotations.isEmpty();
+    }
+
+    // records which classes and members carry an annotation named by a rule; call for every input class first
+    public void scan(byte[] classData) {
+        if (!hasAnnotationRules()) return;
+        ClassReader cr = new ClassReader(classData);
+        String owner = cr.getClassName();
+        cr.accept(new ClassVisitor(Opcodes.ASM9) {
+            @Override
+            public AnnotationVisitor visitAnnotation(String descriptor, boolean visible) {
+                if (classAnnotations.contains(descriptor)) classTags.add(descriptor + owner);
+                if (keptAnnotations.contains(descriptor)) {
+                    annotatedClasses.add(owner);
+                    classDecisions.remove(owner);
+                }
+                return null;
+            }
+
+            @Override
+            public FieldVisitor visitField(int access, String name, String descriptor, String signature, Object value) {
+                return new FieldVisitor(Opcodes.ASM9) {
+                    @Override
+                    public AnnotationVisitor visitAnnotation(String annotation, boolean visible) {
+                        if (memberAnnotations.contains(annotation)) recordMember(owner, annotation, name + descriptor);
+                        return null;
+                    }
+                };
+            }
+
+            @Override
+            public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+                return new MethodVisitor(Opcodes.ASM9) {
+                    @Override
+                    public AnnotationVisitor visitAnnotation(String annotation, boolean visible) {
+                        if (memberAnnotations.contains(annotation)) recordMember(owner, annotation, name + descriptor);
+                        return null;
+                    }
+                };
+            }
+        }, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+    }
+
+    public boolean keepsClass(String internalName) {
+        if (rules.isEmpty()) return false;
+        Boolean decision = classDecisions.get(internalName);
+        if (decision == null) {
+            decision = matchesClass(internalName);
+            classDecisions.put(internalName, decision);
+        }
+        return decision;
+    }
+
+    public boolean keepsMember(String owner, String name, String descriptor) {
+        if (rules.isEmpty()) return false;
+        if (keepsClass(owner)) return true;
+        if (legacyMembers.contains(owner + '.' + name)) return true;
+        for (MemberRule rule : memberRules) {
+            if (rule.matches(this, owner, name, descriptor)) return true;
+        }
+        return false;
+    }
+
+    // what the annotation rules matched on the class and its members, as a stable string; empty when they matched nothing
+    public String getAnnotationMatches(String internalName) {
+        if (!hasAnnotationRules()) return "";
+        StringBuilder matches = new StringBuilder();
+        if (annotatedClasses.contains(internalName)) matches.append("kept;");
+        for (String annotation : new TreeSet<>(classAnnotations)) {
+            if (classTags.contains(annotation + internalName)) matches.append(annotation).append(';');
+        }
+        for (String annotation : new TreeSet<>(memberAnnotations)) {
+            Set<String> members = annotatedMembers.get(annotation + internalName);
+            if (members != null) matches.append(annotation).append(new TreeSet<>(members)).append(';');
+        }
+        return matches.toString();
+    }
+
+    private boolean matchesClass(String internalName) {
+        if (root.matches(internalName)) return true;
+        for (Pattern pattern : classPatterns) {
+            if (pattern.matcher(internalName).matches()) return true;
+        }
+        return annotatedClasses.contains(internalName);
+    }
+
+    private void recordMember(String owner, String annotation, String member) {
+        annotatedMembers.computeIfAbsent(annotation + owner, k -> ConcurrentHashMap.newKeySet()).add(member);
+    }
+
+    private boolean hasAnnotatedMember(String annotation, String owner, String member) {
+        Set<String> members = annotatedMembers.get(annotation + owner);
+        return members != null && members.contains(member);
+    }
+
+    private void compile(String rule) {
+        if (rule.isEmpty()) return;
+        int hash = rule.indexOf('#');
+        if (hash >= 0) {
+            memberRules.add(compileMember(rule.substring(0, hash).trim(), rule.substring(hash + 1).trim()));
+            return;
+        }
+        if (rule.startsWith("@")) {
+            keptAnnotations.add(annotationDescriptor(rule.substring(1)));
+            return;
+        }
+
+        String name = rule.replace('.', '/');
+        if (name.endsWith("/**")) {
+            compileClassPrefix(name.substring(0, name.length() - 3), true);
+        } else if (name.endsWith("/*")) {
+            compileClassPrefix(name.substring(0, name.length() - 2), false);
+        } else if (!hasWildcard(name)) {
+            root.insert(name, true);
+            int slash = name.lastIndexOf('/');
+            if (slash > 0) legacyMembers.add(name.substring(0, slash) + '.' + name.substring(slash + 1));
+        } else {
+            classPatterns.add(classPattern(name));
+        }
+    }
+
+    private void compileClassPrefix(String prefix, boolean includeSelf) {
+        if (hasWildcard(prefix)) {
+            classPatterns.add(classPattern(prefix + (includeSelf ? "/**" : "/*")));
+        } else {
+            root.insert(prefix, includeSelf);
+        }
+    }
+
+    private MemberRule compileMember(String classPart, String memberPart) {
+        String classAnnotation = null;
+        Pattern owner = null;
+        if (classPart.startsWith("@")) {
+            classAnnotation = annotationDescriptor(classPart.substring(1));
+            classAnnotations.add(classAnnotation);
+        } else if (!classPart.isEmpty() && !classPart.equals("**")) {
+            owner = classPattern(classPart.replace('.', '/'));
+        }
+
+        String annotation = null;
+        if (memberPart.startsWith("@")) {
+            int end = memberPart.indexOf(' ');
+            annotation = annotationDescriptor(end < 0 ? memberPart.substring(1) : memberPart.substring(1, end));
+            memberAnnotations.add(annotation);
+            memberPart = end < 0 ? "" : memberPart.substring(end + 1).trim();
+        }
+
+        int descStart = indexOfAny(memberPart, '(', ':');
+        String name = descStart < 0 ? memberPart : memberPart.substring(0, descStart);
+        String desc = descStart < 0 ? null : memberPart.substring(descStart);
+        if (desc != null && desc.startsWith(":")) desc = desc.substring(1);
+        return new MemberRule(classAnnotation, owner, annotation,
+                name.isEmpty() ? null : wildcard(name, ".*"),
+                desc == null ? null : wildcard(desc, ".*"),
+                descStart >= 0 && memberPart.charAt(descStart) == ':');
+    }
+
+    private static int indexOfAny(String s, char a, char b) {
+        for (int i = 0; i < s.length(); i++) {
+            if (s.charAt(i) == a || s.charAt(i) == b) return i;
+        }
+        return -1;
+    }
+
+    private static String annotationDescriptor(String name) {
+        return "L" + name.trim().replace('.', '/') + ";";
+    }
+
+    private static boolean hasWildcard(String s) {
+        return s.indexOf('*') >= 0 || s.indexOf('?') >= 0;
+    }
+
+    // a trailing /** also matches the package itself, like a plain .** rule
+    private static Pattern classPattern(String internalPattern) {
+        if (internalPattern.endsWith("/**")) {
+            String prefix = wildcard(internalPattern.substring(0, internalPattern.length() - 3), "[^/]*").pattern();
+            return Pattern.compile(prefix + "(/.*)?");
+        }
+        return wildcard(internalPattern, "[^/]*");
+    }
+
+    private static Pattern wildcard(String pattern, String star) {
+        StringBuilder regex = new StringBuilder();
+        StringBuilder literal = new StringBuilder();
+        for (int i = 0; i < pattern.length(); i++) {
+            char c = pattern.charAt(i);
+            if (c != '*' && c != '?') {
+                literal.append(c);
+                continue;
+            }
+            if (literal.length() > 0) {
+                regex.append(Pattern.quote(literal.toString()));
+                literal.setLength(0);
+            }
+            if (c == '?') {
+                regex.append("[^/]");
+            } else if (i + 1 < pattern.length() && pattern.charAt(i + 1) == '*') {
+                regex.append(".*");
+                i++;
+            } else {
+                regex.append(star);
+            }
+        }
+        if (literal.length() > 0) regex.append(Pattern.quote(literal.toString()));
+        return Pattern.compile(regex.toString());
+    }
+
+    private static class TrieNode {
+        private final Map<String, TrieNode> children = new HashMap<>();
+        private boolean self;
+        private boolean below;
+
+        private void insert(String path, boolean includeSelf) {
+            TrieNode node = this;
+            for (String segment : path.split("/")) {
+                node = node.children.computeIfAbsent(segment, k -> new TrieNode());
+            }
+            node.below = true;
+            node.self |= includeSelf;
+        }
+
+        private boolean matches(String internalName) {
+            TrieNode node = this;
+            int start = 0;
+            while (true) {
+                int end = internalName.indexOf('/', start);
+                node = node.children.get(end < 0 ? internalName.substring(start) : internalName.substring(start, end));
+                if (node == null) return false;
+                if (end < 0) return node.self;
+                if (node.below) return true;
+                start = end + 1;
+            }
+        }
+    }
+
+    private static class MemberRule {
+        private final String classAnnotation;
+        private final Pattern owner;
+        private final String annotation;
+        private final Pattern name;
+        private final Pattern descriptor;
+        private final boolean field;
+
+        private MemberRule(String classAnnotation, Pattern owner, String annotation, Pattern name, Pattern descriptor, boolean field) {
+            this.classAnnotation = classAnnotation;
+            this.owner = owner;
+            this.annotation = annotation;
+            this.name = name;
+            this.descriptor = descriptor;
+            this.field = field;
+        }
+
+        private boolean matches(KeepRules rules, String ownerName, String memberName, String memberDesc) {
+            if (classAnnotation != null && !rules.classTags.contains(classAnnotation + ownerName)) return false;
+            if (owner != null && !owner.matcher(ownerName).matches()) return false;
+            if (name != null && !name.matcher(memberName).matches()) return false;
+            if (descriptor != null) {
+                if (memberDesc == null || field == memberDesc.startsWith("(")) return false;
+                if (!descriptor.matcher(memberDesc).matches()) return false;
+            }
+            return annotation == null || rules.hasAnnotatedMember(annotation, ownerName, memberName + memberDesc);
+        }
+    }
+}
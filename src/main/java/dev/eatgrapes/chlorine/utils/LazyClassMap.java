@@ -0,0 +1,299 @@
+package dev.eatgrapes.chlorine.utils;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.MethodNode;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+
+public class LazyClassMap extends AbstractMap<String, ClassNode> {
+    private final Map<String, Slot> slots = new LinkedHashMap<>();
+    private boolean markOnAccess;
+
+    public void add(byte[] data) {
+        add(data, 0);
+    }
+
+    // layer: the release a class was read for in a Multi-Release JAR, 0 for the base classes; a class added later
+    // replaces one of the same name
+    public void add(byte[] data, int layer) {
+        Slot slot = new Slot(data);
+        slot.layer = layer;
+        slots.put(slot.name, slot);
+    }
+
+    public int getLayer(String name) {
+        Slot slot = slots.get(name);
+        return slot == null ? 0 : slot.layer;
+    }
+
+    public void materialize(ForkJoinPool pool, Collection<String> names) {
+        List<Slot> pending = new ArrayList<>();
+        for (String name : names) {
+            Slot slot = slots.get(name);
+            if (slot != null && !slot.isMaterialized()) pending.add(slot);
+        }
+        ParallelUtils.map(pool, pending, Slot::node);
+    }
+
+    // a map over some of the classes that shares their state with this one, so marks made through it stick
+    public LazyClassMap select(Collection<String> names) {
+        LazyClassMap view = new LazyClassMap();
+        for (String name : names) {
+            Slot slot = slots.get(name);
+            if (slot != null) view.slots.put(name, slot);
+        }
+        return view;
+    }
+
+    public void setMarkOnAccess(boolean markOnAccess) {
+        this.markOnAccess = markOnAccess;
+    }
+
+    public void markModified(String name, boolean preservesConstants) {
+        Slot slot = slots.get(name);
+        if (slot == null) return;
+        slot.modified = true;
+        if (!preservesConstants) slot.constantsPreserved = false;
+    }
+
+    public void markModified(String name, MethodNode mn, boolean preservesConstants) {
+        Slot slot = slots.get(name);
+        if (slot == null) return;
+        markModified(name, preservesConstants);
+        slot.dirtyMethod(mn);
+    }
+
+    public void replaceClasses(Map<String, ClassNode> replacements) {
+        Map<String, Slot> previous = new HashMap<>();
+        for (String oldName : replacements.keySet()) {
+            previous.put(oldName, slots.remove(oldName));
+        }
+        for (Map.Entry<String, ClassNode> e : replacements.entrySet()) {
+            Slot slot = new Slot(e.getValue());
+            Slot old = previous.get(e.getKey());
+            if (old != null) slot.inherit(old, e.getValue());
+            slots.put(e.getValue().name, slot);
+        }
+    }
+
+    public boolean isModified(String name) {
+        Slot slot = slots.get(name);
+        return slot != null && (slot.original == null || slot.modified);
+    }
+
+    public boolean hasOriginalFrames(String name, MethodNode mn) {
+        Slot slot = slots.get(name);
+        return slot != null && slot.hasOriginalFrames(mn);
+    }
+
+    public boolean canReuseConstantPool(String name) {
+        Slot slot = slots.get(name);
+        return slot != null && slot.original != null && slot.constantsPreserved && !slot.untracked;
+    }
+
+    public boolean isMaterialized(String name) {
+        Slot slot = slots.get(name);
+        return slot != null && slot.isMaterialized();
+    }
+
+    public byte[] getOriginalBytes(String name) {
+        Slot slot = slots.get(name);
+        return slot == null ? null : slot.original;
+    }
+
+    public int getAccess(String name) {
+        Slot slot = slots.get(name);
+        if (slot == null) return 0;
+        ClassNode cn = slot.peek();
+        return cn != null ? cn.access : slot.access;
+    }
+
+    public String getSuperName(String name) {
+        Slot slot = slots.get(name);
+        if (slot == null) return null;
+        ClassNode cn = slot.peek();
+        return cn != null ? cn.superName : slot.superName;
+    }
+
+    public List<String> getInterfaces(String name) {
+        Slot slot = slots.get(name);
+        if (slot == null) return Collections.emptyList();
+        ClassNode cn = slot.peek();
+        return cn != null ? cn.interfaces : slot.interfaces;
+    }
+
+    @Override
+    public ClassNode get(Object key) {
+        Slot slot = slots.get(key);
+        return slot == null ? null : access(slot);
+    }
+
+    @Override
+    public ClassNode put(String name, ClassNode node) {
+        Slot previous = slots.put(name, new Slot(node));
+        return previous == null ? null : previous.node();
+    }
+
+    @Override
+    public ClassNode remove(Object key) {
+        Slot previous = slots.remove(key);
+        return previous == null ? null : previous.node();
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return slots.containsKey(key);
+    }
+
+    @Override
+    public int size() {
+        return slots.size();
+    }
+
+    @Override
+    public void clear() {
+        slots.clear();
+    }
+
+    @Override
+    public Set<String> keySet() {
+        return slots.keySet();
+    }
+
+    @Override
+    public Set<Entry<String, ClassNode>> entrySet() {
+        return new AbstractSet<>() {
+            @Override
+            public Iterator<Entry<String, ClassNode>> iterator() {
+                Iterator<Entry<String, Slot>> it = slots.entrySet().iterator();
+                return new Iterator<>() {
+                    @Override
+                    public boolean hasNext() {
+                        return it.hasNext();
+                    }
+
+                    @Override
+                    public Entry<String, ClassNode> next() {
+                        return new LazyEntry(it.next());
+                    }
+
+                    @Override
+                    public void remove() {
+                        it.remove();
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return slots.size();
+            }
+        };
+    }
+
+    private ClassNode access(Slot slot) {
+        if (markOnAccess) {
+            slot.modified = true;
+            slot.untracked = true;
+        }
+        return slot.node();
+    }
+
+    private class LazyEntry implements Entry<String, ClassNode> {
+        private final Entry<String, Slot> entry;
+
+        private LazyEntry(Entry<String, Slot> entry) {
+            this.entry = entry;
+        }
+
+        @Override
+        public String getKey() {
+            return entry.getKey();
+        }
+
+        @Override
+        public ClassNode getValue() {
+            return access(entry.getValue());
+        }
+
+        @Override
+        public ClassNode setValue(ClassNode value) {
+            Slot previous = entry.setValue(new Slot(value));
+            return previous.node();
+        }
+    }
+
+    private static class Slot {
+        private final String name;
+        private final byte[] original;
+        private final int access;
+        private final String superName;
+        private final List<String> interfaces;
+        private final Set<MethodNode> cleanMethods = Collections.newSetFromMap(new IdentityHashMap<>());
+        private int originalVersion;
+        private int layer;
+        private ClassNode node;
+        private volatile boolean modified;
+        private volatile boolean constantsPreserved;
+        private volatile boolean untracked;
+
+        private Slot(byte[] original) {
+            ClassReader cr = new ClassReader(original);
+            this.name = cr.getClassName();
+            this.original = original;
+            this.access = cr.getAccess();
+            this.superName = cr.getSuperName();
+            this.interfaces = Collections.unmodifiableList(Arrays.asList(cr.getInterfaces()));
+            this.constantsPreserved = true;
+        }
+
+        private Slot(ClassNode node) {
+            this.name = node.name;
+            this.original = null;
+            this.access = node.access;
+            this.superName = node.superName;
+            this.interfaces = node.interfaces;
+            this.node = node;
+            this.originalVersion = node.version;
+        }
+
+        private synchronized void inherit(Slot previous, ClassNode replacement) {
+            ClassNode old = previous.peek();
+            this.untracked = previous.untracked;
+            this.originalVersion = previous.originalVersion;
+            this.layer = previous.layer;
+            if (old == null || old.methods.size() != replacement.methods.size()) return;
+            for (int i = 0; i < old.methods.size(); i++) {
+                if (previous.hasOriginalFrames(old.methods.get(i))) cleanMethods.add(replacement.methods.get(i));
+            }
+        }
+
+        private synchronized void dirtyMethod(MethodNode mn) {
+            cleanMethods.remove(mn);
+        }
+
+        private synchronized boolean hasOriginalFrames(MethodNode mn) {
+            return !untracked && node != null && node.version == originalVersion && cleanMethods.contains(mn);
+        }
+
+        private synchronized boolean isMaterialized() {
+            return node != null;
+        }
+
+        private synchronized ClassNode peek() {
+            return node;
+        }
+
+        private synchronized ClassNode node() {
+            if (node == null) {
+                node = new ClassNode();
+                new ClassReader(original).accept(node, 0);
+                originalVersion = node.version;
+                cleanMethods.addAll(node.methods);
+            }
+            return node;
+        }
+    }
+}
@@ -3,42 +3,33 @@ package dev.eatgrapes.chlorine.utils;
 import java.util.concurrent.atomic.AtomicInteger;
 
 public class NameGenerator {
-    private static final AtomicInteger globalIndex = new AtomicInteger(0);
     private static final char[] CHARS = "abcdefghijklmnopqrstuvwxyz".toCharArray();
     private static final char[] INVISIBLE = {'\u200b', '\u200c', '\u200d', '\u2060', '\u180e'};
 
     private final String prefix;
-    private final AtomicInteger localIndex;
-    private final boolean useGlobal;
+    private final AtomicInteger index;
 
-    public NameGenerator() {
-        this("", true);
-    }
-
-    public NameGenerator(String prefix) {
-        this(prefix, true);
-    }
-
-    public NameGenerator(String prefix, boolean useGlobal) {
+    private NameGenerator(String prefix, AtomicInteger index) {
         this.prefix = prefix;
-        this.useGlobal = useGlobal;
-        this.localIndex = new AtomicInteger(0);
+        this.index = index;
     }
 
-    public static NameGenerator withPrefix(String prefix) {
-        return new NameGenerator(prefix, true);
+    // the generator a run hands to all of its transformers, so the names they draw never collide; each run gets its
+    // own, which keeps concurrent runs in one JVM apart
+    public static NameGenerator forRun() {
+        return new NameGenerator("", new AtomicInteger(0));
     }
 
     public static NameGenerator local() {
-        return new NameGenerator("", false);
+        return new NameGenerator("", new AtomicInteger(0));
     }
 
     public static NameGenerator local(String prefix) {
-        return new NameGenerator(prefix, false);
+        return new NameGenerator(prefix, new AtomicInteger(0));
     }
 
     public String next() {
-        int idx = useGlobal ? globalIndex.getAndIncrement() : localIndex.getAndIncrement();
+        int idx = index.getAndIncrement();
         return prefix + indexToName(idx);
     }
 
@@ -55,7 +46,7 @@ public class NameGenerator {
     }
 
     public String nextInvisible() {
-        int idx = useGlobal ? globalIndex.getAndIncrement() : localIndex.getAndIncrement();
+        int idx = index.getAndIncrement();
         return indexToInvisible(idx);
     }
 
@@ -76,12 +67,4 @@ public class NameGenerator {
         } while (i >= 0);
         return sb.toString();
     }
-
-    public static void reset() {
-        globalIndex.set(0);
-    }
-
-    public static int currentIndex() {
-        return globalIndex.get();
-    }
 }
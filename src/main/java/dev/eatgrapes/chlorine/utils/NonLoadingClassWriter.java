@@ -0,0 +1,23 @@
+package dev.eatgrapes.chlorine.utils;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+
+public class NonLoadingClassWriter extends ClassWriter {
+    private final ClassHierarchy hierarchy;
+
+    public NonLoadingClassWriter(int flags, ClassHierarchy hierarchy) {
+        super(flags);
+        this.hierarchy = hierarchy;
+    }
+
+    public NonLoadingClassWriter(ClassReader reader, int flags, ClassHierarchy hierarchy) {
+        super(reader, flags);
+        this.hierarchy = hierarchy;
+    }
+
+    @Override
+    protected String getCommonSuperClass(String type1, String type2) {
+        return hierarchy.getCommonSuperClass(type1, type2);
+    }
+}
@@ -0,0 +1,58 @@
+package dev.eatgrapes.chlorine.utils;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Function;
+
+public class ParallelUtils {
+    private static final int SPLIT_THRESHOLD = 8;
+
+    public static int defaultThreads() {
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <T, R> List<R> map(ForkJoinPool pool, List<T> items, Function<? super T, ? extends R> fn) {
+        Object[] results = new Object[items.size()];
+        if (pool.getParallelism() <= 1 || items.size() <= SPLIT_THRESHOLD) {
+            for (int i = 0; i < results.length; i++) {
+                results[i] = fn.apply(items.get(i));
+            }
+        } else {
+            pool.invoke(new MapTask<>(items, fn, results, 0, results.length));
+        }
+        return (List<R>) Arrays.asList(results);
+    }
+
+    private static class MapTask<T, R> extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final List<T> items;
+        private final Function<? super T, ? extends R> fn;
+        private final Object[] results;
+        private final int from;
+        private final int to;
+
+        private MapTask(List<T> items, Function<? super T, ? extends R> fn, Object[] results, int from, int to) {
+            this.items = items;
+            this.fn = fn;
+            this.results = results;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= SPLIT_THRESHOLD) {
+                for (int i = from; i < to; i++) {
+                    results[i] = fn.apply(items.get(i));
+                }
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new MapTask<>(items, fn, results, from, mid), new MapTask<>(items, fn, results, mid, to));
+        }
+    }
+}
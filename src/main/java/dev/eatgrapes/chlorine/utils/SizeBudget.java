@@ -0,0 +1,164 @@
+package dev.eatgrapes.chlorine.utils;
+
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.*;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+// Keeps transformed methods under HotSpot's code size thresholds. A method is placed in a tier by its size when a
+// transformer first looks at it, and transformers that grow methods check the estimated result against that tier
+// before rewriting, scaling down or skipping the method when it would not fit. Methods that were held back are
+// reported at the end of the run.
+public class SizeBudget {
+    // -XX:MaxInlineSize: methods up to this size are inlined even when they are not hot
+    public static final int MAX_INLINE_SIZE = 35;
+    // -XX:FreqInlineSize: hot methods up to this size are inlined
+    public static final int FREQ_INLINE_SIZE = 325;
+    // -XX:HugeMethodLimit: larger methods are never JIT-compiled
+    public static final int HUGE_METHOD_LIMIT = 8000;
+
+    public enum Level {
+        // no limit
+        OFF,
+        // keep methods compilable
+        COMPILE,
+        // also keep methods within the inlining threshold they started under
+        INLINE
+    }
+
+    private static final Method UNLIMITED = new Method(Integer.MAX_VALUE, 0);
+
+    private final Level level;
+    private final Map<String, Method> methods = new ConcurrentHashMap<>();
+    private final Map<String, Set<String>> capped = new ConcurrentSkipListMap<>();
+
+    public SizeBudget(Level level) {
+        this.level = level;
+    }
+
+    public static SizeBudget none() {
+        return new SizeBudget(Level.OFF);
+    }
+
+    public Level getLevel() {
+        return level;
+    }
+
+    // the method's budget, restarted from its current size; the tier stays the one it was first seen in. Rewriters
+    // fused into one walk get the same instance, so each sees the growth the others have made.
+    public Method track(String owner, MethodNode mn) {
+        if (level == Level.OFF) return UNLIMITED;
+        int size = estimate(mn.instructions);
+        Method method = methods.computeIfAbsent(key(owner, mn), k -> new Method(limitFor(estimate(mn.instructions, false)), size));
+        method.size = size;
+        return method;
+    }
+
+    public void cap(String owner, MethodNode mn, String transformer) {
+        capped.computeIfAbsent(key(owner, mn), k -> new ConcurrentSkipListSet<>()).add(transformer);
+    }
+
+    // method (owner.name descriptor) -> the transformers that scaled down or skipped it
+    public Map<String, Set<String>> getCapped() {
+        return Collections.unmodifiableMap(capped);
+    }
+
+    private int limitFor(int size) {
+        if (size > HUGE_METHOD_LIMIT) return size;
+        if (level == Level.INLINE) {
+            if (size <= MAX_INLINE_SIZE) return MAX_INLINE_SIZE;
+            if (size <= FREQ_INLINE_SIZE) return FREQ_INLINE_SIZE;
+        }
+        return HUGE_METHOD_LIMIT;
+    }
+
+    private static String key(String owner, MethodNode mn) {
+        return owner.replace('/', '.') + "." + mn.name + mn.desc;
+    }
+
+    // upper estimate of the code length, assuming wide constant pool indices since the final pool is not known yet
+    public static int estimate(InsnList instructions) {
+        return estimate(instructions, true);
+    }
+
+    public static int estimate(AbstractInsnNode insn) {
+        return estimate(insn, true);
+    }
+
+    // without wide indices this is a lower estimate, which places a method in the tier it most likely started in
+    private static int estimate(InsnList instructions, boolean wideConstants) {
+        int size = 0;
+        for (AbstractInsnNode insn : instructions) {
+            size += estimate(insn, wideConstants);
+        }
+        return size;
+    }
+
+    private static int estimate(AbstractInsnNode insn, boolean wideConstants) {
+        switch (insn.getType()) {
+            case AbstractInsnNode.LABEL:
+            case AbstractInsnNode.LINE:
+            case AbstractInsnNode.FRAME:
+                return 0;
+            case AbstractInsnNode.INT_INSN:
+                return insn.getOpcode() == Opcodes.SIPUSH ? 3 : 2;
+            case AbstractInsnNode.VAR_INSN:
+                int var = ((VarInsnNode) insn).var;
+                return var <= 3 ? 1 : var <= 255 ? 2 : 4;
+            case AbstractInsnNode.IINC_INSN:
+                IincInsnNode iinc = (IincInsnNode) insn;
+                return iinc.var <= 255 && iinc.incr >= Byte.MIN_VALUE && iinc.incr <= Byte.MAX_VALUE ? 3 : 6;
+            case AbstractInsnNode.LDC_INSN:
+                Object cst = ((LdcInsnNode) insn).cst;
+                return wideConstants || cst instanceof Long || cst instanceof Double ? 3 : 2;
+            case AbstractInsnNode.TYPE_INSN:
+            case AbstractInsnNode.FIELD_INSN:
+            case AbstractInsnNode.JUMP_INSN:
+                return 3;
+            case AbstractInsnNode.METHOD_INSN:
+                return insn.getOpcode() == Opcodes.INVOKEINTERFACE ? 5 : 3;
+            case AbstractInsnNode.INVOKE_DYNAMIC_INSN:
+                return 5;
+            case AbstractInsnNode.MULTIANEWARRAY_INSN:
+                return 4;
+            case AbstractInsnNode.TABLESWITCH_INSN:
+                return 16 + 4 * ((TableSwitchInsnNode) insn).labels.size();
+            case AbstractInsnNode.LOOKUPSWITCH_INSN:
+                return 12 + 8 * ((LookupSwitchInsnNode) insn).labels.size();
+            default:
+                return 1;
+        }
+    }
+
+    // the running size of one method while a transformer grows it
+    public static class Method {
+        private final int limit;
+        private int size;
+
+        private Method(int limit, int size) {
+            this.limit = limit;
+            this.size = size;
+        }
+
+        public int getLimit() {
+            return limit;
+        }
+
+        public int getSize() {
+            return size;
+        }
+
+        public boolean fits(int growth) {
+            return limit == Integer.MAX_VALUE || size + growth <= limit;
+        }
+
+        public void grow(int growth) {
+            if (limit != Integer.MAX_VALUE) size += growth;
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package dev.eatgrapes.chlorine.utils;
+
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.commons.Remapper;
+
+public class TrackingRemapper extends Remapper {
+    private final Remapper delegate;
+    private boolean changed;
+
+    public TrackingRemapper(Remapper delegate) {
+        super(Opcodes.ASM9);
+        this.delegate = delegate;
+    }
+
+    public void reset() {
+        changed = false;
+    }
+
+    public boolean isChanged() {
+        return changed;
+    }
+
+    @Override
+    public String map(String internalName) {
+        return track(internalName, delegate.map(internalName));
+    }
+
+    @Override
+    public String mapMethodName(String owner, String name, String descriptor) {
+        return track(name, delegate.mapMethodName(owner, name, descriptor));
+    }
+
+    @Override
+    public String mapInvokeDynamicMethodName(String name, String descriptor, Handle bootstrapMethodHandle, Object... bootstrapMethodArguments) {
+        return track(name, delegate.mapInvokeDynamicMethodName(name, descriptor, bootstrapMethodHandle, bootstrapMethodArguments));
+    }
+
+    @Override
+    public String mapRecordComponentName(String owner, String name, String descriptor) {
+        return track(name, delegate.mapRecordComponentName(owner, name, descriptor));
+    }
+
+    @Override
+    public String mapFieldName(String owner, String name, String descriptor) {
+        return track(name, delegate.mapFieldName(owner, name, descriptor));
+    }
+
+    @Override
+    public String mapAnnotationAttributeName(String descriptor, String name) {
+        return track(name, delegate.mapAnnotationAttributeName(descriptor, name));
+    }
+
+    @Override
+    public String mapPackageName(String name) {
+        return track(name, delegate.mapPackageName(name));
+    }
+
+    @Override
+    public String mapModuleName(String name) {
+        return track(name, delegate.mapModuleName(name));
+    }
+
+    private String track(String original, String mapped) {
+        if (mapped != null && !mapped.equals(original)) changed = true;
+        return mapped;
+    }
+}
@@ -0,0 +1,43 @@
+package dev.eatgrapes.chlorine;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Class bytes of test fixtures, run through Chlorine in memory and loaded back away from the test class path.
+public final class TestJars {
+    private TestJars() {
+    }
+
+    // entry name -> bytes of each class as compiled
+    public static Map<String, byte[]> classes(Class<?>... types) throws IOException {
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        for (Class<?> type : types) {
+            String name = type.getName().replace('.', '/') + ".class";
+            try (InputStream in = type.getClassLoader().getResourceAsStream(name)) {
+                if (in == null) throw new IOException("Missing " + name);
+                entries.put(name, in.readAllBytes());
+            }
+        }
+        return entries;
+    }
+
+    public static Map<String, byte[]> process(Map<String, byte[]> entries, ChlorineConfig config) throws IOException {
+        Map<String, byte[]> output = new LinkedHashMap<>();
+        Chlorine.process(entries.entrySet(), config, output::put);
+        return output;
+    }
+
+    // defines the classes of a run on top of the platform loader, so the compiled fixtures are never picked up
+    public static ClassLoader load(Map<String, byte[]> entries) {
+        return new ClassLoader(ClassLoader.getPlatformClassLoader()) {
+            @Override
+            protected Class<?> findClass(String name) throws ClassNotFoundException {
+                byte[] data = entries.get(name.replace('.', '/') + ".class");
+                if (data == null) throw new ClassNotFoundException(name);
+                return defineClass(name, data, 0, data.length);
+            }
+        };
+    }
+}
@@ -0,0 +1,74 @@
+package dev.eatgrapes.chlorine.fixtures;
+
+// Interfaces reached along more than one path, implemented through inherited superclass methods, defaults and a
+// generic bridge; run calls each through every type it is visible as.
+public class Diamonds {
+    public interface Named {
+        String name();
+    }
+
+    public interface Left extends Named {
+        default String side() {
+            return "left:" + name();
+        }
+    }
+
+    public interface Right extends Named {
+        String name();
+
+        default int weight() {
+            return 1;
+        }
+    }
+
+    public static class Base {
+        public String name() {
+            return "base";
+        }
+
+        public int weight() {
+            return 2;
+        }
+    }
+
+    // implements Named, Left and Right only through what it inherits from Base
+    public static class Both extends Base implements Left, Right {
+    }
+
+    public static class Refined extends Base implements Left, Right {
+        @Override
+        public String name() {
+            return "refined";
+        }
+
+        @Override
+        public String side() {
+            return "own:" + Left.super.side();
+        }
+    }
+
+    public interface Sized<T> {
+        int size(T value);
+    }
+
+    public static class TextSize implements Sized<String> {
+        @Override
+        public int size(String value) {
+            return value.length();
+        }
+    }
+
+    public static String run() {
+        StringBuilder sb = new StringBuilder();
+        Named[] all = {new Both(), new Refined()};
+        for (Named named : all) {
+            sb.append(named.name()).append(',');
+            sb.append(((Left) named).side()).append(',');
+            sb.append(((Right) named).weight()).append(',');
+            sb.append(((Base) named).weight()).append(';');
+        }
+        Sized<String> sized = new TextSize();
+        sb.append(sized.size("abc")).append(new TextSize().size("hello"));
+        return sb.toString();
+    }
+}
@@ -0,0 +1,91 @@
+package dev.eatgrapes.chlorine.fixtures;
+
+// Methods with loops around and inside the code FlowObfuscation flattens; each returns a value that depends on
+// every path through it.
+public class Loops {
+    public static int nested(int n) {
+        int sum = 0;
+        for (int i = 0; i < n; i++) {
+            if ((i & 1) == 0) {
+                sum += i * 3;
+            } else {
+                sum -= i;
+            }
+            for (int j = 0; j < i; j++) {
+                sum = sum * 31 + j;
+            }
+        }
+        return sum;
+    }
+
+    public static long wide(int n) {
+        long product = 1;
+        double scale = 0.5;
+        int i = 0;
+        while (i < n) {
+            product = product * 7 + i;
+            scale *= 1.5;
+            if (scale > 100) {
+                scale /= 3;
+            }
+            i++;
+        }
+        return product ^ Double.doubleToLongBits(scale);
+    }
+
+    public static int withHandler(int n) {
+        int total = 0;
+        for (int i = 0; i < n; i++) {
+            try {
+                total += 100 / (i % 4);
+            } catch (ArithmeticException e) {
+                total -= 7;
+            }
+        }
+        return total;
+    }
+
+    public static String strings(int n) {
+        StringBuilder sb = new StringBuilder();
+        String separator = "";
+        for (int i = 0; i < n; i++) {
+            switch (i % 3) {
+                case 0:
+                    sb.append(separator).append('a');
+                    break;
+                case 1:
+                    sb.append(separator).append(i);
+                    break;
+                default:
+                    sb.append(separator).append("c");
+            }
+            separator = ",";
+        }
+        return sb.toString();
+    }
+
+    public static int labelled(int n) {
+        int found = -1;
+        outer:
+        for (int i = 2; i < n; i++) {
+            for (int j = 2; j * j <= i; j++) {
+                if (i % j == 0) continue outer;
+            }
+            found = i;
+        }
+        return found;
+    }
+
+    public static int reusedSlot(int n) {
+        int result = 0;
+        {
+            int count = n * 2;
+            result += count;
+        }
+        {
+            String text = "x" + n;
+            result += text.length();
+        }
+        return result;
+    }
+}
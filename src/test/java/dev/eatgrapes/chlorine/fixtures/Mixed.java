@@ -0,0 +1,36 @@
+package dev.eatgrapes.chlorine.fixtures;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Constants, string literals, concatenations, calls and field accesses for every rewriting transformer to touch.
+public class Mixed {
+    public static final String PREFIX = "mixed";
+    public static int base = 3;
+
+    private final List<String> parts = new ArrayList<>();
+    private long total;
+    private int count = base;
+
+    public Mixed add(String part, int weight) {
+        parts.add(part + "#" + weight);
+        total += (long) weight * 1_000_003L;
+        count++;
+        return this;
+    }
+
+    public String describe() {
+        StringBuilder sb = new StringBuilder(PREFIX).append('[');
+        for (int i = 0; i < parts.size(); i++) {
+            if (i > 0) sb.append(", ");
+            sb.append(parts.get(i).toUpperCase());
+        }
+        return sb.append("] total=").append(total).append(" scale=").append(0.75 * parts.size()).append(" count=").append(count).toString();
+    }
+
+    public static String run() {
+        Mixed mixed = new Mixed().add("alpha", 7).add("beta", -42).add("gamma", 0x7fff_0000);
+        String text = mixed.describe() + " base=" + base + " max=" + Long.MAX_VALUE + " " + Integer.toHexString(0xCAFE);
+        return text + " length=" + String.valueOf(text.length()).repeat(2);
+    }
+}
@@ -0,0 +1,157 @@
+package dev.eatgrapes.chlorine.io;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import static dev.eatgrapes.chlorine.io.ZipConstants.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+class ZipArchiveTest {
+    private static final byte[] PREAMBLE = "#!/bin/sh\nexec java -jar \"$0\" \"$@\"\n".getBytes(StandardCharsets.UTF_8);
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void roundTripsEntries() throws IOException {
+        Map<String, byte[]> entries = sampleEntries();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            assertReadsBack(write(entries, null, executor, false), entries);
+            assertReadsBack(write(entries, null, executor, true), entries);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void roundTripsWithPreamble() throws IOException {
+        Map<String, byte[]> entries = sampleEntries();
+        byte[] written = write(entries, PREAMBLE, null, false);
+        assertArrayEquals(PREAMBLE, Arrays.copyOf(written, PREAMBLE.length));
+        assertReadsBack(written, entries);
+
+        // a stub prepended after the fact leaves every offset short by its length
+        assertReadsBack(concat(PREAMBLE, write(entries, null, null, false)), entries);
+    }
+
+    @Test
+    void roundTripsZip64() throws IOException {
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        for (int i = 0; i < ZIP64_MAGIC_COUNT + 100; i++) {
+            entries.put("e/" + i, Integer.toString(i * 7).getBytes(StandardCharsets.UTF_8));
+        }
+        byte[] written = write(entries, PREAMBLE, null, true);
+        assertEquals(ZIP64_END_SIG, intAt(written, written.length - END_SIZE - ZIP64_LOCATOR_SIZE - ZIP64_END_SIZE));
+        assertReadsBack(written, entries);
+        // java.util.zip follows the ZIP64 locator's offset, which a prepended stub leaves pointing short
+        assertArchiveReadsBack(concat(PREAMBLE, write(entries, null, null, true)), entries);
+    }
+
+    @Test
+    void copiesEntriesRaw() throws IOException {
+        // ZipOutputStream streams its entries with data descriptors, which a raw copy has to drop
+        Map<String, byte[]> entries = sampleEntries();
+        ByteArrayOutputStream source = new ByteArrayOutputStream();
+        try (ZipOutputStream zos = new ZipOutputStream(source)) {
+            for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+                zos.putNextEntry(new ZipEntry(entry.getKey()));
+                zos.write(entry.getValue());
+                zos.closeEntry();
+            }
+        }
+
+        ByteArrayOutputStream copy = new ByteArrayOutputStream();
+        try (ZipArchive archive = ZipArchive.wrap(source.toByteArray()); ZipWriter writer = new ZipWriter(copy)) {
+            for (ArchiveEntry entry : archive.getEntries()) {
+                assertNotEquals(0, entry.getFlags() & FLAG_DATA_DESCRIPTOR, entry.getName());
+                writer.copyEntry(archive, entry);
+            }
+        }
+        assertReadsBack(copy.toByteArray(), entries);
+        try (ZipArchive archive = ZipArchive.wrap(copy.toByteArray())) {
+            for (ArchiveEntry entry : archive.getEntries()) {
+                assertEquals(FLAG_UTF8, entry.getFlags() & (FLAG_UTF8 | FLAG_DATA_DESCRIPTOR), entry.getName());
+            }
+        }
+    }
+
+    private static Map<String, byte[]> sampleEntries() {
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        entries.put("META-INF/MANIFEST.MF", "Manifest-Version: 1.0\r\n\r\n".getBytes(StandardCharsets.UTF_8));
+        entries.put("com/example/", new byte[0]);
+        entries.put("com/example/Main.class", new byte[]{(byte) 0xCA, (byte) 0xFE, (byte) 0xBA, (byte) 0xBE, 0, 0, 0, 61});
+        entries.put("com/example/empty.txt", new byte[0]);
+        entries.put("data/übersicht-日本.txt", "grüße".getBytes(StandardCharsets.UTF_8));
+        byte[] repetitive = new byte[200_000];
+        for (int i = 0; i < repetitive.length; i++) {
+            repetitive[i] = (byte) (i % 13);
+        }
+        entries.put("data/repetitive.bin", repetitive);
+        byte[] random = new byte[50_000];
+        new Random(5).nextBytes(random);
+        entries.put("data/random.bin", random);
+        return entries;
+    }
+
+    private static byte[] write(Map<String, byte[]> entries, byte[] preamble, ExecutorService executor, boolean stored) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ZipWriter writer = new ZipWriter(out, executor, 6, stored)) {
+            if (preamble != null) writer.writePreamble(preamble);
+            for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+                writer.writeEntry(entry.getKey(), entry.getValue());
+            }
+        }
+        return out.toByteArray();
+    }
+
+    // through every backend, and through java.util.zip as a reader Chlorine did not write
+    private void assertReadsBack(byte[] zip, Map<String, byte[]> expected) throws IOException {
+        File file = assertArchiveReadsBack(zip, expected);
+        try (ZipFile zipFile = new ZipFile(file, StandardCharsets.UTF_8)) {
+            assertEquals(expected.size(), zipFile.size());
+            for (Map.Entry<String, byte[]> entry : expected.entrySet()) {
+                ZipEntry zipEntry = zipFile.getEntry(entry.getKey());
+                assertNotNull(zipEntry, entry.getKey());
+                assertArrayEquals(entry.getValue(), zipFile.getInputStream(zipEntry).readAllBytes(), entry.getKey());
+            }
+        }
+    }
+
+    private File assertArchiveReadsBack(byte[] zip, Map<String, byte[]> expected) throws IOException {
+        File file = Files.write(dir.resolve("archive.zip"), zip).toFile();
+        for (ZipArchive archive : new ZipArchive[]{ZipArchive.wrap(zip), ZipArchive.open(file, false), ZipArchive.open(file, true)}) {
+            try (archive) {
+                List<ArchiveEntry> read = archive.getEntries();
+                assertEquals(new ArrayList<>(expected.keySet()), read.stream().map(ArchiveEntry::getName).toList());
+                for (ArchiveEntry entry : read) {
+                    assertArrayEquals(expected.get(entry.getName()), archive.read(entry), entry.getName());
+                }
+            }
+        }
+        return file;
+    }
+
+    private static int intAt(byte[] data, int offset) {
+        return (data[offset] & 0xFF) | (data[offset + 1] & 0xFF) << 8 | (data[offset + 2] & 0xFF) << 16 | (data[offset + 3] & 0xFF) << 24;
+    }
+
+    private static byte[] concat(byte[] a, byte[] b) {
+        byte[] result = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, result, a.length, b.length);
+        return result;
+    }
+}
@@ -0,0 +1,50 @@
+package dev.eatgrapes.chlorine.transformers;
+
+import dev.eatgrapes.chlorine.ChlorineConfig;
+import dev.eatgrapes.chlorine.TestJars;
+import dev.eatgrapes.chlorine.fixtures.Loops;
+import dev.eatgrapes.chlorine.fixtures.Mixed;
+import dev.eatgrapes.chlorine.utils.SizeBudget;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FusedTransformerTest {
+    @ParameterizedTest
+    @ValueSource(strings = {
+            "NumberObfuscation,StringEncryption,Reflection",
+            "Reflection,StringEncryption,NumberObfuscation",
+            "StringEncryption,NumberObfuscation"
+    })
+    void fusedOutputMatchesUnfused(String names) throws Exception {
+        Map<String, byte[]> input = TestJars.classes(Mixed.class, Loops.class);
+        Map<String, byte[]> unfused = TestJars.process(input, config(names, false));
+        Map<String, byte[]> fused = TestJars.process(input, config(names, true));
+
+        String mixedEntry = "dev/eatgrapes/chlorine/fixtures/Mixed.class";
+        assertFalse(Arrays.equals(input.get(mixedEntry), fused.get(mixedEntry)), "nothing was rewritten");
+        assertEquals(unfused.keySet(), fused.keySet());
+        for (Map.Entry<String, byte[]> entry : unfused.entrySet()) {
+            assertArrayEquals(entry.getValue(), fused.get(entry.getKey()), entry.getKey());
+        }
+        Class<?> mixed = Class.forName(Mixed.class.getName(), true, TestJars.load(fused));
+        assertEquals(Mixed.run(), mixed.getMethod("run").invoke(null));
+    }
+
+    // without a size budget no method is capped, so sharing one walk must not change a byte
+    private static ChlorineConfig config(String names, boolean fused) {
+        Transformers registry = new Transformers();
+        ChlorineConfig config = new ChlorineConfig()
+                .setSeed(11)
+                .setSizeBudget(SizeBudget.Level.OFF)
+                .setFused(fused);
+        for (String name : names.split(",")) {
+            config.addTransformer(registry.get(name));
+        }
+        return config;
+    }
+}
@@ -0,0 +1,49 @@
+package dev.eatgrapes.chlorine.transformers.impl;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DenseKeysTest {
+    @Test
+    void everyKeyMapsBackToItsOwnIndex() {
+        for (int capacity = 1; capacity <= 1024; capacity++) {
+            assertDense(capacity, capacity);
+        }
+        for (int bits = 11; bits <= 16; bits++) {
+            assertDense(1 << bits, bits);
+            assertDense((1 << bits) + 1, bits);
+        }
+    }
+
+    @Test
+    void sameSeedGivesSameKeys() {
+        FlowTransformer.DenseKeys a = new FlowTransformer.DenseKeys(new SplittableRandom(7), 64);
+        FlowTransformer.DenseKeys b = new FlowTransformer.DenseKeys(new SplittableRandom(7), 64);
+        SplittableRandom ra = new SplittableRandom(8);
+        SplittableRandom rb = new SplittableRandom(8);
+        for (int i = 0; i < 64; i++) {
+            assertEquals(a.next(ra), b.next(rb));
+        }
+    }
+
+    // hands out every key of the capacity and checks the indices they map to are 0..capacity-1, each once
+    private static void assertDense(int capacity, long seed) {
+        SplittableRandom random = new SplittableRandom(seed);
+        FlowTransformer.DenseKeys keys = new FlowTransformer.DenseKeys(random, capacity);
+        Set<Integer> seenKeys = new HashSet<>();
+        boolean[] seenIndices = new boolean[capacity];
+        for (int i = 0; i < capacity; i++) {
+            int key = keys.next(random);
+            int index = keys.indexOf(key);
+            assertTrue(index >= 0 && index < capacity, "capacity " + capacity + ": index " + index + " out of range");
+            assertFalse(seenIndices[index], "capacity " + capacity + ": index " + index + " handed out twice");
+            assertTrue(seenKeys.add(key), "capacity " + capacity + ": key " + key + " handed out twice");
+            seenIndices[index] = true;
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package dev.eatgrapes.chlorine.transformers.impl;
+
+import dev.eatgrapes.chlorine.ChlorineConfig;
+import dev.eatgrapes.chlorine.TestJars;
+import dev.eatgrapes.chlorine.fixtures.Loops;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.util.CheckClassAdapter;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FlowTransformerTest {
+    private static final String LOOPS = "dev/eatgrapes/chlorine/fixtures/Loops.class";
+
+    @ParameterizedTest
+    @CsvSource({
+            "false, false, false", "true, false, false", "false, true, false", "true, true, false",
+            "false, false, true", "true, false, true", "false, true, true", "true, true, true"
+    })
+    void flattenedLoopsVerifyAndKeepTheirResults(boolean exceptionFree, boolean tableDispatch, boolean regions) throws Exception {
+        FlowTransformer flow = new FlowTransformer();
+        flow.setExceptionFree(exceptionFree);
+        flow.setTableDispatch(tableDispatch);
+        flow.setRegionFlattening(regions);
+        Map<String, byte[]> output = TestJars.process(TestJars.classes(Loops.class), new ChlorineConfig().addTransformer(flow).setSeed(1));
+
+        byte[] data = output.get(LOOPS);
+        assertNotNull(data);
+        ClassLoader loader = TestJars.load(output);
+        StringWriter errors = new StringWriter();
+        CheckClassAdapter.verify(new ClassReader(data), loader, false, new PrintWriter(errors));
+        assertEquals("", errors.toString());
+        assertTrue(dispatches(data, "nested", tableDispatch), "nested was not flattened");
+
+        Class<?> flattened = Class.forName(Loops.class.getName(), true, loader);
+        for (Method original : Loops.class.getDeclaredMethods()) {
+            if (!Modifier.isStatic(original.getModifiers())) continue;
+            Method method = flattened.getMethod(original.getName(), int.class);
+            for (int n : new int[]{0, 1, 2, 5, 17, 40}) {
+                assertEquals(original.invoke(null, n), method.invoke(null, n), original.getName() + "(" + n + ")");
+            }
+        }
+    }
+
+    private static boolean dispatches(byte[] data, String name, boolean tableDispatch) {
+        ClassNode cn = new ClassNode();
+        new ClassReader(data).accept(cn, 0);
+        int opcode = tableDispatch ? Opcodes.TABLESWITCH : Opcodes.LOOKUPSWITCH;
+        for (MethodNode mn : cn.methods) {
+            if (!mn.name.equals(name)) continue;
+            for (AbstractInsnNode insn : mn.instructions) {
+                if (insn.getOpcode() == opcode) return true;
+            }
+        }
+        return false;
+    }
+}
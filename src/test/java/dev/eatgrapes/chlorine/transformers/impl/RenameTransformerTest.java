@@ -0,0 +1,63 @@
+package dev.eatgrapes.chlorine.transformers.impl;
+
+import dev.eatgrapes.chlorine.ChlorineConfig;
+import dev.eatgrapes.chlorine.TestJars;
+import dev.eatgrapes.chlorine.fixtures.Diamonds;
+import dev.eatgrapes.chlorine.transformers.Transformers;
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.MethodNode;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RenameTransformerTest {
+    private static final Set<String> RENAMED = Set.of("name", "side", "weight", "size");
+
+    @Test
+    void renamesMethodsAcrossInterfaceDiamonds() throws Exception {
+        Transformers registry = new Transformers();
+        ChlorineConfig config = new ChlorineConfig()
+                .addTransformer(registry.get("MethodRename"))
+                .addKeep("dev.eatgrapes.chlorine.fixtures.Diamonds#run")
+                .setSeed(1);
+        assertRunsLikeTheOriginal(TestJars.process(diamonds(), config));
+    }
+
+    @Test
+    void renamesClassesMethodsAndFieldsTogether() throws Exception {
+        Transformers registry = new Transformers();
+        ChlorineConfig config = new ChlorineConfig()
+                .addTransformer(registry.get("ClassRename"))
+                .addTransformer(registry.get("MethodRename"))
+                .addTransformer(registry.get("FieldRename"))
+                .addKeep("dev.eatgrapes.chlorine.fixtures.Diamonds")
+                .setSeed(1);
+        Map<String, byte[]> output = TestJars.process(diamonds(), config);
+        assertRunsLikeTheOriginal(output);
+        assertEquals(1, output.keySet().stream().filter(name -> name.startsWith("dev/eatgrapes/chlorine/fixtures/")).count());
+    }
+
+    private static Map<String, byte[]> diamonds() throws Exception {
+        List<Class<?>> types = new ArrayList<>(List.of(Diamonds.class.getDeclaredClasses()));
+        types.add(0, Diamonds.class);
+        return TestJars.classes(types.toArray(new Class<?>[0]));
+    }
+
+    private static void assertRunsLikeTheOriginal(Map<String, byte[]> output) throws Exception {
+        for (byte[] data : output.values()) {
+            ClassNode cn = new ClassNode();
+            new ClassReader(data).accept(cn, 0);
+            for (MethodNode mn : cn.methods) {
+                assertFalse(RENAMED.contains(mn.name), cn.name + "." + mn.name + mn.desc + " kept its name");
+            }
+        }
+        Class<?> renamed = Class.forName(Diamonds.class.getName(), true, TestJars.load(output));
+        assertEquals(Diamonds.run(), renamed.getMethod("run").invoke(null));
+    }
+}
@@ -0,0 +1,67 @@
+package dev.eatgrapes.chlorine.utils;
+
+import dev.eatgrapes.chlorine.TestJars;
+import dev.eatgrapes.chlorine.fixtures.Loops;
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.MethodNode;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ControlFlowGraphTest {
+    @Test
+    void findsNestedLoops() throws Exception {
+        for (String name : new String[]{"nested", "labelled"}) {
+            List<ControlFlowGraph.Loop> loops = build(name).getLoops();
+            assertEquals(2, loops.size(), name);
+            ControlFlowGraph.Loop outer = loops.get(0).isInnermost() ? loops.get(1) : loops.get(0);
+            ControlFlowGraph.Loop inner = loops.get(0).isInnermost() ? loops.get(0) : loops.get(1);
+            assertFalse(outer.isInnermost(), name);
+            assertTrue(inner.isInnermost(), name);
+            assertTrue(outer.getBody().containsAll(inner.getBody()), name);
+            for (ControlFlowGraph.Loop loop : loops) {
+                for (ControlFlowGraph.Block block : loop.getBody()) {
+                    assertTrue(block.isDominatedBy(loop.getHeader()), name);
+                }
+            }
+        }
+    }
+
+    @Test
+    void findsSingleLoopWithHandler() throws Exception {
+        List<ControlFlowGraph.Loop> loops = build("withHandler").getLoops();
+        assertEquals(1, loops.size());
+        assertTrue(loops.get(0).isInnermost());
+    }
+
+    @Test
+    void typesLocals() throws Exception {
+        Map<Integer, Type> types = build("wide").getLocalTypes().orElseThrow();
+        assertEquals(Type.INT_TYPE, types.get(0));
+        assertEquals(Type.LONG_TYPE, types.get(1));
+        assertEquals(Type.DOUBLE_TYPE, types.get(3));
+        assertEquals(Type.INT_TYPE, types.get(5));
+        assertFalse(types.containsKey(2));
+        assertFalse(types.containsKey(4));
+    }
+
+    @Test
+    void rejectsSlotsThatChangeType() throws Exception {
+        assertEquals(Optional.empty(), build("reusedSlot").getLocalTypes());
+    }
+
+    private static ControlFlowGraph build(String name) throws Exception {
+        ClassNode cn = new ClassNode();
+        new ClassReader(TestJars.classes(Loops.class).values().iterator().next()).accept(cn, 0);
+        for (MethodNode mn : cn.methods) {
+            if (mn.name.equals(name)) return ControlFlowGraph.build(cn.name, mn);
+        }
+        throw new IllegalArgumentException(name);
+    }
+}